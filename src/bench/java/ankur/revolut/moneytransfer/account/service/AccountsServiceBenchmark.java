@@ -0,0 +1,97 @@
+package ankur.revolut.moneytransfer.account.service;
+
+import ankur.revolut.moneytransfer.account.model.AccountRequest;
+import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.HttpResponse;
+import ankur.revolut.moneytransfer.account.model.TransferRequest;
+import ankur.revolut.moneytransfer.bench.AccessPattern;
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.AccountDao;
+import ankur.revolut.moneytransfer.datastore.AccountDaoCreator;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service layer over the default datastore, which adds the transformer and the balance re-read
+ * that every request makes on top of {@code AccountDaoBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AccountsServiceBenchmark {
+
+    @Param({"10000"})
+    int accounts;
+
+    @Param({"uniform", "hot"})
+    String pattern;
+
+    AccountsService service;
+    AccessPattern accessPattern;
+    String[] accountNumbers;
+
+    @State(Scope.Thread)
+    public static class Requests {
+        String prefix = Long.toHexString(System.nanoTime()) + Thread.currentThread().getId() + "-";
+        long next;
+
+        AmountRequest amount() {
+            AmountRequest request = new AmountRequest();
+            request.setAmount(BigDecimal.ONE);
+            request.setRequestID(prefix + next++);
+            return request;
+        }
+
+        TransferRequest transfer(String to) {
+            TransferRequest request = new TransferRequest();
+            request.setAmount(BigDecimal.ONE);
+            request.setTo(to);
+            request.setRequestID(prefix + next++);
+            return request;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchSupport.quietLogging();
+        AccountDao dao = AccountDaoCreator.createDao(10);
+        service = AccountsService.create(dao, new AccountNumberCreator(), new HTTPTransformer());
+        accessPattern = AccessPattern.of(pattern, accounts);
+        accountNumbers = new String[accounts];
+        AccountRequest accountRequest = new AccountRequest();
+        accountRequest.setFirstName("Bench");
+        accountRequest.setOtherName("");
+        accountRequest.setSurname("Mark");
+        AmountRequest seed = new AmountRequest();
+        seed.setAmount(BigDecimal.valueOf(1_000_000));
+        for (int i = 0; i < accounts; i++) {
+            service.addNewAccount(accountRequest);
+            accountNumbers[i] = BenchSupport.accountNumber(i);
+            seed.setRequestID("seed-" + i);
+            service.addAmount(accountNumbers[i], seed);
+        }
+    }
+
+    @Benchmark
+    public HttpResponse addAmount(Requests requests) {
+        return service.addAmount(accountNumbers[accessPattern.next()], requests.amount());
+    }
+
+    @Benchmark
+    public HttpResponse transferFunds(Requests requests) {
+        int from = accessPattern.next();
+        int to = accessPattern.nextExcept(from);
+        return service.transferFunds(accountNumbers[from], requests.transfer(accountNumbers[to]));
+    }
+
+    @Benchmark
+    public HttpResponse getAccount() {
+        return service.getAccount(accountNumbers[accessPattern.next()]);
+    }
+}
@@ -0,0 +1,99 @@
+package ankur.revolut.moneytransfer.account.service;
+
+import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.HttpResponse;
+import ankur.revolut.moneytransfer.account.model.TransferRequest;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HTTPTransformerBenchmark {
+
+    Transformer transformer = new HTTPTransformer();
+    ObjectMapper objectMapper = new ObjectMapper();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    Account account;
+    Amount amount = Amount.newAmount(123_456);
+    AmountRequest amountRequest = new AmountRequest();
+    TransferRequest transferRequest = new TransferRequest();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        account = Account.AccountBuilder.anAccount()
+                .withAccountNumber("000000001")
+                .withCreationDateTime(OffsetDateTime.now(ZoneOffset.UTC))
+                .withFirstName("Bench")
+                .withOtherName("")
+                .withSurname("Mark")
+                .build();
+        amountRequest.setAmount(new BigDecimal("12.34"));
+        amountRequest.setRequestID("b1946ac92492d2347c6235b4d2611184");
+        transferRequest.setAmount(new BigDecimal("12.34"));
+        transferRequest.setTo("000000002");
+        transferRequest.setRequestID("b1946ac92492d2347c6235b4d2611184");
+    }
+
+    @Benchmark
+    public AddFunds addAmountRequest() {
+        return transformer.addAmountRequest(amountRequest, "000000001");
+    }
+
+    @Benchmark
+    public HttpResponse addAmountResponse() {
+        return transformer.addAmountResponse(amountRequest.getRequestID(), FundEnum.SUCCESS, amount);
+    }
+
+    /**
+     * A balance-carrying response built and written out, as for every successful change.
+     */
+    @Benchmark
+    public int renderAddAmountResponse() throws IOException {
+        out.reset();
+        objectMapper.writeValueTo(out, transformer.addAmountResponse(amountRequest.getRequestID(), FundEnum.SUCCESS, amount));
+        return out.size();
+    }
+
+    @Benchmark
+    public int renderTimedOutResponse() throws IOException {
+        out.reset();
+        objectMapper.writeValueTo(out, transformer.transferResponse(transferRequest.getRequestID(), FundEnum.TIMED_OUT));
+        return out.size();
+    }
+
+    @Benchmark
+    public Transfer transferAmountRequest() {
+        return transformer.transferAmountRequest(transferRequest, "000000001");
+    }
+
+    @Benchmark
+    public HttpResponse getAccountResponse() {
+        return transformer.getAccountResponse(new AccountSnapshot(account, amount, 1));
+    }
+
+    /**
+     * An account's details and balance built and written out, as for every account read.
+     */
+    @Benchmark
+    public int renderGetAccountResponse() throws IOException {
+        out.reset();
+        objectMapper.writeValueTo(out, transformer.getAccountResponse(new AccountSnapshot(account, amount, 1)));
+        return out.size();
+    }
+}
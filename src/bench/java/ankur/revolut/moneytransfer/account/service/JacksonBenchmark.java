@@ -0,0 +1,109 @@
+package ankur.revolut.moneytransfer.account.service;
+
+import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.HttpResponse;
+import ankur.revolut.moneytransfer.account.model.TransferRequest;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading request bodies and writing responses the way {@code AccountsController} does, from and to
+ * streams, next to the same work done through Strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JacksonBenchmark {
+
+    static final String AMOUNT_BODY = "{\"amount\":\"12.34\",\"requestID\":\"b1946ac92492d2347c6235b4d2611184\"}";
+    static final String TRANSFER_BODY = "{\"amount\":\"12.34\",\"to\":\"000000002\","
+            + "\"requestID\":\"b1946ac92492d2347c6235b4d2611184\"}";
+    static final String MALFORMED_BODY = "{\"amount\":\"12.345\",\"requestID\":\"b1946ac92492d2347c6235b4d2611184\"}";
+
+    static final byte[] AMOUNT_BYTES = AMOUNT_BODY.getBytes(StandardCharsets.UTF_8);
+    static final byte[] MALFORMED_BYTES = MALFORMED_BODY.getBytes(StandardCharsets.UTF_8);
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    HttpResponse amountResponse;
+    HttpResponse accountResponse;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Transformer transformer = new HTTPTransformer();
+        Account account = Account.AccountBuilder.anAccount()
+                .withAccountNumber("000000001")
+                .withCreationDateTime(OffsetDateTime.now(ZoneOffset.UTC))
+                .withFirstName("Bench")
+                .withOtherName("")
+                .withSurname("Mark")
+                .build();
+        amountResponse = transformer.addAmountResponse("b1946ac92492d2347c6235b4d2611184", FundEnum.SUCCESS,
+                                                       Amount.newAmount(123_456));
+        // Account reads are written from pre-encoded JSON, so new accounts are what still goes through Jackson
+        accountResponse = transformer.addNewAccountResponse(account, Amount.newAmount(123_456));
+    }
+
+    @Benchmark
+    public Optional<AmountRequest> readAmountRequest() {
+        return objectMapper.tryReadValue(AMOUNT_BODY, AmountRequest.class);
+    }
+
+    @Benchmark
+    public Optional<TransferRequest> readTransferRequest() {
+        return objectMapper.tryReadValue(TRANSFER_BODY, TransferRequest.class);
+    }
+
+    @Benchmark
+    public Optional<AmountRequest> readMalformedRequest() {
+        return objectMapper.tryReadValue(MALFORMED_BODY, AmountRequest.class);
+    }
+
+    @Benchmark
+    public Optional<AmountRequest> readAmountRequestFromStream() {
+        return objectMapper.tryReadValue(new ByteArrayInputStream(AMOUNT_BYTES), AmountRequest.class);
+    }
+
+    @Benchmark
+    public Optional<AmountRequest> readMalformedRequestFromStream() {
+        return objectMapper.tryReadValue(new ByteArrayInputStream(MALFORMED_BYTES), AmountRequest.class);
+    }
+
+    @Benchmark
+    public int writeAccountResponseToStream() throws IOException {
+        out.reset();
+        objectMapper.writeValueTo(out, accountResponse);
+        return out.size();
+    }
+
+    @Benchmark
+    public String writeAmountResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(amountResponse);
+    }
+
+    @Benchmark
+    public String writeAccountResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(accountResponse);
+    }
+
+    @Benchmark
+    public Optional<TransferRequest> transferRoundTrip() throws JsonProcessingException {
+        TransferRequest request = objectMapper.tryReadValue(TRANSFER_BODY, TransferRequest.class).get();
+        return objectMapper.tryReadValue(objectMapper.writeValueAsString(request), TransferRequest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package ankur.revolut.moneytransfer.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks which account the next operation touches.
+ *
+ * <ul>
+ *     <li>{@code uniform} - every account equally likely</li>
+ *     <li>{@code zipf} - Zipf distributed with exponent {@value #ZIPF_EXPONENT}, so a handful of accounts
+ *     take most of the traffic, as real customers do</li>
+ *     <li>{@code hot} - half of all picks go to the first account, like a merchant or payroll account</li>
+ * </ul>
+ */
+public abstract class AccessPattern {
+
+    static final double ZIPF_EXPONENT = 1.1;
+    static final double HOT_SHARE = 0.5;
+
+    public static AccessPattern of(String name, int accounts) {
+        switch (name) {
+            case "uniform":
+                return new Uniform(accounts);
+            case "zipf":
+                return new Zipf(accounts);
+            case "hot":
+                return new Hot(accounts);
+            default:
+                throw new IllegalArgumentException("Unknown access pattern " + name);
+        }
+    }
+
+    public abstract int next();
+
+    /**
+     * A second account for a transfer, never the same as {@code other}.
+     */
+    public int nextExcept(int other) {
+        int next = next();
+        while (next == other) {
+            next = next();
+        }
+        return next;
+    }
+
+    private static final class Uniform extends AccessPattern {
+        private final int accounts;
+
+        Uniform(int accounts) {
+            this.accounts = accounts;
+        }
+
+        @Override
+        public int next() {
+            return ThreadLocalRandom.current().nextInt(accounts);
+        }
+    }
+
+    private static final class Zipf extends AccessPattern {
+        private final double[] cumulative;
+
+        Zipf(int accounts) {
+            cumulative = new double[accounts];
+            double total = 0;
+            for (int i = 0; i < accounts; i++) {
+                total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < accounts; i++) {
+                cumulative[i] /= total;
+            }
+        }
+
+        @Override
+        public int next() {
+            int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+            return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+        }
+    }
+
+    private static final class Hot extends AccessPattern {
+        private final int accounts;
+
+        Hot(int accounts) {
+            this.accounts = accounts;
+        }
+
+        @Override
+        public int next() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return random.nextDouble() < HOT_SHARE ? 0 : random.nextInt(accounts);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ankur.revolut.moneytransfer.bench;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    /**
+     * The service logs every request at INFO, which would otherwise dominate
+     * anything measured through it.
+     */
+    public static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger("ankur.revolut.moneytransfer")).setLevel(Level.WARN);
+    }
+
+    public static String accountNumber(int i) {
+        return String.format("%09d", i + 1);
+    }
+}
@@ -0,0 +1,256 @@
+package ankur.revolut.moneytransfer.bench;
+
+import ankur.revolut.moneytransfer.Main;
+import ankur.revolut.moneytransfer.binary.BinaryClient;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import spark.Spark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the service in this JVM, configured by the usual {@code -Dserver.*} and {@code -Dledger.*}
+ * properties, and drives it over HTTP from a fixed number of clients, each sending its next request as
+ * soon as the last one is answered. Prints throughput, latency percentiles and the response codes seen.
+ *
+ * Usage: {@code HttpLoad [--clients 64] [--seconds 20] [--warmup 5] [--accounts 1000] [--pattern hot]
+ * [--op transfer|batch] [--protocol http|binary] [--pipeline 1]}. {@code transfer} is a single transfer,
+ * which waits for account locks asynchronously; {@code batch} moves money between ten accounts at once,
+ * which holds the request thread while it waits for their locks.
+ *
+ * With {@code --protocol binary} the transfers are sent over the binary protocol instead, on
+ * {@code -Dserver.binaryPort} (9090 unless set), with {@code --pipeline} of them sent together before
+ * their responses are read. Each transfer is counted with the latency of the round it was sent in, and
+ * the statuses are the datastore outcomes rather than HTTP statuses.
+ */
+public final class HttpLoad {
+
+    private static final int BATCH_SIZE = 10;
+
+    private final String baseUrl;
+    private final AccessPattern pattern;
+    private final String op;
+    private final int binaryPort;
+    private final int pipeline;
+
+    private HttpLoad(String baseUrl, AccessPattern pattern, String op, int binaryPort, int pipeline) {
+        this.baseUrl = baseUrl;
+        this.pattern = pattern;
+        this.op = op;
+        this.binaryPort = binaryPort;
+        this.pipeline = pipeline;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int clients = Integer.parseInt(options.getOrDefault("clients", "64"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        String op = options.getOrDefault("op", "transfer");
+        if (!"transfer".equals(op) && !"batch".equals(op)) {
+            throw new IllegalArgumentException("Unknown op " + op);
+        }
+        boolean binary = "binary".equals(options.getOrDefault("protocol", "http"));
+        if (binary && !"transfer".equals(op)) {
+            throw new IllegalArgumentException("The binary protocol has no batch transfers");
+        }
+        int pipeline = binary ? Integer.parseInt(options.getOrDefault("pipeline", "1")) : 0;
+        if (binary) {
+            System.setProperty("server.binaryPort", System.getProperty("server.binaryPort", "9090"));
+        }
+
+        BenchSupport.quietLogging();
+        Main.main(new String[0]);
+        Spark.awaitInitialization();
+        HttpLoad load = new HttpLoad("http://localhost:" + Spark.port(),
+                                     AccessPattern.of(options.getOrDefault("pattern", "hot"), accounts), op,
+                                     binary ? Integer.getInteger("server.binaryPort") : 0, pipeline);
+        load.createAccounts(accounts);
+
+        Client[] running = new Client[clients];
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+        long measureTo = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < clients; i++) {
+            running[i] = load.new Client(i, measureFrom, measureTo);
+            running[i].start();
+        }
+        for (Client client : running) {
+            client.join();
+        }
+        Spark.stop();
+
+        report(running, seconds, clients, binary ? "binary " + op + " x" + pipeline : op);
+        System.exit(0);
+    }
+
+    private void createAccounts(int accounts) throws IOException {
+        for (int i = 0; i < accounts; i++) {
+            int status = send("POST", "/v1/accounts", "{\"firstName\":\"Load\",\"otherName\":\"\",\"surname\":\"Test\"}");
+            if (status != 201) {
+                throw new IllegalStateException("Creating account " + i + " failed with " + status);
+            }
+            status = send("PATCH", "/v1/accounts/" + BenchSupport.accountNumber(i) + "/money",
+                          "{\"amount\":1000000,\"requestID\":\"fund-" + i + "\"}");
+            if (status != 200) {
+                throw new IllegalStateException("Funding account " + i + " failed with " + status);
+            }
+        }
+    }
+
+    private int send(String method, String path, String body) throws IOException {
+        return HttpSupport.send(baseUrl + path, method, body, null);
+    }
+
+    private int next(String clientPrefix, long request) throws IOException {
+        if ("transfer".equals(op)) {
+            int from = pattern.next();
+            int to = pattern.nextExcept(from);
+            return send("PATCH", "/v1/accounts/" + BenchSupport.accountNumber(from) + "/money/transfer",
+                        "{\"amount\":1,\"to\":\"" + BenchSupport.accountNumber(to) + "\",\"requestID\":\""
+                        + clientPrefix + request + "\"}");
+        }
+        StringBuilder body = new StringBuilder("{\"transfers\":[");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int from = pattern.next();
+            int to = pattern.nextExcept(from);
+            body.append(i == 0 ? "" : ",")
+                .append("{\"from\":\"").append(BenchSupport.accountNumber(from))
+                .append("\",\"to\":\"").append(BenchSupport.accountNumber(to))
+                .append("\",\"amount\":1,\"requestID\":\"").append(clientPrefix).append(request).append('-').append(i)
+                .append("\"}");
+        }
+        return send("POST", "/v1/transfers/batch", body.append("]}").toString());
+    }
+
+    /**
+     * Sends a round of pipelined transfers and reads all their responses.
+     */
+    private void nextBinary(BinaryClient client, BinaryClient.Response response, Map<String, Integer> statuses,
+                            boolean measured, long request) throws IOException {
+        for (int i = 0; i < pipeline; i++) {
+            int from = pattern.next();
+            int to = pattern.nextExcept(from);
+            client.transfer(i, from + 1, to + 1, 1, clientId(), request * pipeline + i);
+        }
+        client.flush();
+        for (int i = 0; i < pipeline; i++) {
+            client.read(response);
+            if (measured) {
+                FundEnum outcome = response.getOutcome();
+                statuses.merge(outcome == null ? "code " + response.getCode() : outcome.name(), 1, Integer::sum);
+            }
+        }
+    }
+
+    private static long clientId() {
+        return Thread.currentThread().getId() << 32 | System.identityHashCode(Thread.currentThread());
+    }
+
+    private static void report(Client[] clients, int seconds, int clientCount, String op) {
+        int total = 0;
+        Map<String, Integer> statuses = new TreeMap<>();
+        for (Client client : clients) {
+            total += client.count;
+            client.statuses.forEach((status, count) -> statuses.merge(status, count, Integer::sum));
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+            offset += client.count;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%s, %d clients: %.0f requests/s, latency ms p50 %.2f p99 %.2f p99.9 %.2f max %.2f, statuses %s%n",
+                          op, clientCount, total / (double) seconds, millis(latencies, 0.5), millis(latencies, 0.99),
+                          millis(latencies, 0.999), millis(latencies, 1), statuses);
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private final class Client extends Thread {
+        private final String prefix;
+        private final long measureFrom;
+        private final long measureTo;
+        private final Map<String, Integer> statuses = new HashMap<>();
+        private long[] latencies = new long[1 << 12];
+        private int count;
+
+        Client(int id, long measureFrom, long measureTo) {
+            super("load-client-" + id);
+            this.prefix = "load-" + id + "-";
+            this.measureFrom = measureFrom;
+            this.measureTo = measureTo;
+        }
+
+        @Override
+        public void run() {
+            if (binaryPort > 0) {
+                runBinary();
+                return;
+            }
+            long request = 0;
+            while (true) {
+                long start = System.nanoTime();
+                if (start >= measureTo) {
+                    return;
+                }
+                int status;
+                try {
+                    status = next(prefix, request++);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long end = System.nanoTime();
+                if (start >= measureFrom) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = end - start;
+                    statuses.merge(String.valueOf(status), 1, Integer::sum);
+                }
+            }
+        }
+
+        private void runBinary() {
+            BinaryClient.Response response = new BinaryClient.Response();
+            try (BinaryClient client = BinaryClient.connect("localhost", binaryPort)) {
+                long request = 0;
+                while (true) {
+                    long start = System.nanoTime();
+                    if (start >= measureTo) {
+                        return;
+                    }
+                    boolean measured = start >= measureFrom;
+                    nextBinary(client, response, statuses, measured, request++);
+                    long end = System.nanoTime();
+                    if (measured) {
+                        for (int i = 0; i < pipeline; i++) {
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = end - start;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
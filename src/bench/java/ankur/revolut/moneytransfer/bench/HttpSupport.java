@@ -0,0 +1,58 @@
+package ankur.revolut.moneytransfer.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends JSON requests to the service over plain {@link HttpURLConnection}s, which keep connections alive
+ * per thread as long as every response is read to the end.
+ */
+final class HttpSupport {
+
+    private HttpSupport() {
+    }
+
+    /**
+     * @param response the response body is appended here, or discarded if null
+     * @return the response status
+     */
+    static int send(String url, String method, String body, StringBuilder response) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if ("PATCH".equals(method)) {
+            connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+            connection.setRequestMethod("POST");
+        } else {
+            connection.setRequestMethod(method);
+        }
+        if (body != null) {
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        // Read to the end, so that the connection is kept alive for the next request
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (response != null) {
+                        content.write(buffer, 0, read);
+                    }
+                }
+                if (response != null) {
+                    response.append(new String(content.toByteArray(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return status;
+    }
+}
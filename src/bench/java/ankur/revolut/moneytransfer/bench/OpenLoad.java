@@ -0,0 +1,310 @@
+package ankur.revolut.moneytransfer.bench;
+
+import ankur.revolut.moneytransfer.Main;
+import spark.Spark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a mix of API requests at a fixed arrival rate, whether or not earlier requests have been answered,
+ * the way independent customers do. Each request's latency is measured from the moment it was due to be
+ * sent, so when the service falls behind the time requests spend waiting to go out is counted too, rather
+ * than hidden by the load generator slowing down with it (coordinated omission). The latency from when
+ * each request actually went out is reported next to it for comparison.
+ *
+ * Usage: {@code OpenLoad [--url http://localhost:8080] [--rate 1000] [--seconds 30] [--warmup 5]
+ * [--connections 256] [--accounts 1000] [--pattern zipf] [--mix create=1,credit=20,transfer=60,balance=19]}.
+ * Without {@code --url} the service is started in this JVM, configured by the usual {@code -Dserver.*} and
+ * {@code -Dledger.*} properties. {@code --accounts} accounts are created and funded first, and credits,
+ * transfers and balance reads pick from them with the {@link AccessPattern} named by {@code --pattern}.
+ * {@code --connections} is how many requests can be outstanding at once; it should comfortably exceed the
+ * rate times the expected latency, and the report says how often a request went out late because it did not.
+ */
+public final class OpenLoad {
+
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+
+    enum Op {
+        CREATE, CREDIT, TRANSFER, BALANCE
+    }
+
+    private final String baseUrl;
+    private final AccessPattern pattern;
+    private final String[] accountNumbers;
+    private final Op[] ops = new Op[Op.values().length];
+    private final int[] cumulativeWeights = new int[Op.values().length];
+    private final String runId = Long.toHexString(System.currentTimeMillis());
+
+    private OpenLoad(String baseUrl, AccessPattern pattern, String[] accountNumbers, String mix) {
+        this.baseUrl = baseUrl;
+        this.pattern = pattern;
+        this.accountNumbers = accountNumbers;
+        int total = 0;
+        int i = 0;
+        for (String part : mix.split(",")) {
+            String[] weight = part.split("=");
+            total += Integer.parseInt(weight[1].trim());
+            ops[i] = Op.valueOf(weight[0].trim().toUpperCase());
+            cumulativeWeights[i++] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix needs a positive weight: " + mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "256"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        String mix = options.getOrDefault("mix", "create=1,credit=20,transfer=60,balance=19");
+
+        String baseUrl = options.get("url");
+        if (baseUrl == null) {
+            BenchSupport.quietLogging();
+            Main.main(new String[0]);
+            Spark.awaitInitialization();
+            baseUrl = "http://localhost:" + Spark.port();
+        }
+        OpenLoad load = new OpenLoad(baseUrl, AccessPattern.of(options.getOrDefault("pattern", "zipf"), accounts),
+                                     createAccounts(baseUrl, accounts), mix);
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long measureTo = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong nextRequest = new AtomicLong();
+        Sender[] senders = new Sender[connections];
+        for (int i = 0; i < connections; i++) {
+            senders[i] = load.new Sender(i, nextRequest, start, interval, measureFrom, measureTo);
+            senders[i].start();
+        }
+        for (Sender sender : senders) {
+            sender.join();
+        }
+        if (options.get("url") == null) {
+            Spark.stop();
+        }
+
+        // Throughput is what was answered, from the start of measuring until the last answer
+        long lastAnswered = measureTo;
+        for (Sender sender : senders) {
+            lastAnswered = Math.max(lastAnswered, sender.lastAnswered);
+        }
+        System.out.printf("%s at %.0f requests/s for %d s, %s, %d connections%n",
+                          mix, rate, seconds, options.getOrDefault("pattern", "zipf"), connections);
+        report(senders, (lastAnswered - measureFrom) / 1e9);
+        System.exit(0);
+    }
+
+    private static String[] createAccounts(String baseUrl, int accounts) throws IOException {
+        String[] numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            StringBuilder body = new StringBuilder();
+            int status = HttpSupport.send(baseUrl + "/v1/accounts", "POST",
+                                          "{\"firstName\":\"Load\",\"otherName\":\"\",\"surname\":\"Test\"}", body);
+            if (status != 201) {
+                throw new IllegalStateException("Creating account " + i + " failed with " + status);
+            }
+            numbers[i] = accountNumber(body);
+            status = HttpSupport.send(baseUrl + "/v1/accounts/" + numbers[i] + "/money", "PATCH",
+                                      "{\"amount\":1000000,\"requestID\":\"open-fund-" + numbers[i] + "-"
+                                      + System.nanoTime() + "\"}", null);
+            if (status != 200) {
+                throw new IllegalStateException("Funding account " + numbers[i] + " failed with " + status);
+            }
+        }
+        return numbers;
+    }
+
+    private static String accountNumber(CharSequence body) {
+        String field = "\"accountNumber\":\"";
+        String text = body.toString();
+        int from = text.indexOf(field) + field.length();
+        return text.substring(from, text.indexOf('"', from));
+    }
+
+    private Op nextOp() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; ; i++) {
+            if (ops[i] != null && pick < cumulativeWeights[i]) {
+                return ops[i];
+            }
+        }
+    }
+
+    private int send(Op op, long request) throws IOException {
+        String requestID = runId + "-" + request;
+        switch (op) {
+            case CREATE:
+                return HttpSupport.send(baseUrl + "/v1/accounts", "POST",
+                                        "{\"firstName\":\"Open\",\"otherName\":\"\",\"surname\":\"Load\"}", null);
+            case CREDIT:
+                return HttpSupport.send(baseUrl + "/v1/accounts/" + accountNumbers[pattern.next()] + "/money", "PATCH",
+                                        "{\"amount\":1,\"requestID\":\"" + requestID + "\"}", null);
+            case TRANSFER: {
+                int from = pattern.next();
+                int to = pattern.nextExcept(from);
+                return HttpSupport.send(baseUrl + "/v1/accounts/" + accountNumbers[from] + "/money/transfer", "PATCH",
+                                        "{\"amount\":1,\"to\":\"" + accountNumbers[to] + "\",\"requestID\":\""
+                                        + requestID + "\"}", null);
+            }
+            default:
+                return HttpSupport.send(baseUrl + "/v1/accounts/" + accountNumbers[pattern.next()] + "/money", "GET",
+                                        null, null);
+        }
+    }
+
+    private static void report(Sender[] senders, double seconds) {
+        for (Op op : Op.values()) {
+            report(op.name().toLowerCase(), senders, op, seconds);
+        }
+        report("all", senders, null, seconds);
+
+        long late = 0;
+        long maxLate = 0;
+        for (Sender sender : senders) {
+            late += sender.late;
+            maxLate = Math.max(maxLate, sender.maxLate);
+        }
+        System.out.printf("%d requests went out more than 1 ms late, the latest by %.2f ms%n", late, maxLate / 1e6);
+    }
+
+    private static void report(String name, Sender[] senders, Op op, double seconds) {
+        List<Sender.Recorded> recorded = new ArrayList<>();
+        for (Sender sender : senders) {
+            for (Op each : Op.values()) {
+                if (op == null || op == each) {
+                    recorded.add(sender.recorded[each.ordinal()]);
+                }
+            }
+        }
+        int total = 0;
+        Map<Integer, Integer> statuses = new TreeMap<>();
+        for (Sender.Recorded each : recorded) {
+            total += each.count;
+            each.statuses.forEach((status, count) -> statuses.merge(status, count, Integer::sum));
+        }
+        if (total == 0) {
+            return;
+        }
+        long[] corrected = new long[total];
+        long[] uncorrected = new long[total];
+        int offset = 0;
+        for (Sender.Recorded each : recorded) {
+            System.arraycopy(each.fromDue, 0, corrected, offset, each.count);
+            System.arraycopy(each.fromSent, 0, uncorrected, offset, each.count);
+            offset += each.count;
+        }
+        Arrays.sort(corrected);
+        Arrays.sort(uncorrected);
+
+        StringBuilder line = new StringBuilder(String.format("%-8s %8.0f requests/s  latency ms", name, total / seconds));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" p%s %.2f", percentileName(percentile), millis(corrected, percentile)));
+        }
+        line.append(String.format(" max %.2f (from sending: p50 %.2f p99 %.2f max %.2f)  statuses %s",
+                                  millis(corrected, 1), millis(uncorrected, 0.5), millis(uncorrected, 0.99),
+                                  millis(uncorrected, 1), statuses));
+        System.out.println(line);
+    }
+
+    private static String percentileName(double percentile) {
+        String name = String.valueOf(percentile * 100);
+        return name.endsWith(".0") ? name.substring(0, name.length() - 2) : name;
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private final class Sender extends Thread {
+        private final AtomicLong nextRequest;
+        private final long start;
+        private final long interval;
+        private final long measureFrom;
+        private final long measureTo;
+        private final Recorded[] recorded = new Recorded[Op.values().length];
+        private long late;
+        private long maxLate;
+        private long lastAnswered;
+
+        Sender(int id, AtomicLong nextRequest, long start, long interval, long measureFrom, long measureTo) {
+            super("open-load-" + id);
+            setDaemon(true);
+            this.nextRequest = nextRequest;
+            this.start = start;
+            this.interval = interval;
+            this.measureFrom = measureFrom;
+            this.measureTo = measureTo;
+            for (int i = 0; i < recorded.length; i++) {
+                recorded[i] = new Recorded();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long request = nextRequest.getAndIncrement();
+                long due = start + request * interval;
+                if (due >= measureTo) {
+                    return;
+                }
+                long now;
+                while ((now = System.nanoTime()) < due) {
+                    LockSupport.parkNanos(due - now);
+                }
+                Op op = nextOp();
+                int status;
+                try {
+                    status = send(op, request);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long end = System.nanoTime();
+                if (due >= measureFrom) {
+                    recorded[op.ordinal()].record(end - due, end - now, status);
+                    lastAnswered = end;
+                    if (now - due > LATE_NANOS) {
+                        late++;
+                        maxLate = Math.max(maxLate, now - due);
+                    }
+                }
+            }
+        }
+
+        private final class Recorded {
+            private long[] fromDue = new long[1 << 10];
+            private long[] fromSent = new long[1 << 10];
+            private int count;
+            private final Map<Integer, Integer> statuses = new HashMap<>();
+
+            void record(long sinceDue, long sinceSent, int status) {
+                if (count == fromDue.length) {
+                    fromDue = Arrays.copyOf(fromDue, count * 2);
+                    fromSent = Arrays.copyOf(fromSent, count * 2);
+                }
+                fromDue[count] = sinceDue;
+                fromSent[count++] = sinceSent;
+                statuses.merge(status, 1, Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ankur.revolut.moneytransfer.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file against a baseline and exits non-zero if any benchmark in both got
+ * worse by more than the tolerance, which is a fraction of the baseline score. A change inside the two
+ * runs' combined error is never counted, as contended benchmarks on a few cores are noisy.
+ *
+ * Usage: {@code RegressionCheck <baseline.json> <results.json> [tolerance]}
+ */
+public final class RegressionCheck {
+
+    static final double DEFAULT_TOLERANCE = 0.25;
+
+    private RegressionCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RegressionCheck <baseline.json> <results.json> [tolerance]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> results = read(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> result : results.entrySet()) {
+            Score before = baseline.get(result.getKey());
+            if (before == null) {
+                System.out.printf("NEW        %s %.3f %s%n", result.getKey(), result.getValue().score,
+                                  result.getValue().unit);
+                continue;
+            }
+            Score after = result.getValue();
+            if (!before.unit.equals(after.unit)) {
+                System.out.printf("SKIPPED    %s, unit changed from %s to %s%n", result.getKey(), before.unit,
+                                  after.unit);
+                continue;
+            }
+            double change = after.worseBy(before);
+            boolean regressed = change > tolerance && after.outsideErrorOf(before);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-10s %s %.3f -> %.3f %s (%+.1f%%)%n", regressed ? "REGRESSED" : "OK",
+                              result.getKey(), before.score, after.score, after.unit, change * 100);
+        }
+        for (String missing : baseline.keySet()) {
+            if (!results.containsKey(missing)) {
+                System.out.printf("NOT RUN    %s%n", missing);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.0f%%%n", regressions, tolerance * 100);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            JsonNode metric = run.get("primaryMetric");
+            double error = metric.get("scoreError").asDouble();
+            scores.put(key(run), new Score(run.get("mode").asText(), metric.get("score").asDouble(),
+                                           Double.isNaN(error) ? 0 : error, metric.get("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    private static String key(JsonNode run) {
+        StringBuilder key = new StringBuilder(run.get("benchmark").asText());
+        JsonNode params = run.get("params");
+        if (params != null) {
+            Map<String, String> sorted = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                sorted.put(field.getKey(), field.getValue().asText());
+            }
+            key.append(sorted);
+        }
+        return key.toString();
+    }
+
+    private static final class Score {
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Score(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * How much worse this score is than the baseline, as a fraction of it. Throughput is better higher,
+         * every other JMH mode measures time and is better lower.
+         */
+        double worseBy(Score baseline) {
+            if ("thrpt".equals(mode)) {
+                return (baseline.score - score) / baseline.score;
+            }
+            return (score - baseline.score) / baseline.score;
+        }
+
+        boolean outsideErrorOf(Score baseline) {
+            return Math.abs(score - baseline.score) > error + baseline.error;
+        }
+    }
+}
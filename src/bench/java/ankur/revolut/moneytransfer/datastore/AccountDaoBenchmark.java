@@ -0,0 +1,104 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.bench.AccessPattern;
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AccountDaoBenchmark {
+
+    @Param({"10000"})
+    int accounts;
+
+    @Param({"locking", "lockFree", "sharded"})
+    String engine;
+
+    @Param({"uniform", "zipf", "hot"})
+    String pattern;
+
+    AccountDao dao;
+    AccessPattern accessPattern;
+    String[] accountNumbers;
+
+    @State(Scope.Thread)
+    public static class RequestIds {
+        String prefix = Long.toHexString(System.nanoTime()) + Thread.currentThread().getId() + "-";
+        long next;
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchSupport.quietLogging();
+        dao = createDao();
+        accessPattern = AccessPattern.of(pattern, accounts);
+        accountNumbers = new String[accounts];
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = BenchSupport.accountNumber(i);
+            dao.addAccount(Account.AccountBuilder.anAccount()
+                    .withAccountNumber(accountNumbers[i])
+                    .withCreationDateTime(now)
+                    .withFirstName("Bench")
+                    .withOtherName("")
+                    .withSurname("Mark")
+                    .build());
+            dao.addFunds(new AddFunds(accountNumbers[i], Amount.newAmount(1_000_000), "seed-" + i));
+        }
+    }
+
+    private AccountDao createDao() {
+        switch (engine) {
+            case "lockFree":
+                return AccountDaoCreator.createLockFreeDao(10);
+            case "sharded":
+                return AccountDaoCreator.createShardedDao(10);
+            default:
+                return AccountDaoCreator.createDao(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (dao instanceof ShardedLedgerDao) {
+            ((ShardedLedgerDao) dao).shutdown();
+        }
+    }
+
+    @Benchmark
+    public FundsResult addFunds(RequestIds ids) {
+        return dao.addFunds(new AddFunds(accountNumbers[accessPattern.next()], Amount.newAmount(1), ids.next()));
+    }
+
+    @Benchmark
+    public FundsResult transferFunds(RequestIds ids) {
+        int from = accessPattern.next();
+        int to = accessPattern.nextExcept(from);
+        String requestId = ids.next();
+        return dao.transferFunds(new Transfer(new AddFunds(accountNumbers[from], Amount.newAmount(-1), requestId),
+                                              new AddFunds(accountNumbers[to], Amount.newAmount(1), requestId)));
+    }
+
+    @Benchmark
+    public Optional<Amount> getAmount() {
+        return dao.getAmount(accountNumbers[accessPattern.next()]);
+    }
+}
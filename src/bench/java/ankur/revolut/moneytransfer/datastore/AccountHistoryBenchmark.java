@@ -0,0 +1,43 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a page of 20 transactions from an account with {@code entries} of them, from the newest end and
+ * from halfway back, which should cost the same however long the history is.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountHistoryBenchmark {
+
+    @Param({"1000", "5000000"})
+    int entries;
+
+    AccountHistory history;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        history = new AccountHistory();
+        for (int i = 0; i < entries; i++) {
+            history.append(i, i % 2 == 0 ? 100 : -100, i % 3 == 0 ? "000000002" : null);
+        }
+    }
+
+    @Benchmark
+    public List<HistoryEntry> newestPage() {
+        return history.before(Long.MAX_VALUE, 20);
+    }
+
+    @Benchmark
+    public List<HistoryEntry> middlePage() {
+        return history.before(entries / 2, 20);
+    }
+}
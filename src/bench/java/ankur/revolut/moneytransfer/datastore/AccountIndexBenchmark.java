@@ -0,0 +1,78 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up random accounts among {@code accounts} in the datastore's index, or in the map it replaced.
+ * Setup prints the heap the index itself takes, not counting the account numbers or states, which the
+ * accounts hold either way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class AccountIndexBenchmark {
+
+    @Param({"10000000"})
+    int accounts;
+
+    @Param({"index", "map"})
+    String structure;
+
+    String[] accountNumbers;
+    AccountIndex index;
+    ConcurrentHashMap<String, AccountState> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        accountNumbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = String.format("%09d", i + 1);
+        }
+        AccountState state = new AccountState(Account.AccountBuilder.anAccount()
+                                                      .withAccountNumber(accountNumbers[0])
+                                                      .withCreationDateTime(OffsetDateTime.now())
+                                                      .withFirstName("Bench")
+                                                      .withOtherName("")
+                                                      .withSurname("Mark")
+                                                      .build(), new BalanceTable());
+        long before = usedHeap();
+        if (structure.equals("index")) {
+            index = new AccountIndex();
+            for (String accountNumber : accountNumbers) {
+                index.putIfAbsent(accountNumber, state);
+            }
+        } else {
+            map = new ConcurrentHashMap<>();
+            for (String accountNumber : accountNumbers) {
+                map.putIfAbsent(accountNumber, state);
+            }
+        }
+        System.out.printf("%n%s of %d accounts takes %d MB%n", structure, accounts, (usedHeap() - before) >> 20);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * With a new string for the number each time, as a request path gives, whose hash is not yet known.
+     */
+    @Benchmark
+    public AccountState lookup() {
+        String accountNumber = new String(accountNumbers[ThreadLocalRandom.current().nextInt(accounts)].toCharArray());
+        return index != null ? index.get(accountNumber) : map.get(accountNumber);
+    }
+}
@@ -0,0 +1,56 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long a full collection takes with {@code accounts} balances live, held in the DAO's balance table
+ * or as an AtomicLong each as they used to be. Setup prints the heap the balances take.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class BalanceTableBenchmark {
+
+    @Param({"50000000"})
+    int accounts;
+
+    @Param({"table", "objects"})
+    String structure;
+
+    BalanceTable table;
+    AtomicLong[] objects;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long before = usedHeap();
+        if (structure.equals("table")) {
+            table = new BalanceTable();
+            for (int i = 0; i < accounts; i++) {
+                table.allocate(i);
+            }
+        } else {
+            objects = new AtomicLong[accounts];
+            for (int i = 0; i < accounts; i++) {
+                objects[i] = new AtomicLong(i);
+            }
+        }
+        System.out.printf("%n%s of %d balances takes %d MB%n", structure, accounts, (usedHeap() - before) >> 20);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public void fullCollection() {
+        System.gc();
+    }
+}
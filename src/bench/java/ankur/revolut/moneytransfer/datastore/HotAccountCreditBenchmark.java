@@ -0,0 +1,66 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread credits the same account. Run with {@code -t 1}, {@code -t 2}, {@code -t 4} and so on up
+ * to the core count to see whether credit throughput scales with it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotAccountCreditBenchmark {
+
+    private static final String HOT_ACCOUNT = BenchSupport.accountNumber(0);
+
+    @Param({"locking", "lockFree"})
+    String engine;
+
+    // 0 leaves the account unstriped
+    @Param({"0", "16"})
+    int stripes;
+
+    InMemoryAccountDao dao;
+
+    @State(Scope.Thread)
+    public static class RequestIds {
+        String prefix = Long.toHexString(System.nanoTime()) + Thread.currentThread().getId() + "-";
+        long next;
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchSupport.quietLogging();
+        dao = "lockFree".equals(engine) ? InMemoryAccountDao.newLockFree(10) : InMemoryAccountDao.newWithTimeout(10);
+        dao.addAccount(Account.AccountBuilder.anAccount()
+                .withAccountNumber(HOT_ACCOUNT)
+                .withCreationDateTime(OffsetDateTime.now(ZoneOffset.UTC))
+                .withFirstName("Bench")
+                .withOtherName("")
+                .withSurname("Mark")
+                .build());
+        if (stripes > 0) {
+            dao.markHot(HOT_ACCOUNT, stripes);
+        }
+    }
+
+    @Benchmark
+    public FundsResult credit(RequestIds ids) {
+        return dao.addFunds(new AddFunds(HOT_ACCOUNT, Amount.newAmount(1), ids.next()));
+    }
+}
@@ -0,0 +1,47 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claims random request IDs against a store already holding {@code requestIds} of them. Setup prints the
+ * bytes the store's tables take for those IDs; run with -p requestIds=100000000 and a larger heap for
+ * the full day's worth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class IdempotencyStoreBenchmark {
+
+    @Param({"1000000"})
+    int requestIds;
+
+    IdempotencyStore store;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS);
+        for (long i = 0; i < requestIds; i++) {
+            store.claim(requestID(i));
+        }
+        System.out.printf("%n%d request IDs held in %d bytes, %.1f bytes each%n", requestIds, store.footprintBytes(),
+                          (double) store.footprintBytes() / requestIds);
+    }
+
+    private static String requestID(long i) {
+        return String.format("%016x%016x", i * 0x9e3779b97f4a7c15L, i);
+    }
+
+    /**
+     * Mostly replays of IDs already held, with the store growing by the rest.
+     */
+    @Benchmark
+    public FundEnum claim() {
+        return store.claim(requestID(ThreadLocalRandom.current().nextLong(requestIds + (long) requestIds / 8)));
+    }
+}
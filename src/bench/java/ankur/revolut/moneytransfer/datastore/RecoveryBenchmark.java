@@ -0,0 +1,87 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to start a durable DAO from a snapshot of {@code accounts} accounts plus a log tail of
+ * {@code tailRecords} fund changes written after it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    @Param({"10000000"})
+    int accounts;
+
+    @Param({"100000"})
+    int tailRecords;
+
+    Path directory;
+    Path logFile;
+    Path snapshotFile;
+    WriteAheadLog writeAheadLog;
+    AccountDao dao;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchSupport.quietLogging();
+        directory = Files.createTempDirectory("recovery-bench");
+        logFile = directory.resolve("ledger.wal");
+        snapshotFile = directory.resolve("ledger.wal.snapshot");
+
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        try (LedgerSnapshot.Writer writer = LedgerSnapshot.create(snapshotFile)) {
+            for (int i = 0; i < accounts; i++) {
+                writer.addAccount(Account.AccountBuilder.anAccount()
+                        .withAccountNumber(BenchSupport.accountNumber(i))
+                        .withCreationDateTime(now)
+                        .withFirstName("Bench")
+                        .withOtherName("")
+                        .withSurname("Mark")
+                        .build(), 1_000_000);
+            }
+            writer.commit(0);
+        }
+        try (WriteAheadLog log = WriteAheadLog.open(logFile, 0, 4096)) {
+            long ticket = 0;
+            for (int i = 0; i < tailRecords; i++) {
+                ticket = log.appendFunds(BenchSupport.accountNumber(i % accounts), 1, "tail-" + i);
+            }
+            log.awaitDurable(ticket);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeLog() throws IOException {
+        dao = null;
+        writeAheadLog.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public AccountDao restart() throws IOException {
+        writeAheadLog = WriteAheadLog.open(logFile, 0, 256);
+        dao = InMemoryAccountDao.newDurable(10, IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS),
+                                            writeAheadLog, snapshotFile);
+        return dao;
+    }
+}
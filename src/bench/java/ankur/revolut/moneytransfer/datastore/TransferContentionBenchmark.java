@@ -0,0 +1,97 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Half of the threads transfer A->B and the other half B->A, which is the
+ * pattern that makes unordered lock acquisition time out. The aux counters
+ * report how many transfers succeeded and how many came back TIMED_OUT.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class TransferContentionBenchmark {
+
+    private static final String ACCOUNT_A = BenchSupport.accountNumber(0);
+    private static final String ACCOUNT_B = BenchSupport.accountNumber(1);
+
+    @Param({"10"})
+    long lockTimeoutMillis;
+
+    AccountDao dao;
+    AtomicInteger threadIndex = new AtomicInteger();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long success;
+        public long timedOut;
+        public long other;
+
+        boolean reverse;
+        String prefix;
+        long next;
+
+        @Setup(Level.Trial)
+        public void setup(TransferContentionBenchmark benchmark) {
+            int index = benchmark.threadIndex.getAndIncrement();
+            reverse = index % 2 == 1;
+            prefix = "t" + index + "-";
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            success = 0;
+            timedOut = 0;
+            other = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchSupport.quietLogging();
+        dao = AccountDaoCreator.createDao(lockTimeoutMillis);
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        for (String accountNumber : new String[]{ACCOUNT_A, ACCOUNT_B}) {
+            dao.addAccount(Account.AccountBuilder.anAccount()
+                    .withAccountNumber(accountNumber)
+                    .withCreationDateTime(now)
+                    .withFirstName("Bench")
+                    .withOtherName("")
+                    .withSurname("Mark")
+                    .build());
+            dao.addFunds(new AddFunds(accountNumber, Amount.newAmount(100_000_000), "seed-" + accountNumber));
+        }
+    }
+
+    @Benchmark
+    public FundEnum bidirectionalTransfer(Outcomes outcomes) {
+        String from = outcomes.reverse ? ACCOUNT_B : ACCOUNT_A;
+        String to = outcomes.reverse ? ACCOUNT_A : ACCOUNT_B;
+        String requestId = outcomes.prefix + outcomes.next++;
+        FundEnum result = dao.transferFunds(new Transfer(new AddFunds(from, Amount.newAmount(-1), requestId),
+                                                         new AddFunds(to, Amount.newAmount(1), requestId))).getOutcome();
+        if (result == FundEnum.SUCCESS) {
+            outcomes.success++;
+        } else if (result == FundEnum.TIMED_OUT) {
+            outcomes.timedOut++;
+        } else {
+            outcomes.other++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.bench.BenchSupport;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable addFunds throughput for a range of fsync batch sizes. Every operation waits for its record to
+ * be synced, so with one record per batch this is bounded by the disk's fsync rate and larger batches
+ * show how much of that group commit wins back.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+    @Param({"1", "8", "64", "512"})
+    int maxBatchRecords;
+
+    @Param({"0"})
+    long flushIntervalMillis;
+
+    @Param({"1000"})
+    int accounts;
+
+    Path directory;
+    WriteAheadLog writeAheadLog;
+    AccountDao dao;
+    String[] accountNumbers;
+
+    @State(Scope.Thread)
+    public static class RequestIds {
+        String prefix = Long.toHexString(System.nanoTime()) + Thread.currentThread().getId() + "-";
+        long next;
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchSupport.quietLogging();
+        directory = Files.createTempDirectory("wal-bench");
+        writeAheadLog = WriteAheadLog.open(directory.resolve("ledger.wal"), flushIntervalMillis, maxBatchRecords);
+        dao = InMemoryAccountDao.newDurable(1000, IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS),
+                                            writeAheadLog);
+        accountNumbers = new String[accounts];
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = BenchSupport.accountNumber(i);
+            dao.addAccount(Account.AccountBuilder.anAccount()
+                    .withAccountNumber(accountNumbers[i])
+                    .withCreationDateTime(now)
+                    .withFirstName("Bench")
+                    .withOtherName("")
+                    .withSurname("Mark")
+                    .build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writeAheadLog.close();
+        Path file = directory.resolve("ledger.wal");
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public FundsResult durableAddFunds(RequestIds ids) {
+        String accountNumber = accountNumbers[ThreadLocalRandom.current().nextInt(accounts)];
+        return dao.addFunds(new AddFunds(accountNumber, Amount.newAmount(1), ids.next()));
+    }
+}
@@ -5,27 +5,79 @@ import ankur.revolut.moneytransfer.account.service.AccountNumberCreator;
 import ankur.revolut.moneytransfer.account.service.AccountsService;
 import ankur.revolut.moneytransfer.account.service.HTTPTransformer;
 import ankur.revolut.moneytransfer.account.service.ObjectMapper;
+import ankur.revolut.moneytransfer.binary.BinaryServer;
 import ankur.revolut.moneytransfer.datastore.AccountDao;
 import ankur.revolut.moneytransfer.datastore.AccountDaoCreator;
+import ankur.revolut.moneytransfer.metrics.MetricsController;
+import ankur.revolut.moneytransfer.metrics.MetricsRegistry;
+import ankur.revolut.moneytransfer.server.AsyncJettyFactory;
+import ankur.revolut.moneytransfer.server.ServerSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 import static spark.Spark.port;
 
 public class Main {
 
     private static ObjectMapper objectMapper = new ObjectMapper();
-    private static AccountDao accountDao = AccountDaoCreator.createDao(10);
-    private static AccountNumberCreator accountNumberCreator = new AccountNumberCreator();
+    private static AccountDao accountDao = createAccountDao();
+    // -Dledger.node=<0-99> numbers this instance's accounts apart from those of other instances
+    private static AccountNumberCreator accountNumberCreator = AccountNumberCreator.resumingAfter(Integer.getInteger("ledger.node", 0),
+                                                                                                  accountDao.accountNumbers());
     private static HTTPTransformer httpTransformer = new HTTPTransformer();
     private static AccountsService accountsService = AccountsService.create(accountDao, accountNumberCreator, httpTransformer);
 
     public static void main(String[] args) {
-        setupServer();
+        ServerSettings settings = setupServer();
 
         new AccountsController(accountsService, objectMapper);
+        new MetricsController(MetricsRegistry.DEFAULT);
+        if (settings.getBinaryPort() > 0) {
+            startBinaryServer(settings);
+        }
+    }
+
+    /**
+     * Accounts are only kept in memory unless -Dledger.wal=<file> names a write-ahead log to keep them in.
+     * In memory, -Dledger.lockFree=true applies single-account changes with compare-and-set instead of the
+     * account lock, and -Dledger.hotAccounts=<number>,<number> lists accounts to stripe credits to.
+     */
+    private static AccountDao createAccountDao() {
+        String logFile = System.getProperty("ledger.wal");
+        if (logFile == null) {
+            boolean lockFree = Boolean.getBoolean("ledger.lockFree");
+            String hotAccounts = System.getProperty("ledger.hotAccounts", "");
+            if (hotAccounts.isEmpty()) {
+                return lockFree ? AccountDaoCreator.createLockFreeDao(10) : AccountDaoCreator.createDao(10);
+            }
+            List<String> hot = Arrays.asList(hotAccounts.split(","));
+            int stripes = Integer.getInteger("ledger.hotAccountStripes", Runtime.getRuntime().availableProcessors() * 2);
+            return lockFree ? AccountDaoCreator.createLockFreeDao(10, hot, stripes)
+                            : AccountDaoCreator.createDao(10, hot, stripes);
+        }
+        return AccountDaoCreator.createDurableDao(10, Paths.get(logFile),
+                                                  Long.getLong("ledger.wal.flushIntervalMillis", 1),
+                                                  Integer.getInteger("ledger.wal.maxBatchRecords", 256),
+                                                  Long.getLong("ledger.checkpointIntervalSeconds", 300));
     }
 
-    private static void setupServer() {
-        port(8080);
+    private static ServerSettings setupServer() {
+        ServerSettings settings = ServerSettings.fromSystemProperties();
+        AsyncJettyFactory.install(settings);
+        port(settings.getPort());
 //        ipAddress("0.0.0.0");
+        return settings;
+    }
+
+    private static void startBinaryServer(ServerSettings settings) {
+        try {
+            BinaryServer.start(accountDao, settings.getHost(), settings.getBinaryPort());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen for the binary protocol on " + settings.getBinaryPort(), e);
+        }
     }
 }
@@ -0,0 +1,83 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+
+/**
+ * An account's details and balance, written as the same JSON as an {@link AccountHttpResponse}. Everything
+ * before the total amount is taken from {@link EncodedAccounts} when the response is written, so an
+ * account read again only has its balance rendered.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"reason", "status", "firstName", "otherName", "surname", "accountNumber", "totalAmount"})
+public class AccountBalanceHttpResponse extends HttpResponse implements EncodedResponse {
+
+    // A sign, 17 digits of pounds, the point, the pence and the closing brace
+    private static final int MAX_AMOUNT_LENGTH = 22;
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[512]);
+
+    private final EncodedAccounts accounts;
+    private final Account account;
+    private final long totalAmount;
+    private final long version;
+
+    AccountBalanceHttpResponse(EncodedAccounts accounts, ConstantHttpResponse outcome, Account account,
+                               long totalAmount, long version) {
+        super(outcome.getReason(), outcome.getStatus());
+        this.accounts = accounts;
+        this.account = account;
+        this.totalAmount = totalAmount;
+        this.version = version;
+    }
+
+    public String getFirstName() {
+        return account.getFirstName();
+    }
+
+    public String getOtherName() {
+        return account.getOtherName();
+    }
+
+    public String getSurname() {
+        return account.getSurname();
+    }
+
+    public String getAccountNumber() {
+        return account.getAccountNumber();
+    }
+
+    public BigDecimal getTotalAmount() {
+        return Amount.toDecimal(totalAmount);
+    }
+
+    /**
+     * @return a strong entity tag, which changes whenever the balance does
+     */
+    @JsonIgnore
+    public String getETag() {
+        return "\"" + Long.toHexString(version) + '-' + Long.toHexString(totalAmount) + '"';
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] open = accounts.openFor(account);
+        int length = open.length + MAX_AMOUNT_LENGTH;
+        byte[] buffer = buffers.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            buffers.set(buffer);
+        }
+        System.arraycopy(open, 0, buffer, 0, open.length);
+        int end = BalanceHttpResponse.writePounds(buffer, open.length, totalAmount);
+        buffer[end++] = '}';
+        out.write(buffer, 0, end);
+    }
+}
@@ -2,6 +2,8 @@ package ankur.revolut.moneytransfer.account.model;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 
+import java.math.BigDecimal;
+
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class AccountHttpResponse extends HttpResponse {
 
@@ -9,7 +11,7 @@ public class AccountHttpResponse extends HttpResponse {
     private final String otherName;
     private final String surname;
     private final String accountNumber;
-    private final float totalAmount;
+    private final BigDecimal totalAmount;
 
     public String getFirstName() {
         return firstName;
@@ -27,12 +29,12 @@ public class AccountHttpResponse extends HttpResponse {
         return accountNumber;
     }
 
-    public float getTotalAmount() {
+    public BigDecimal getTotalAmount() {
         return totalAmount;
     }
 
     private AccountHttpResponse(String reason, int status, String firstName, String otherName, String surname,
-                               String accountNumber, float totalAmount) {
+                               String accountNumber, BigDecimal totalAmount) {
         super(reason, status);
         this.firstName = firstName;
         this.otherName = otherName;
@@ -48,7 +50,7 @@ public class AccountHttpResponse extends HttpResponse {
         private String otherName;
         private String surname;
         private String accountNumber;
-        private float totalAmount;
+        private BigDecimal totalAmount;
 
         private AccountHttpResponseBuilder() {
         }
@@ -87,7 +89,7 @@ public class AccountHttpResponse extends HttpResponse {
             return this;
         }
 
-        public AccountHttpResponseBuilder withTotalAmount(float totalAmount) {
+        public AccountHttpResponseBuilder withTotalAmount(BigDecimal totalAmount) {
             this.totalAmount = totalAmount;
             return this;
         }
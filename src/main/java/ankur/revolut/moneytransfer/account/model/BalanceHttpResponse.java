@@ -0,0 +1,78 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The outcome of a change to an account with the account's balance, written as the same JSON as an
+ * {@link AccountHttpResponse} holding only a total amount.
+ */
+public class BalanceHttpResponse extends HttpResponse implements EncodedResponse {
+
+    private static final byte[] TOTAL_AMOUNT = ",\"totalAmount\":".getBytes(StandardCharsets.UTF_8);
+    // A sign, 17 digits of pounds, the point, the pence and the closing brace
+    private static final int MAX_AMOUNT_LENGTH = 22;
+
+    // Each thread renders into its own buffer, so that writing a balance allocates nothing
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[128]);
+
+    private final ConstantHttpResponse outcome;
+    private final long totalAmount;
+
+    BalanceHttpResponse(ConstantHttpResponse outcome, long totalAmount) {
+        super(outcome.getReason(), outcome.getStatus());
+        this.outcome = outcome;
+        this.totalAmount = totalAmount;
+    }
+
+    public BigDecimal getTotalAmount() {
+        return Amount.toDecimal(totalAmount);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        int length = outcome.openLength() + TOTAL_AMOUNT.length + MAX_AMOUNT_LENGTH;
+        byte[] buffer = buffers.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            buffers.set(buffer);
+        }
+        outcome.copyOpenTo(buffer);
+        System.arraycopy(TOTAL_AMOUNT, 0, buffer, outcome.openLength(), TOTAL_AMOUNT.length);
+        int end = writePounds(buffer, outcome.openLength() + TOTAL_AMOUNT.length, totalAmount);
+        buffer[end++] = '}';
+        out.write(buffer, 0, end);
+    }
+
+    /**
+     * Writes pence as pounds with two decimal places, as {@link BigDecimal#toString} does.
+     *
+     * @return the index after the last byte written
+     */
+    static int writePounds(byte[] buffer, int at, long pence) {
+        // Kept negative throughout, so that Long.MIN_VALUE needs no special case
+        long negative = pence < 0 ? pence : -pence;
+        if (pence < 0) {
+            buffer[at++] = '-';
+        }
+        long pounds = negative / 100;
+        int fraction = (int) -(negative % 100);
+        int digits = 1;
+        for (long rest = pounds; rest <= -10; rest /= 10) {
+            digits++;
+        }
+        int end = at + digits;
+        for (int i = end - 1; i >= at; i--) {
+            buffer[i] = (byte) ('0' - pounds % 10);
+            pounds /= 10;
+        }
+        buffer[end] = '.';
+        buffer[end + 1] = (byte) ('0' + fraction / 10);
+        buffer[end + 2] = (byte) ('0' + fraction % 10);
+        return end + 3;
+    }
+}
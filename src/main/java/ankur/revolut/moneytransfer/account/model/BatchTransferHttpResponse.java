@@ -0,0 +1,31 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import java.util.List;
+
+public class BatchTransferHttpResponse extends HttpResponse {
+
+    private final List<Result> results;
+
+    public BatchTransferHttpResponse(String reason, int status, List<Result> results) {
+        super(reason, status);
+        this.results = results;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public static class Result extends HttpResponse {
+
+        private final String requestID;
+
+        public Result(String requestID, String reason, int status) {
+            super(reason, status);
+            this.requestID = requestID;
+        }
+
+        public String getRequestID() {
+            return requestID;
+        }
+    }
+}
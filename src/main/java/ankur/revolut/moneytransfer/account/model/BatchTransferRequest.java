@@ -0,0 +1,57 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.List;
+
+public class BatchTransferRequest implements ValidatedRequest {
+    private List<Item> transfers;
+    private boolean allOrNothing;
+
+    public List<Item> getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(List<Item> transfers) {
+        this.transfers = transfers;
+    }
+
+    public boolean isAllOrNothing() {
+        return allOrNothing;
+    }
+
+    public void setAllOrNothing(boolean allOrNothing) {
+        this.allOrNothing = allOrNothing;
+    }
+
+    /**
+     * Missing transfers and fields are left for the service to report, only amounts are checked here.
+     */
+    @JsonIgnore
+    @Override
+    public boolean isValid() {
+        if (transfers != null) {
+            for (Item item : transfers) {
+                if (item != null && !item.isValid()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A single transfer in the batch, which unlike a lone transfer also names the account it comes from.
+     */
+    public static class Item extends TransferRequest {
+        private String from;
+
+        public String getFrom() {
+            return from;
+        }
+
+        public void setFrom(String from) {
+            this.from = from;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reason and status that are sent as they are, such as an outcome of adding funds, so their JSON is
+ * encoded once when the response is created.
+ */
+public class ConstantHttpResponse extends HttpResponse implements EncodedResponse {
+
+    private final byte[] encoded;
+
+    public ConstantHttpResponse(String reason, int status) {
+        super(reason, status);
+        String json = "{\"reason\":\"" + new String(JsonStringEncoder.getInstance().quoteAsString(reason))
+                + "\",\"status\":" + status + "}";
+        this.encoded = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return this outcome together with the account's balance after it
+     */
+    public BalanceHttpResponse withBalance(Amount amount) {
+        return new BalanceHttpResponse(this, amount.getValue());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(encoded);
+    }
+
+    /**
+     * @return the length of the JSON object without its closing brace
+     */
+    int openLength() {
+        return encoded.length - 1;
+    }
+
+    /**
+     * Copies the JSON object without its closing brace, for more fields to follow.
+     */
+    void copyOpenTo(byte[] buffer) {
+        System.arraycopy(encoded, 0, buffer, 0, encoded.length - 1);
+    }
+}
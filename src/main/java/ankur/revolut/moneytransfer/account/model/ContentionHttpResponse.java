@@ -0,0 +1,75 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import java.util.List;
+
+public class ContentionHttpResponse extends HttpResponse {
+
+    private final List<Account> accounts;
+
+    public ContentionHttpResponse(String reason, int status, List<Account> accounts) {
+        super(reason, status);
+        this.accounts = accounts;
+    }
+
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Wait times are in milliseconds, each percentile rounded up to the next power of two nanoseconds.
+     */
+    public static class Account {
+        private final String accountNumber;
+        private final long contended;
+        private final long countError;
+        private final long timedOut;
+        private final double waitP50Millis;
+        private final double waitP99Millis;
+        private final double waitMaxMillis;
+        private final boolean hot;
+
+        public Account(String accountNumber, long contended, long countError, long timedOut, double waitP50Millis,
+                       double waitP99Millis, double waitMaxMillis, boolean hot) {
+            this.accountNumber = accountNumber;
+            this.contended = contended;
+            this.countError = countError;
+            this.timedOut = timedOut;
+            this.waitP50Millis = waitP50Millis;
+            this.waitP99Millis = waitP99Millis;
+            this.waitMaxMillis = waitMaxMillis;
+            this.hot = hot;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public long getContended() {
+            return contended;
+        }
+
+        public long getCountError() {
+            return countError;
+        }
+
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        public double getWaitP50Millis() {
+            return waitP50Millis;
+        }
+
+        public double getWaitP99Millis() {
+            return waitP99Millis;
+        }
+
+        public double getWaitMaxMillis() {
+            return waitMaxMillis;
+        }
+
+        public boolean isHot() {
+            return hot;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The JSON for accounts' names and numbers, which never change once an account is opened, encoded once
+ * and kept in a fixed number of slots chosen by account number. An account whose slot has since been
+ * taken by another is simply encoded again, so the memory used stays the same however many accounts
+ * there are, while the accounts read most often stay encoded.
+ */
+public final class EncodedAccounts {
+
+    private final ConstantHttpResponse outcome;
+    private final AtomicReferenceArray<Encoded> slots;
+
+    /**
+     * @param slots how many accounts to keep encoded, a power of two
+     */
+    public EncodedAccounts(ConstantHttpResponse outcome, int slots) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Slots must be a power of two: " + slots);
+        }
+        this.outcome = outcome;
+        this.slots = new AtomicReferenceArray<>(slots);
+    }
+
+    public AccountBalanceHttpResponse withBalance(AccountSnapshot snapshot) {
+        return new AccountBalanceHttpResponse(this, outcome, snapshot.getAccount(), snapshot.getAmount().getValue(),
+                                              snapshot.getVersion());
+    }
+
+    /**
+     * @return the response's JSON up to the value of its total amount, encoded now if it is not kept
+     */
+    byte[] openFor(Account account) {
+        int hash = account.getAccountNumber().hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (slots.length() - 1);
+        Encoded encoded = slots.get(slot);
+        // Accounts are never replaced, so the same instance means the same names and number
+        if (encoded == null || encoded.account != account) {
+            encoded = new Encoded(account, encode(account));
+            slots.set(slot, encoded);
+        }
+        return encoded.open;
+    }
+
+    private byte[] encode(Account account) {
+        byte[] head = new byte[outcome.openLength()];
+        outcome.copyOpenTo(head);
+        StringBuilder json = new StringBuilder(128).append(new String(head, StandardCharsets.UTF_8));
+        appendField(json, "firstName", account.getFirstName());
+        appendField(json, "otherName", account.getOtherName());
+        appendField(json, "surname", account.getSurname());
+        appendField(json, "accountNumber", account.getAccountNumber());
+        json.append(",\"totalAmount\":");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendField(StringBuilder json, String name, String value) {
+        if (value != null) {
+            json.append(",\"").append(name).append("\":\"");
+            JsonStringEncoder.getInstance().quoteAsString(value, json);
+            json.append('"');
+        }
+    }
+
+    private static final class Encoded {
+        private final Account account;
+        private final byte[] open;
+
+        Encoded(Account account, byte[] open) {
+            this.account = account;
+            this.open = open;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A response that writes its own JSON, byte for byte what Jackson would write for it, so that the
+ * responses sent most often skip Jackson and allocate nothing while being written.
+ */
+public interface EncodedResponse {
+
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,65 @@
+package ankur.revolut.moneytransfer.account.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * A page of an account's transactions, newest first. {@code next} is the cursor for the page after this
+ * one, passed back as {@code before}, and is left out on the last page.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryHttpResponse extends HttpResponse {
+
+    private final List<Transaction> transactions;
+    private final Long next;
+
+    public HistoryHttpResponse(String reason, int status, List<Transaction> transactions, Long next) {
+        super(reason, status);
+        this.transactions = transactions;
+        this.next = next;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+
+    /**
+     * The amount is negative for money leaving the account, and the counterparty is only set for transfers.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Transaction {
+        private final long id;
+        private final String time;
+        private final BigDecimal amount;
+        private final String counterparty;
+
+        public Transaction(long id, String time, BigDecimal amount, String counterparty) {
+            this.id = id;
+            this.time = time;
+            this.amount = amount;
+            this.counterparty = counterparty;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTime() {
+            return time;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public String getCounterparty() {
+            return counterparty;
+        }
+    }
+}
@@ -1,16 +1,37 @@
 package ankur.revolut.moneytransfer.account.model;
 
-public class TransferRequest {
-    private float amount;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.math.BigDecimal;
+
+public class TransferRequest implements ValidatedRequest {
+    private long amount;
+    private boolean validAmount = true;
     private String to;
     private String requestID;
 
-    public float getAmount() {
+    public BigDecimal getAmount() {
+        return Amount.toDecimal(amount);
+    }
+
+    /**
+     * Amounts with a fraction of a penny, or too large to hold, make the request invalid.
+     */
+    public void setAmount(BigDecimal amount) {
+        validAmount = Amount.isMinorUnits(amount);
+        this.amount = validAmount ? Amount.toMinorUnits(amount) : 0;
+    }
+
+    @JsonIgnore
+    public long getAmountInMinorUnits() {
         return amount;
     }
 
-    public void setAmount(float amount) {
-        this.amount = amount;
+    @JsonIgnore
+    @Override
+    public boolean isValid() {
+        return validAmount;
     }
 
     public String getTo() {
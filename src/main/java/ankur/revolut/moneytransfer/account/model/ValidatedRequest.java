@@ -0,0 +1,10 @@
+package ankur.revolut.moneytransfer.account.model;
+
+/**
+ * A request body that can be parsed but still hold values the service cannot accept. Checking afterwards,
+ * rather than throwing from a setter, keeps a bad request as cheap to turn away as a good one is to read.
+ */
+public interface ValidatedRequest {
+
+    boolean isValid();
+}
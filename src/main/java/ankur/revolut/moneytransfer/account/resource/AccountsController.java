@@ -1,17 +1,30 @@
 package ankur.revolut.moneytransfer.account.resource;
 
+import ankur.revolut.moneytransfer.account.model.AccountBalanceHttpResponse;
 import ankur.revolut.moneytransfer.account.model.AccountRequest;
 import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.BatchTransferRequest;
+import ankur.revolut.moneytransfer.account.model.ConstantHttpResponse;
 import ankur.revolut.moneytransfer.account.model.HttpResponse;
 import ankur.revolut.moneytransfer.account.model.TransferRequest;
 import ankur.revolut.moneytransfer.account.service.AccountsService;
 import ankur.revolut.moneytransfer.account.service.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import ankur.revolut.moneytransfer.metrics.Histogram;
+import ankur.revolut.moneytransfer.metrics.MetricsRegistry;
+import ankur.revolut.moneytransfer.server.AsyncJettyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
 import spark.Response;
+import spark.Route;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static spark.Spark.*;
 
@@ -19,71 +32,209 @@ public class AccountsController {
 
     private static final Logger log = LoggerFactory.getLogger(AccountsController.class);
 
+    private static final String JSON = "application/json";
+    private static final HttpResponse UNRECOGNISED_BODY = new ConstantHttpResponse("Unrecognised request body", 400);
+    private static final HttpResponse UNEXPECTED_ERROR = new ConstantHttpResponse("Unexpected error", 500);
+
+    private static final Histogram requestLatency = MetricsRegistry.DEFAULT.histogram(
+            "http_request_duration_seconds", "Time from a request reaching its route to its response being written", "route");
+
     public AccountsController(AccountsService accountsService, ObjectMapper objectMapper) {
 
-        post("/v1/accounts", (request, response) -> {
+        post("/v1/accounts", timed("POST /v1/accounts", (request, response) -> {
             log.info("Request to add account received");
-            Optional<AccountRequest> accountRequest = objectMapper.tryReadValue(request.body(), AccountRequest.class);
+            Optional<AccountRequest> accountRequest = objectMapper.tryReadValue(request.raw().getInputStream(), AccountRequest.class);
             if (accountRequest.isPresent()) {
-                HttpResponse r = accountsService.addNewAccount(accountRequest.get());
-                response.status(r.getStatus());
-                return objectMapper.writeValueAsString(r);
+                return respond(objectMapper, response, accountsService.addNewAccount(accountRequest.get()));
             } else {
                 return malformedRequestBody(objectMapper, response);
             }
-        });
+        }));
 
-        get("/v1/accounts/:accountNumber", (request, response) -> {
+        get("/v1/accounts/:accountNumber", timed("GET /v1/accounts/:accountNumber", (request, response) -> {
             log.info("Request to get account details received");
             String accountNumber = request.params(":accountNumber");
             HttpResponse r = accountsService.getAccount(accountNumber);
-            response.status(r.getStatus());
-            return objectMapper.writeValueAsString(r);
-        });
+            if (r instanceof AccountBalanceHttpResponse) {
+                String eTag = ((AccountBalanceHttpResponse) r).getETag();
+                response.header("ETag", eTag);
+                if (anyMatches(request.headers("If-None-Match"), eTag)) {
+                    response.status(304);
+                    return "";
+                }
+            }
+            return respond(objectMapper, response, r);
+        }));
 
-        get("/v1/accounts/:accountNumber/money", (request, response) -> {
+        get("/v1/accounts/:accountNumber/money", timed("GET /v1/accounts/:accountNumber/money", (request, response) -> {
             log.info("Request to get account money details received");
             String accountNumber = request.params(":accountNumber");
-            HttpResponse r = accountsService.getAmount(accountNumber);
-            response.status(r.getStatus());
-            return objectMapper.writeValueAsString(r);
-        });
+            return respond(objectMapper, response, accountsService.getAmount(accountNumber));
+        }));
 
-        patch("/v1/accounts/:accountNumber/money", (request, response) -> {
+        get("/v1/accounts/:accountNumber/transactions", timed("GET /v1/accounts/:accountNumber/transactions", (request, response) -> {
+            log.info("Request for account transactions received");
+            String accountNumber = request.params(":accountNumber");
+            HttpResponse r;
+            try {
+                String before = request.queryParams("before");
+                r = accountsService.getHistory(accountNumber, before == null ? null : Long.valueOf(before),
+                                               Integer.parseInt(request.queryParamOrDefault("limit", "20")));
+            } catch (NumberFormatException e) {
+                r = new HttpResponse("limit and before must be numbers", 400);
+            }
+            return respond(objectMapper, response, r);
+        }));
+
+        patch("/v1/accounts/:accountNumber/money", timedAsync("PATCH /v1/accounts/:accountNumber/money", objectMapper, request -> {
             log.info("Request to add money to account received");
             String accountNumber = request.params(":accountNumber");
-            Optional<AmountRequest> accountRequest = objectMapper.tryReadValue(request.body(), AmountRequest.class);
+            Optional<AmountRequest> accountRequest = objectMapper.tryReadValue(request.raw().getInputStream(), AmountRequest.class);
             if (accountRequest.isPresent()) {
-                HttpResponse r = accountsService.addAmount(accountNumber, accountRequest.get());
-                response.status(r.getStatus());
-                return objectMapper.writeValueAsString(r);
+                return accountsService.addAmountAsync(accountNumber, accountRequest.get());
             } else {
-                return malformedRequestBody(objectMapper, response);
+                return CompletableFuture.completedFuture(UNRECOGNISED_BODY);
             }
-        });
+        }));
 
-        patch("/v1/accounts/:accountNumber/money/transfer", (request, response) -> {
+        patch("/v1/accounts/:accountNumber/money/transfer", timedAsync("PATCH /v1/accounts/:accountNumber/money/transfer", objectMapper, request -> {
             log.info("Request to transfer money from account to another account received");
             String accountNumber = request.params(":accountNumber");
-            Optional<TransferRequest> transferRequest = objectMapper.tryReadValue(request.body(), TransferRequest.class);
+            Optional<TransferRequest> transferRequest = objectMapper.tryReadValue(request.raw().getInputStream(), TransferRequest.class);
             if (transferRequest.isPresent()) {
-                HttpResponse r = accountsService.transferFunds(accountNumber, transferRequest.get());
-                response.status(r.getStatus());
-                return objectMapper.writeValueAsString(r);
+                return accountsService.transferFundsAsync(accountNumber, transferRequest.get());
+            } else {
+                return CompletableFuture.completedFuture(UNRECOGNISED_BODY);
+            }
+        }));
+
+        get("/admin/contention", timed("GET /admin/contention", (request, response) -> {
+            log.info("Request for the most contended accounts received");
+            HttpResponse r;
+            try {
+                r = accountsService.getContention(Integer.parseInt(request.queryParamOrDefault("limit", "20")));
+            } catch (NumberFormatException e) {
+                r = new HttpResponse("limit must be a number", 400);
+            }
+            return respond(objectMapper, response, r);
+        }));
+
+        post("/v1/transfers/batch", timed("POST /v1/transfers/batch", (request, response) -> {
+            log.info("Request to transfer money in a batch received");
+            Optional<BatchTransferRequest> batchRequest = objectMapper.tryReadValue(request.raw().getInputStream(), BatchTransferRequest.class);
+            if (batchRequest.isPresent()) {
+                return respond(objectMapper, response, accountsService.transferFundsBatch(batchRequest.get()));
             } else {
                 return malformedRequestBody(objectMapper, response);
             }
-        });
+        }));
+    }
+
+    /**
+     * Records how long the route took in the request latency histogram.
+     */
+    private Route timed(String route, Route handler) {
+        Histogram.Child latency = requestLatency.labels(route);
+        return (request, response) -> {
+            long started = System.nanoTime();
+            try {
+                return handler.handle(request, response);
+            } finally {
+                latency.recordSince(started);
+            }
+        };
+    }
+
+    /**
+     * Responds straight away if the route's result is already known, otherwise frees the request thread
+     * and writes the response once the result completes. The result is often completed by one of the
+     * datastore's own threads, which a slow client must not hold up, so the write is handed back to
+     * Jetty's request threads. Spark's handler has no servlet context, so {@link AsyncContext#start}
+     * cannot be used for that and the connector's executor is used instead. Should it turn the write
+     * away, it is done on the completing thread rather than never. Latency is recorded once the response
+     * has been written.
+     */
+    private Route timedAsync(String route, ObjectMapper objectMapper, AsyncRoute handler) {
+        Histogram.Child latency = requestLatency.labels(route);
+        return (request, response) -> {
+            long started = System.nanoTime();
+            CompletableFuture<HttpResponse> result = handler.handle(request);
+            if (result.isDone() && !result.isCompletedExceptionally()) {
+                try {
+                    return respond(objectMapper, response, result.join());
+                } finally {
+                    latency.recordSince(started);
+                }
+            }
+
+            Executor requestThreads = AsyncJettyFactory.executorFor(request.raw());
+            AsyncContext asyncContext = request.raw().startAsync();
+            asyncContext.setTimeout(0);
+            result.whenCompleteAsync((r, failure) -> {
+                HttpServletResponse raw = (HttpServletResponse) asyncContext.getResponse();
+                try {
+                    raw.setContentType(JSON);
+                    if (failure != null) {
+                        log.error("Request failed", failure);
+                        raw.setStatus(500);
+                        objectMapper.writeValueTo(raw.getOutputStream(), UNEXPECTED_ERROR);
+                    } else {
+                        raw.setStatus(r.getStatus());
+                        objectMapper.writeValueTo(raw.getOutputStream(), r);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.error("Exception while attempting to write a response", ex);
+                } finally {
+                    asyncContext.complete();
+                    latency.recordSince(started);
+                }
+            }, task -> {
+                try {
+                    requestThreads.execute(task);
+                } catch (RejectedExecutionException e) {
+                    log.warn("No request thread to write a response on, writing it on the completing thread");
+                    task.run();
+                }
+            });
+            return "";
+        };
+    }
+
+    @FunctionalInterface
+    private interface AsyncRoute {
+        CompletableFuture<HttpResponse> handle(Request request) throws Exception;
     }
 
-    private String malformedRequestBody(ObjectMapper objectMapper, Response response) {
-        try {
-            response.status(400);
-            return objectMapper.writeValueAsString(new HttpResponse("Unrecognised request body", 400));
-        } catch (JsonProcessingException ex) {
-            log.error("Exception while attempting to write a error response", ex);
-            response.status(500);
-            return "{\"reason:\":\"Unexpected error\"}";
+    /**
+     * Writes the response body straight to the servlet's stream, leaving Spark nothing to write itself.
+     */
+    private String respond(ObjectMapper objectMapper, Response response, HttpResponse r) throws IOException {
+        response.status(r.getStatus());
+        response.type(JSON);
+        objectMapper.writeValueTo(response.raw().getOutputStream(), r);
+        return "";
+    }
+
+    /**
+     * Compares entity tags the weak way, as If-None-Match calls for.
+     */
+    static boolean anyMatches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
         }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String malformedRequestBody(ObjectMapper objectMapper, Response response) throws IOException {
+        return respond(objectMapper, response, UNRECOGNISED_BODY);
     }
 }
@@ -1,13 +1,120 @@
 package ankur.revolut.moneytransfer.account.service;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Account numbers are nine zero padded digits counting a node's accounts, after the number of the node
+ * that created them. Node 0 has no prefix, so it numbers its accounts from 000000001 to 999999999 exactly
+ * as a single instance always has, and other nodes' numbers are ten or eleven digits. Each node numbers
+ * its own range, so instances create accounts without asking each other, and anyone holding a number can
+ * tell which node owns it.
+ *
+ * Within a node each thread takes numbers from a block of its own, so threads creating accounts at once
+ * do not contend on one counter. Numbers are therefore unique but not handed out in the order accounts
+ * are created, and a block not used up before a restart leaves a gap.
+ */
 public class AccountNumberCreator {
 
-    private AtomicInteger accountsCount = new AtomicInteger(0);
+    public static final int MAX_NODE = 99;
+    // Every node numbers from 1 up to one less than this
+    static final long NODE_RANGE = 1_000_000_000L;
+    static final int DEFAULT_BLOCK_SIZE = 64;
+    private static final int DIGITS = 9;
+
+    private final int node;
+    private final int blockSize;
+    // The number within the node that the next block starts at
+    private final AtomicLong nextBlock;
+    // Each thread's next number and the end of its block
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+    public AccountNumberCreator() {
+        this(0, 0);
+    }
+
+    /**
+     * @param lastNumbered the highest number within the node it has already handed out
+     */
+    public AccountNumberCreator(int node, long lastNumbered) {
+        this(node, lastNumbered, DEFAULT_BLOCK_SIZE);
+    }
+
+    AccountNumberCreator(int node, long lastNumbered, int blockSize) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node must be from 0 to " + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+        this.blockSize = blockSize;
+        this.nextBlock = new AtomicLong(lastNumbered + 1);
+    }
+
+    /**
+     * Carries on numbering after the highest number the node has handed out among the existing accounts,
+     * such as those recovered on startup. Other nodes' accounts, and gaps in the node's own numbers, are
+     * passed over.
+     */
+    public static AccountNumberCreator resumingAfter(int node, Iterable<String> existingAccountNumbers) {
+        long lastNumbered = 0;
+        for (String accountNumber : existingAccountNumbers) {
+            if (nodeOf(accountNumber) == node) {
+                lastNumbered = Math.max(lastNumbered, Long.parseLong(accountNumber) % NODE_RANGE);
+            }
+        }
+        return new AccountNumberCreator(node, lastNumbered);
+    }
+
+    public int getNode() {
+        return node;
+    }
 
     public String createAccountNumber() {
-        int newAccountNum = accountsCount.incrementAndGet();
-        return String.format("%09d", newAccountNum);
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            long start = nextBlock.getAndAdd(blockSize);
+            if (start >= NODE_RANGE) {
+                throw new IllegalStateException("Node " + node + " has numbered all " + (NODE_RANGE - 1) + " of its accounts");
+            }
+            block[0] = start;
+            block[1] = Math.min(start + blockSize, NODE_RANGE);
+        }
+        return format(node * NODE_RANGE + block[0]++);
+    }
+
+    /**
+     * @return the node that created the account, or -1 if it is not an account number this class makes
+     */
+    public static int nodeOf(String accountNumber) {
+        if (accountNumber == null || accountNumber.length() < DIGITS || accountNumber.length() > DIGITS + 2) {
+            return -1;
+        }
+        for (int i = 0; i < accountNumber.length(); i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        int prefix = accountNumber.length() - DIGITS;
+        if (prefix == 0) {
+            return 0;
+        }
+        if (accountNumber.charAt(0) == '0') {
+            return -1;
+        }
+        return prefix == 1 ? accountNumber.charAt(0) - '0' : (accountNumber.charAt(0) - '0') * 10 + accountNumber.charAt(1) - '0';
+    }
+
+    /**
+     * The account number as at least nine zero padded digits, or as it is if it is negative.
+     */
+    public static String format(long number) {
+        if (number < 0 || number >= NODE_RANGE) {
+            return Long.toString(number);
+        }
+        char[] digits = new char[DIGITS];
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return new String(digits);
     }
 }
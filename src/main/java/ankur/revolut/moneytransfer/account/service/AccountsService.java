@@ -3,21 +3,39 @@ package ankur.revolut.moneytransfer.account.service;
 import ankur.revolut.moneytransfer.account.model.*;
 import ankur.revolut.moneytransfer.datastore.AccountDao;
 import ankur.revolut.moneytransfer.datastore.FundEnum;
+import ankur.revolut.moneytransfer.datastore.FundsResult;
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import ankur.revolut.moneytransfer.metrics.EnumCounter;
+import ankur.revolut.moneytransfer.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class AccountsService {
 
     private static final Logger log = LoggerFactory.getLogger(AccountsService.class);
 
+    static final int MAX_BATCH_SIZE = 10_000;
+    static final int MAX_CONTENTION_ACCOUNTS = 64;
+    static final int MAX_HISTORY_PAGE = 100;
+
+    private static final EnumCounter<FundEnum> outcomes = MetricsRegistry.DEFAULT.enumCounter(
+            "ledger_fund_outcomes_total", "Outcomes of the changes made by the datastore", "operation", "outcome",
+            FundEnum.class);
+    private static final EnumCounter<FundEnum>.Child addFundsOutcomes = outcomes.labels("add_funds");
+    private static final EnumCounter<FundEnum>.Child transferOutcomes = outcomes.labels("transfer");
+    private static final EnumCounter<FundEnum>.Child batchOutcomes = outcomes.labels("batch");
+
     private AccountDao accountDao;
     private AccountNumberCreator accountNumberCreator;
     private Transformer transformer;
@@ -38,28 +56,19 @@ public class AccountsService {
         Account newAccount = transformer.addAccountRequest(accountRequest, newAccountNumber,
                                                             OffsetDateTime.now(ZoneOffset.UTC));
 
+        // New accounts always start empty, so the balance is not read back
         Optional<Account> account = accountDao.addAccount(newAccount);
         if (account.isPresent()) {
-            Optional<Amount> amount = accountDao.getAmount(account.get().getAccountNumber());
-            if (amount.isPresent()) {
-                return transformer.addNewAccountResponse(account.get(), amount.get());
-            } else {
-                log.error("New account with no amount");
-            }
+            return transformer.addNewAccountResponse(account.get(), Amount.ZERO);
         }
 
         return transformer.addAccountResponseError();
     }
 
     public HttpResponse getAccount(String accountNumber) {
-        Optional<Account> account = accountDao.getAccount(accountNumber);
-        if (account.isPresent()) {
-            Optional<Amount> amount = accountDao.getAmount(account.get().getAccountNumber());
-            if (amount.isPresent()) {
-                return transformer.getAccountResponse(account.get(), amount.get());
-            } else {
-                log.error("Found account with no amount");
-            }
+        Optional<AccountSnapshot> snapshot = accountDao.getAccountSnapshot(accountNumber);
+        if (snapshot.isPresent()) {
+            return transformer.getAccountResponse(snapshot.get());
         }
 
         return transformer.noAccountResponseError();
@@ -78,14 +87,26 @@ public class AccountsService {
 
     public HttpResponse addAmount(String accountNumber, AmountRequest amountRequest) {
         AddFunds addFunds = transformer.addAmountRequest(amountRequest, accountNumber);
-        FundEnum response = accountDao.addFunds(addFunds);
-        Optional<Amount> amount = accountDao.getAmount(accountNumber);
-        if (amount.isPresent()) {
-            return transformer.addAmountResponse(amountRequest.getRequestID(), response, amount.get());
-        } else {
-            log.error("No amount for account or invalid accountID received");
-            return transformer.addAmountResponse(amountRequest.getRequestID(), response);
+        FundsResult result = accountDao.addFunds(addFunds);
+        return addAmountResponse(amountRequest, result);
+    }
+
+    /**
+     * As {@link #addAmount}, without blocking the calling thread while the account is locked.
+     */
+    public CompletableFuture<HttpResponse> addAmountAsync(String accountNumber, AmountRequest amountRequest) {
+        AddFunds addFunds = transformer.addAmountRequest(amountRequest, accountNumber);
+        return accountDao.addFundsAsync(addFunds)
+                         .thenApply(result -> addAmountResponse(amountRequest, result));
+    }
+
+    private HttpResponse addAmountResponse(AmountRequest amountRequest, FundsResult result) {
+        addFundsOutcomes.increment(result.getOutcome());
+        Optional<Amount> balance = result.getBalance();
+        if (balance.isPresent()) {
+            return transformer.addAmountResponse(amountRequest.getRequestID(), result.getOutcome(), balance.get());
         }
+        return transformer.addAmountResponse(amountRequest.getRequestID(), result.getOutcome());
     }
 
     public HttpResponse transferFunds(String accountNumber, TransferRequest transferRequest) {
@@ -94,13 +115,83 @@ public class AccountsService {
             log.info(String.format("%s - transfer within same account is not allowed", transferRequest));
             return transformer.transferResponse(transferRequest.getRequestID(), FundEnum.SAME_ACCOUNT);
         }
-        FundEnum response = accountDao.transferFunds(transfer);
-        Optional<Amount> amount = accountDao.getAmount(accountNumber);
-        if (amount.isPresent()) {
-            return transformer.transferResponse(transferRequest.getRequestID(), response, amount.get());
-        } else {
-            log.error("No amount for account or invalid accountID received");
-            return transformer.transferResponse(transferRequest.getRequestID(), response);
+        FundsResult result = accountDao.transferFunds(transfer);
+        return transferResponse(transferRequest, result);
+    }
+
+    /**
+     * As {@link #transferFunds}, without blocking the calling thread while either account is locked.
+     */
+    public CompletableFuture<HttpResponse> transferFundsAsync(String accountNumber, TransferRequest transferRequest) {
+        Transfer transfer = transformer.transferAmountRequest(transferRequest, accountNumber);
+        if (accountNumber.equals(transfer.getToAccountB().getAccountNumber())) {
+            log.info(String.format("%s - transfer within same account is not allowed", transferRequest));
+            return CompletableFuture.completedFuture(transformer.transferResponse(transferRequest.getRequestID(), FundEnum.SAME_ACCOUNT));
+        }
+        return accountDao.transferFundsAsync(transfer)
+                         .thenApply(result -> transferResponse(transferRequest, result));
+    }
+
+    private HttpResponse transferResponse(TransferRequest transferRequest, FundsResult result) {
+        transferOutcomes.increment(result.getOutcome());
+        Optional<Amount> balance = result.getBalance();
+        if (balance.isPresent()) {
+            return transformer.transferResponse(transferRequest.getRequestID(), result.getOutcome(), balance.get());
+        }
+        return transformer.transferResponse(transferRequest.getRequestID(), result.getOutcome());
+    }
+
+    public HttpResponse transferFundsBatch(BatchTransferRequest batchTransferRequest) {
+        List<BatchTransferRequest.Item> items = batchTransferRequest.getTransfers();
+        if (items == null || items.isEmpty()) {
+            return transformer.batchTransferResponseError("No transfers in batch");
+        }
+        if (items.size() > MAX_BATCH_SIZE) {
+            return transformer.batchTransferResponseError("Too many transfers in batch, the limit is " + MAX_BATCH_SIZE);
+        }
+        for (BatchTransferRequest.Item item : items) {
+            if (item == null || item.getFrom() == null || item.getTo() == null || item.getRequestID() == null) {
+                return transformer.batchTransferResponseError("Every transfer needs from, to and requestID");
+            }
+        }
+        if (batchTransferRequest.isAllOrNothing() && !accountDao.supportsAllOrNothingBatches()) {
+            return transformer.batchTransferResponseError("All-or-nothing batches are not supported by this datastore");
+        }
+
+        List<FundEnum> results = accountDao.transferFundsBatch(transformer.batchTransferRequest(batchTransferRequest),
+                                                               batchTransferRequest.isAllOrNothing());
+        for (FundEnum result : results) {
+            batchOutcomes.increment(result);
+        }
+        return transformer.batchTransferResponse(batchTransferRequest, results);
+    }
+
+    /**
+     * A page of the account's transactions, newest first.
+     *
+     * @param before the cursor from the previous page, or null for the newest transactions
+     */
+    public HttpResponse getHistory(String accountNumber, Long before, int limit) {
+        if (limit < 1 || limit > MAX_HISTORY_PAGE) {
+            return transformer.historyResponseError("limit must be between 1 and " + MAX_HISTORY_PAGE);
+        }
+        if (before != null && before < 1) {
+            return transformer.historyResponseError("before must be at least 1");
+        }
+        Optional<List<HistoryEntry>> history = accountDao.getHistory(accountNumber, before == null ? Long.MAX_VALUE : before, limit);
+        if (!history.isPresent()) {
+            return transformer.noAccountResponseError();
+        }
+        return transformer.historyResponse(history.get(), limit);
+    }
+
+    /**
+     * The accounts whose locks changes most often had to wait for, most contended first.
+     */
+    public HttpResponse getContention(int limit) {
+        if (limit < 1 || limit > MAX_CONTENTION_ACCOUNTS) {
+            return transformer.contentionResponseError("limit must be between 1 and " + MAX_CONTENTION_ACCOUNTS);
         }
+        return transformer.contentionResponse(accountDao.hottestAccounts(limit));
     }
 }
@@ -3,19 +3,39 @@ package ankur.revolut.moneytransfer.account.service;
 import ankur.revolut.moneytransfer.account.model.*;
 import ankur.revolut.moneytransfer.datastore.FundEnum;
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
 import java.time.OffsetDateTime;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
 
 public class HTTPTransformer implements Transformer {
 
     private static final Logger log = LoggerFactory.getLogger(HTTPTransformer.class);
 
+    private static final ConstantHttpResponse SUCCESS = new ConstantHttpResponse("Success", 200);
+    private static final ConstantHttpResponse FUNDS_ADDED = new ConstantHttpResponse("Funds added", 200);
+    private static final ConstantHttpResponse FUND_OVERFLOW = new ConstantHttpResponse("Too much money in account", 400);
+    private static final ConstantHttpResponse FUND_UNDERFLOW = new ConstantHttpResponse("Not enough funds in account", 400);
+    private static final ConstantHttpResponse TIMED_OUT = new ConstantHttpResponse("Timed out, please try again", 408);
+    private static final ConstantHttpResponse ACCOUNT_NOT_FOUND = new ConstantHttpResponse("No account with specified accountNumber", 404);
+    private static final ConstantHttpResponse TRANSACTION_ALREADY_COMPLETE = new ConstantHttpResponse("Transaction already complete", 409);
+    private static final ConstantHttpResponse DEST_ACCOUNT_NOT_FOUND = new ConstantHttpResponse("Destination account not found", 404);
+    private static final ConstantHttpResponse SAME_ACCOUNT = new ConstantHttpResponse("Void transaction within same account", 400);
+    private static final ConstantHttpResponse BATCH_ROLLED_BACK = new ConstantHttpResponse("Not applied, another transfer in the batch failed", 424);
+    private static final ConstantHttpResponse UNKNOWN_FUNDS_ERROR = new ConstantHttpResponse("Unknown error when adding funds", 500);
+    private static final ConstantHttpResponse ADD_ACCOUNT_CONFLICT = new ConstantHttpResponse("Please try again. Unexpected conflict.", 500);
+
+    private final EncodedAccounts encodedAccounts = new EncodedAccounts(SUCCESS, 1 << 14);
+
     @Override
     public Account addAccountRequest(AccountRequest request, String accountNumber, OffsetDateTime now) {
         return Account.AccountBuilder.anAccount()
@@ -28,12 +48,12 @@ public class HTTPTransformer implements Transformer {
 
     @Override
     public HttpResponse addAccountResponseError() {
-        return new HttpResponse("Please try again. Unexpected conflict.", 500);
+        return ADD_ACCOUNT_CONFLICT;
     }
 
     @Override
     public HttpResponse noAccountResponseError() {
-        return accountNotFound();
+        return ACCOUNT_NOT_FOUND;
     }
 
     @Override
@@ -42,15 +62,15 @@ public class HTTPTransformer implements Transformer {
     }
 
     @Override
-    public HttpResponse getAccountResponse(Account account, Amount amount) {
-        return addAccountResponse(account, amount, 200);
+    public HttpResponse getAccountResponse(AccountSnapshot snapshot) {
+        return encodedAccounts.withBalance(snapshot);
     }
 
     private HttpResponse addAccountResponse(Account account, Amount amount, int status) {
         return AccountHttpResponse.AccountHttpResponseBuilder
                 .anAccountHttpResponse()
                 .withAccountNumber(account.getAccountNumber())
-                .withTotalAmount(amount.getValue())
+                .withTotalAmount(amount.toDecimal())
                 .withFirstName(account.getFirstName())
                 .withOtherName(account.getOtherName())
                 .withReason("Success")
@@ -61,98 +81,166 @@ public class HTTPTransformer implements Transformer {
 
     @Override
     public HttpResponse addAmountResponse(Amount amount) {
-        return AccountHttpResponse.AccountHttpResponseBuilder
-                .anAccountHttpResponse()
-                .withTotalAmount(amount.getValue())
-                .withReason("Success")
-                .withStatus(200)
-                .build();
+        return SUCCESS.withBalance(amount);
     }
 
     @Override
     public AddFunds addAmountRequest(AmountRequest amountRequest, String accountNumber) {
-        return new AddFunds(accountNumber, Amount.newAmount(amountRequest.getAmount()), amountRequest.getRequestID());
+        return new AddFunds(accountNumber, Amount.newAmount(amountRequest.getAmountInMinorUnits()), amountRequest.getRequestID());
     }
 
     @Override
     public HttpResponse addAmountResponse(String requestID, FundEnum fundEnum, Amount amount) {
-        HttpResponse response = addAmountResponse(requestID, fundEnum);
-
-        return AccountHttpResponse.AccountHttpResponseBuilder
-                                    .anAccountHttpResponse()
-                                    .withTotalAmount(amount.getValue())
-                                    .withReason(response.getReason())
-                                    .withStatus(response.getStatus())
-                                    .build();
+        return addFundsOutcome(requestID, fundEnum).withBalance(amount);
     }
 
     @Override
     public HttpResponse addAmountResponse(String requestID, FundEnum fundEnum) {
-        Optional<HttpResponse> response = sharedEnumResponse(fundEnum);
-        if (response.isPresent()) {
-            return response.get();
+        return addFundsOutcome(requestID, fundEnum);
+    }
+
+    private ConstantHttpResponse addFundsOutcome(String requestID, FundEnum fundEnum) {
+        ConstantHttpResponse response = sharedEnumResponse(fundEnum);
+        if (response != null) {
+            return response;
         }
 
-        log.error(String.format("%s - %s unknown enum when adding funds", fundEnum));
-        return new HttpResponse("Unknown error when adding funds", 500);
+        log.error(String.format("%s - %s unknown enum when adding funds", requestID, fundEnum));
+        return UNKNOWN_FUNDS_ERROR;
     }
 
     @Override
     public Transfer transferAmountRequest(TransferRequest transferRequest, String accountNumber) {
-        AddFunds fromA = new AddFunds(accountNumber, Amount.newAmount(transferRequest.getAmount() * -1), transferRequest.getRequestID());
-        AddFunds toB = new AddFunds(transferRequest.getTo(), Amount.newAmount(transferRequest.getAmount()), transferRequest.getRequestID());
+        AddFunds fromA = new AddFunds(accountNumber, Amount.newAmount(-transferRequest.getAmountInMinorUnits()), transferRequest.getRequestID());
+        AddFunds toB = new AddFunds(transferRequest.getTo(), Amount.newAmount(transferRequest.getAmountInMinorUnits()), transferRequest.getRequestID());
         return new Transfer(fromA, toB);
     }
 
     @Override
     public HttpResponse transferResponse(String requestID, FundEnum fundEnum, Amount amount) {
-        HttpResponse response = transferResponse(requestID, fundEnum);
-
-        return AccountHttpResponse.AccountHttpResponseBuilder
-                .anAccountHttpResponse()
-                .withTotalAmount(amount.getValue())
-                .withReason(response.getReason())
-                .withStatus(response.getStatus())
-                .build();
+        return transferOutcome(requestID, fundEnum).withBalance(amount);
     }
 
     @Override
     public HttpResponse transferResponse(String requestID, FundEnum fundEnum) {
-        Optional<HttpResponse> response = sharedEnumResponse(fundEnum);
-        if (response.isPresent()) {
-            return response.get();
+        return transferOutcome(requestID, fundEnum);
+    }
+
+    private ConstantHttpResponse transferOutcome(String requestID, FundEnum fundEnum) {
+        ConstantHttpResponse response = sharedEnumResponse(fundEnum);
+        if (response != null) {
+            return response;
         }
 
         switch (fundEnum) {
             case DEST_ACCOUNT_NOT_FOUND:
-                return new HttpResponse("Destination account not found", 404);
+                return DEST_ACCOUNT_NOT_FOUND;
             case SAME_ACCOUNT:
-                return new HttpResponse("Void transaction within same account", 400);
+                return SAME_ACCOUNT;
+            case BATCH_ROLLED_BACK:
+                return BATCH_ROLLED_BACK;
         }
 
-        log.error(String.format("%s - %s unknown enum when adding funds", fundEnum));
-        return new HttpResponse("Unknown error when adding funds", 500);
+        log.error(String.format("%s - %s unknown enum when adding funds", requestID, fundEnum));
+        return UNKNOWN_FUNDS_ERROR;
+    }
+
+    @Override
+    public List<Transfer> batchTransferRequest(BatchTransferRequest batchTransferRequest) {
+        List<Transfer> transfers = new ArrayList<>(batchTransferRequest.getTransfers().size());
+        for (BatchTransferRequest.Item item : batchTransferRequest.getTransfers()) {
+            transfers.add(transferAmountRequest(item, item.getFrom()));
+        }
+        return transfers;
     }
 
-    private Optional<HttpResponse> sharedEnumResponse(FundEnum fundEnum) {
+    @Override
+    public HttpResponse batchTransferResponse(BatchTransferRequest batchTransferRequest, List<FundEnum> results) {
+        List<BatchTransferHttpResponse.Result> itemResponses = new ArrayList<>(results.size());
+        boolean allSucceeded = true;
+        for (int i = 0; i < results.size(); i++) {
+            String requestID = batchTransferRequest.getTransfers().get(i).getRequestID();
+            HttpResponse response = transferResponse(requestID, results.get(i));
+            itemResponses.add(new BatchTransferHttpResponse.Result(requestID, response.getReason(), response.getStatus()));
+            allSucceeded &= results.get(i) == FundEnum.SUCCESS;
+        }
+
+        if (batchTransferRequest.isAllOrNothing() && !allSucceeded) {
+            return new BatchTransferHttpResponse("Batch not applied", 400, itemResponses);
+        }
+        return new BatchTransferHttpResponse("Batch processed", 200, itemResponses);
+    }
+
+    @Override
+    public HttpResponse batchTransferResponseError(String reason) {
+        return new HttpResponse(reason, 400);
+    }
+
+    @Override
+    public HttpResponse contentionResponse(List<AccountContention> accounts) {
+        List<ContentionHttpResponse.Account> accountResponses = new ArrayList<>(accounts.size());
+        for (AccountContention account : accounts) {
+            accountResponses.add(new ContentionHttpResponse.Account(account.getAccountNumber(), account.getContended(),
+                                                                    account.getCountError(), account.getTimedOut(),
+                                                                    millis(account.getWaitP50Nanos()),
+                                                                    millis(account.getWaitP99Nanos()),
+                                                                    millis(account.getWaitMaxNanos()), account.isHot()));
+        }
+        return new ContentionHttpResponse("Success", 200, accountResponses);
+    }
+
+    @Override
+    public HttpResponse contentionResponseError(String reason) {
+        return new HttpResponse(reason, 400);
+    }
+
+    /**
+     * A full page is followed by a cursor unless it ends at the account's first entry, so the page after
+     * the last one comes back empty only when the history ends exactly on a page boundary.
+     */
+    @Override
+    public HttpResponse historyResponse(List<HistoryEntry> entries, int limit) {
+        List<HistoryHttpResponse.Transaction> transactions = new ArrayList<>(entries.size());
+        for (HistoryEntry entry : entries) {
+            transactions.add(new HistoryHttpResponse.Transaction(entry.getId(),
+                                                                 Instant.ofEpochMilli(entry.getTimeMillis()).toString(),
+                                                                 entry.getAmount().toDecimal(),
+                                                                 entry.getCounterparty()));
+        }
+        Long next = null;
+        if (entries.size() == limit && entries.get(limit - 1).getId() > 1) {
+            next = entries.get(limit - 1).getId();
+        }
+        return new HistoryHttpResponse("Success", 200, transactions, next);
+    }
+
+    @Override
+    public HttpResponse historyResponseError(String reason) {
+        return new HttpResponse(reason, 400);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * @return the response for an outcome shared by adding funds and transfers, or null for any other
+     */
+    private ConstantHttpResponse sharedEnumResponse(FundEnum fundEnum) {
         switch (fundEnum) {
             case SUCCESS:
-                return Optional.of(new HttpResponse("Funds added", 200));
+                return FUNDS_ADDED;
             case FUND_OVERFLOW:
-                return Optional.of(new HttpResponse("Too much money in account", 400));
+                return FUND_OVERFLOW;
             case FUND_UNDERFLOW:
-                return Optional.of(new HttpResponse("Not enough funds in account", 400));
+                return FUND_UNDERFLOW;
             case TIMED_OUT:
-                return Optional.of(new HttpResponse("Timed out, please try again", 408));
+                return TIMED_OUT;
             case ACCOUNT_NOT_FOUND:
-                return Optional.of(accountNotFound());
+                return ACCOUNT_NOT_FOUND;
             case TRANSACTION_ALREADY_COMPLETE:
-                return Optional.of(new HttpResponse("Transaction already complete", 409));
+                return TRANSACTION_ALREADY_COMPLETE;
         }
-        return Optional.empty();
-    }
-
-    private HttpResponse accountNotFound() {
-        return new HttpResponse("No account with specified accountNumber", 404);
+        return null;
     }
 }
@@ -1,14 +1,79 @@
 package ankur.revolut.moneytransfer.account.service;
 
+import ankur.revolut.moneytransfer.account.model.EncodedResponse;
+import ankur.revolut.moneytransfer.account.model.ValidatedRequest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ObjectMapper extends com.fasterxml.jackson.databind.ObjectMapper {
 
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
     public <T> Optional<T> tryReadValue(String content, Class<T> valueType) {
         try {
-            return Optional.of(super.readValue(content, valueType));
+            return valid(cachedReader(valueType).readValue(content));
         } catch (Exception ex) {
             return Optional.empty();
         }
     }
+
+    /**
+     * Reads a request body straight from its stream. A body that is empty or not a JSON object, or a
+     * {@link ValidatedRequest} that is not valid, comes back empty without an exception being thrown;
+     * only a syntax error inside an object still costs one.
+     */
+    public <T> Optional<T> tryReadValue(InputStream content, Class<T> valueType) {
+        try {
+            PushbackInputStream in = new PushbackInputStream(content, 1);
+            int first = in.read();
+            while (first == ' ' || first == '\t' || first == '\r' || first == '\n') {
+                first = in.read();
+            }
+            if (first != '{') {
+                return Optional.empty();
+            }
+            in.unread(first);
+            return valid(cachedReader(valueType).readValue(in));
+        } catch (IOException | RuntimeException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the value to the stream as UTF-8 bytes, leaving the stream open for its owner to close. A
+     * response that encodes itself writes itself.
+     */
+    public void writeValueTo(OutputStream out, Object value) throws IOException {
+        if (value instanceof EncodedResponse) {
+            ((EncodedResponse) value).writeTo(out);
+            return;
+        }
+        writers.computeIfAbsent(value.getClass(), type -> writerFor(type)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM))
+               .writeValue(out, value);
+    }
+
+    private ObjectReader cachedReader(Class<?> valueType) {
+        return readers.computeIfAbsent(valueType, this::readerFor);
+    }
+
+    private static <T> Optional<T> valid(T value) {
+        if (value instanceof ValidatedRequest && !((ValidatedRequest) value).isValid()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(value);
+    }
 }
@@ -3,18 +3,22 @@ package ankur.revolut.moneytransfer.account.service;
 import ankur.revolut.moneytransfer.account.model.*;
 import ankur.revolut.moneytransfer.datastore.FundEnum;
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
 
 import java.time.OffsetDateTime;
+import java.util.List;
 
 public interface Transformer {
     Account addAccountRequest(AccountRequest request, String accountNumber, OffsetDateTime now);
     HttpResponse addAccountResponseError();
     HttpResponse noAccountResponseError();
     HttpResponse addNewAccountResponse(Account account, Amount amount);
-    HttpResponse getAccountResponse(Account account, Amount amount);
+    HttpResponse getAccountResponse(AccountSnapshot snapshot);
     HttpResponse addAmountResponse(Amount amount);
     AddFunds addAmountRequest(AmountRequest amountRequest, String accountNumber);
     HttpResponse addAmountResponse(String requestID, FundEnum fundEnum);
@@ -22,4 +26,11 @@ public interface Transformer {
     Transfer transferAmountRequest(TransferRequest transferRequest, String accountNumber);
     HttpResponse transferResponse(String requestID, FundEnum fundEnum);
     HttpResponse transferResponse(String requestID, FundEnum fundEnum, Amount amount);
+    List<Transfer> batchTransferRequest(BatchTransferRequest batchTransferRequest);
+    HttpResponse batchTransferResponse(BatchTransferRequest batchTransferRequest, List<FundEnum> results);
+    HttpResponse batchTransferResponseError(String reason);
+    HttpResponse contentionResponse(List<AccountContention> accounts);
+    HttpResponse contentionResponseError(String reason);
+    HttpResponse historyResponse(List<HistoryEntry> entries, int limit);
+    HttpResponse historyResponseError(String reason);
 }
@@ -0,0 +1,129 @@
+package ankur.revolut.moneytransfer.binary;
+
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A blocking client for {@link BinaryServer}, for one thread at a time. Requests are buffered until
+ * {@link #flush()}, so that many can be sent in one write, and responses are then read one by one and
+ * matched to their requests by correlation.
+ */
+public class BinaryClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(BinaryProtocol.REQUEST_SIZE * 256);
+    private final ByteBuffer in = ByteBuffer.allocate(BinaryProtocol.RESPONSE_SIZE * 256);
+
+    private BinaryClient(SocketChannel channel) {
+        this.channel = channel;
+        in.flip();
+    }
+
+    public static BinaryClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new BinaryClient(channel);
+    }
+
+    public void credit(int correlation, long account, long pence, long requestHigh, long requestLow) throws IOException {
+        request(BinaryProtocol.CREDIT, correlation, account, 0, pence, requestHigh, requestLow);
+    }
+
+    public void transfer(int correlation, long from, long to, long pence, long requestHigh, long requestLow) throws IOException {
+        request(BinaryProtocol.TRANSFER, correlation, from, to, pence, requestHigh, requestLow);
+    }
+
+    public void balance(int correlation, long account) throws IOException {
+        request(BinaryProtocol.BALANCE, correlation, account, 0, 0, 0, 0);
+    }
+
+    void request(byte command, int correlation, long account, long to, long pence, long requestHigh, long requestLow)
+            throws IOException {
+        if (out.remaining() < BinaryProtocol.REQUEST_SIZE) {
+            flush();
+        }
+        out.put(command)
+           .put((byte) 0)
+           .putShort((short) 0)
+           .putInt(correlation)
+           .putLong(account)
+           .putLong(to)
+           .putLong(pence)
+           .putLong(requestHigh)
+           .putLong(requestLow);
+    }
+
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Waits for the next response, which is read into the one given.
+     */
+    public Response read(Response response) throws IOException {
+        if (in.remaining() < BinaryProtocol.RESPONSE_SIZE) {
+            in.compact();
+            while (in.position() < BinaryProtocol.RESPONSE_SIZE) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+            }
+            in.flip();
+        }
+        response.correlation = in.getInt();
+        response.code = in.get();
+        response.hasBalance = in.get() == 1;
+        in.getShort();
+        response.balance = in.getLong();
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A response, which can be reused for the next one.
+     */
+    public static final class Response {
+        private int correlation;
+        private byte code;
+        private boolean hasBalance;
+        private long balance;
+
+        public int getCorrelation() {
+            return correlation;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        /**
+         * @return the datastore's outcome, or null if the code is one of the protocol's own
+         */
+        public FundEnum getOutcome() {
+            return BinaryProtocol.outcome(code);
+        }
+
+        public boolean hasBalance() {
+            return hasBalance;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+    }
+}
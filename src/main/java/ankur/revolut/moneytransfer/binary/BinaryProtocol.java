@@ -0,0 +1,80 @@
+package ankur.revolut.moneytransfer.binary;
+
+import ankur.revolut.moneytransfer.account.service.AccountNumberCreator;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+
+/**
+ * Fixed size frames for services that call the ledger often enough that HTTP and JSON cost more than the
+ * change itself. All numbers are big-endian.
+ *
+ * <pre>
+ * Request, 48 bytes                       Response, 16 bytes
+ *  0  command      byte                    0  correlation  int
+ *  1  reserved     3 bytes                 4  outcome      byte
+ *  4  correlation  int                     5  has balance  byte, 1 if the balance is set
+ *  8  account      long                    6  reserved     2 bytes
+ * 16  to account   long, transfers only    8  balance      long, pence
+ * 24  amount       long, pence
+ * 32  request ID   16 bytes
+ * </pre>
+ *
+ * The correlation is chosen by the client and sent back with the response. A client may send many
+ * requests before reading any responses, and responses come back in the order the changes complete, which
+ * need not be the order they were sent. The outcome is the ordinal of the {@link FundEnum} the datastore
+ * returned, or one of the codes below when there was none.
+ */
+public final class BinaryProtocol {
+
+    public static final int REQUEST_SIZE = 48;
+    public static final int RESPONSE_SIZE = 16;
+
+    /** Adds the amount, which may be negative, to the account. */
+    public static final byte CREDIT = 1;
+    /** Moves the amount from the account to the other account. */
+    public static final byte TRANSFER = 2;
+    /** Reads the balance, with outcome {@code SUCCESS} or {@code ACCOUNT_NOT_FOUND}. */
+    public static final byte BALANCE = 3;
+
+    /** The command byte was not one of the commands above. */
+    public static final byte UNKNOWN_COMMAND = (byte) 0xFF;
+    /** The change failed unexpectedly, for example because it could not be written to the log. */
+    public static final byte FAILED = (byte) 0xFE;
+
+    private static final FundEnum[] outcomes = FundEnum.values();
+
+    private BinaryProtocol() {
+    }
+
+    public static byte outcomeCode(FundEnum outcome) {
+        return (byte) outcome.ordinal();
+    }
+
+    /**
+     * @return the datastore outcome for a response code, or null for one of the protocol's own codes
+     */
+    public static FundEnum outcome(byte code) {
+        return code >= 0 && code < outcomes.length ? outcomes[code] : null;
+    }
+
+    /**
+     * Account numbers are sent as numbers and held as strings of at least nine zero padded digits, so the
+     * node owning an account is its number divided by a billion.
+     */
+    static String accountNumber(long number) {
+        return AccountNumberCreator.format(number);
+    }
+
+    /**
+     * The request ID as 32 hex digits, which the idempotency store keys on exactly.
+     */
+    static String requestID(long high, long low) {
+        char[] hex = new char[32];
+        for (int i = 15; i >= 0; i--) {
+            hex[i] = Character.forDigit((int) (high & 0xF), 16);
+            hex[i + 16] = Character.forDigit((int) (low & 0xF), 16);
+            high >>>= 4;
+            low >>>= 4;
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,383 @@
+package ankur.revolut.moneytransfer.binary;
+
+import ankur.revolut.moneytransfer.datastore.AccountDao;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import ankur.revolut.moneytransfer.datastore.FundsResult;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import ankur.revolut.moneytransfer.metrics.Histogram;
+import ankur.revolut.moneytransfer.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves {@link BinaryProtocol} frames on a TCP port from a single selector thread, next to the HTTP API
+ * and against the same datastore. The selector thread only reads and writes frames. Each connection's
+ * requests are passed to the datastore one at a time, in the order they were read, on a small pool of
+ * worker threads, so a balance read waiting on a hot account's lock or a change waiting for room in the
+ * write-ahead log holds up its own connection and no other. Changes are made with the datastore's async
+ * methods, so a change waiting for a lock or for the log to sync does not hold up even that. Responses
+ * are handed back to the selector thread to send.
+ */
+public class BinaryServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+
+    // Requests read but not yet answered on a connection, beyond which it is not read until some are
+    static final int MAX_IN_FLIGHT = 1024;
+    private static final int WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final Histogram commandLatency = MetricsRegistry.DEFAULT.histogram(
+            "binary_command_duration_seconds", "Time from a binary request being read to its response being ready", "command");
+    private static final Histogram.Child creditLatency = commandLatency.labels("credit");
+    private static final Histogram.Child transferLatency = commandLatency.labels("transfer");
+    private static final Histogram.Child balanceLatency = commandLatency.labels("balance");
+
+    private final AccountDao accountDao;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Queue<Connection> readyToFlush = new ConcurrentLinkedQueue<>();
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    private BinaryServer(AccountDao accountDao, String host, int port) throws IOException {
+        this.accountDao = accountDao;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(host, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = new Thread(this::run, "binary-selector");
+        selectorThread.setDaemon(true);
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "binary-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Listens on the port, or on any free port if it is 0, until closed.
+     */
+    public static BinaryServer start(AccountDao accountDao, String host, int port) throws IOException {
+        BinaryServer server = new BinaryServer(accountDao, host, port);
+        server.selectorThread.start();
+        log.info("Binary protocol listening on {}", server.serverChannel.getLocalAddress());
+        return server;
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection ready;
+                while ((ready = readyToFlush.poll()) != null) {
+                    ready.flush();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Binary protocol selector failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                log.warn("Could not close the binary protocol listener", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Could not close binary protocol connection", e);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Lane lane = new Lane();
+        private final ByteBuffer in = ByteBuffer.allocate(BinaryProtocol.REQUEST_SIZE * 256);
+        // Room for a response to every request in flight; written by whichever thread completes a
+        // request and drained by the selector thread, both holding this connection's lock
+        private final ByteBuffer out = ByteBuffer.allocate(BinaryProtocol.RESPONSE_SIZE * MAX_IN_FLIGHT);
+        private SelectionKey key;
+        // Selector thread only
+        private long requestsRead;
+        private long bytesSent;
+        // Guarded by this
+        private boolean flushQueued;
+        private boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            dispatchBuffered();
+            flush();
+        }
+
+        private long inFlight() {
+            return requestsRead - bytesSent / BinaryProtocol.RESPONSE_SIZE;
+        }
+
+        private void dispatchBuffered() {
+            in.flip();
+            while (in.remaining() >= BinaryProtocol.REQUEST_SIZE && inFlight() < MAX_IN_FLIGHT) {
+                requestsRead++;
+                dispatch();
+            }
+            in.compact();
+        }
+
+        private void dispatch() {
+            long started = System.nanoTime();
+            int frame = in.position();
+            byte command = in.get(frame);
+            int correlation = in.getInt(frame + 4);
+            long account = in.getLong(frame + 8);
+            long to = in.getLong(frame + 16);
+            long amount = in.getLong(frame + 24);
+            long requestHigh = in.getLong(frame + 32);
+            long requestLow = in.getLong(frame + 40);
+            in.position(frame + BinaryProtocol.REQUEST_SIZE);
+
+            lane.execute(() -> {
+                try {
+                    call(command, correlation, account, to, amount, requestHigh, requestLow, started);
+                } catch (RuntimeException e) {
+                    log.error("Binary request failed", e);
+                    respond(correlation, BinaryProtocol.FAILED, false, 0);
+                }
+            });
+        }
+
+        /**
+         * Runs on the connection's lane, as the datastore may block.
+         */
+        private void call(byte command, int correlation, long accountNumber, long to, long amount, long requestHigh,
+                          long requestLow, long started) {
+            String account = BinaryProtocol.accountNumber(accountNumber);
+            switch (command) {
+                case BinaryProtocol.CREDIT: {
+                    AddFunds credit = new AddFunds(account, Amount.newAmount(amount),
+                                                   BinaryProtocol.requestID(requestHigh, requestLow));
+                    respondWhenDone(correlation, accountDao.addFundsAsync(credit), creditLatency, started);
+                    break;
+                }
+                case BinaryProtocol.TRANSFER: {
+                    String toAccount = BinaryProtocol.accountNumber(to);
+                    if (account.equals(toAccount)) {
+                        respond(correlation, BinaryProtocol.outcomeCode(FundEnum.SAME_ACCOUNT), false, 0);
+                        transferLatency.recordSince(started);
+                        break;
+                    }
+                    String requestID = BinaryProtocol.requestID(requestHigh, requestLow);
+                    Transfer transfer = new Transfer(new AddFunds(account, Amount.newAmount(-amount), requestID),
+                                                     new AddFunds(toAccount, Amount.newAmount(amount), requestID));
+                    respondWhenDone(correlation, accountDao.transferFundsAsync(transfer), transferLatency, started);
+                    break;
+                }
+                case BinaryProtocol.BALANCE: {
+                    Optional<Amount> balance = accountDao.getAmount(account);
+                    respond(correlation, BinaryProtocol.outcomeCode(balance.isPresent() ? FundEnum.SUCCESS : FundEnum.ACCOUNT_NOT_FOUND),
+                            balance.isPresent(), balance.map(Amount::getValue).orElse(0L));
+                    balanceLatency.recordSince(started);
+                    break;
+                }
+                default:
+                    respond(correlation, BinaryProtocol.UNKNOWN_COMMAND, false, 0);
+            }
+        }
+
+        /**
+         * Responds with the account's balance as the change left it, as the HTTP API does.
+         */
+        private void respondWhenDone(int correlation, CompletableFuture<FundsResult> result,
+                                     Histogram.Child latency, long started) {
+            result.whenComplete((outcome, failure) -> {
+                if (failure != null) {
+                    log.error("Binary request failed", failure);
+                    respond(correlation, BinaryProtocol.FAILED, false, 0);
+                } else {
+                    Optional<Amount> balance = outcome.getBalance();
+                    respond(correlation, BinaryProtocol.outcomeCode(outcome.getOutcome()), balance.isPresent(),
+                            balance.map(Amount::getValue).orElse(0L));
+                }
+                latency.recordSince(started);
+            });
+        }
+
+        private void respond(int correlation, byte outcome, boolean hasBalance, long balance) {
+            boolean queue;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                out.putInt(correlation)
+                   .put(outcome)
+                   .put((byte) (hasBalance ? 1 : 0))
+                   .putShort((short) 0)
+                   .putLong(balance);
+                queue = !flushQueued;
+                flushQueued = true;
+            }
+            if (queue) {
+                readyToFlush.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void flush() {
+            int remaining;
+            synchronized (this) {
+                flushQueued = false;
+                if (closed) {
+                    return;
+                }
+                out.flip();
+                try {
+                    bytesSent += channel.write(out);
+                } catch (IOException e) {
+                    out.clear();
+                    closeLocked();
+                    return;
+                }
+                out.compact();
+                remaining = out.position();
+            }
+
+            int interest = remaining > 0 ? SelectionKey.OP_WRITE : 0;
+            if (inFlight() < MAX_IN_FLIGHT) {
+                interest |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interest);
+            // Requests left unread while too many were in flight can go now
+            if (in.position() >= BinaryProtocol.REQUEST_SIZE && inFlight() < MAX_IN_FLIGHT) {
+                dispatchBuffered();
+                flush();
+            }
+        }
+
+        private synchronized void close() {
+            closeLocked();
+        }
+
+        private void closeLocked() {
+            closed = true;
+            closeQuietly(key);
+        }
+    }
+
+    /**
+     * Runs a connection's calls on the workers one at a time and in the order they were added, without
+     * holding a worker while it has none.
+     */
+    private final class Lane implements Runnable {
+        private final Queue<Runnable> calls = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void execute(Runnable call) {
+            calls.add(call);
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Runnable call;
+                while ((call = calls.poll()) != null) {
+                    call.run();
+                }
+                scheduled.set(false);
+                // A call added after the queue was found empty, but before the lane was let go, is run here
+            } while (!calls.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
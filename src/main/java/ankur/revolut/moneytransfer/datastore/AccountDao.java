@@ -1,17 +1,31 @@
 package ankur.revolut.moneytransfer.datastore;
 
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface AccountDao {
 	Optional<Account> addAccount(Account account);
 	Optional<Account> getAccount(String accountNumber);
 	Optional<Amount> getAmount(String accountNumber);
+	Optional<AccountSnapshot> getAccountSnapshot(String accountNumber);
 	boolean doesAccountExist(String accountNumber);
-	FundEnum addFunds(AddFunds addFunds);
-	FundEnum transferFunds(Transfer transfer);
+	Optional<List<HistoryEntry>> getHistory(String accountNumber, long before, int limit);
+	FundsResult addFunds(AddFunds addFunds);
+	FundsResult transferFunds(Transfer transfer);
+	CompletableFuture<FundsResult> addFundsAsync(AddFunds addFunds);
+	CompletableFuture<FundsResult> transferFundsAsync(Transfer transfer);
+	List<FundEnum> transferFundsBatch(List<Transfer> transfers, boolean allOrNothing);
+	boolean supportsAllOrNothingBatches();
+	int accountCount();
+	Iterable<String> accountNumbers();
+	List<AccountContention> hottestAccounts(int limit);
 }
@@ -1,10 +1,105 @@
 package ankur.revolut.moneytransfer.datastore;
 
-import ankur.revolut.moneytransfer.datastore.AccountDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class AccountDaoCreator {
 
+    private static final Logger log = LoggerFactory.getLogger(AccountDaoCreator.class);
+
     public static AccountDao createDao(long lockAcquireTimeout) {
-        return InMemoryAccountDao.newWithTimeout(lockAcquireTimeout);
+        return createDao(lockAcquireTimeout, IdempotencyStore.DEFAULT_RETENTION_MILLIS);
+    }
+
+    public static AccountDao createDao(long lockAcquireTimeout, long idempotencyRetentionMillis) {
+        return InMemoryAccountDao.newWithTimeout(lockAcquireTimeout, IdempotencyStore.newWithRetention(idempotencyRetentionMillis));
+    }
+
+    public static AccountDao createLockFreeDao(long lockAcquireTimeout) {
+        return createLockFreeDao(lockAcquireTimeout, IdempotencyStore.DEFAULT_RETENTION_MILLIS);
+    }
+
+    public static AccountDao createLockFreeDao(long lockAcquireTimeout, long idempotencyRetentionMillis) {
+        return InMemoryAccountDao.newLockFree(lockAcquireTimeout, IdempotencyStore.newWithRetention(idempotencyRetentionMillis));
+    }
+
+    /**
+     * As above, with credits to each of the hot accounts split across {@code stripes} stripes.
+     */
+    public static AccountDao createLockFreeDao(long lockAcquireTimeout, List<String> hotAccounts, int stripes) {
+        return markHot(InMemoryAccountDao.newLockFree(lockAcquireTimeout,
+                                                      IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS)),
+                       hotAccounts, stripes);
+    }
+
+    /**
+     * A locking DAO with credits to each of the hot accounts split across {@code stripes} stripes.
+     */
+    public static AccountDao createDao(long lockAcquireTimeout, List<String> hotAccounts, int stripes) {
+        return markHot(InMemoryAccountDao.newWithTimeout(lockAcquireTimeout,
+                                                         IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS)),
+                       hotAccounts, stripes);
+    }
+
+    private static AccountDao markHot(InMemoryAccountDao dao, List<String> hotAccounts, int stripes) {
+        for (String accountNumber : hotAccounts) {
+            dao.markHot(accountNumber, stripes);
+        }
+        return dao;
+    }
+
+    /**
+     * One shard per available processor, each with a queue of 1024 commands.
+     */
+    public static AccountDao createShardedDao(long enqueueTimeout) {
+        return createShardedDao(Runtime.getRuntime().availableProcessors(), 1024, enqueueTimeout);
+    }
+
+    public static AccountDao createShardedDao(int shards, int queueCapacity, long enqueueTimeout) {
+        return ShardedLedgerDao.newWithShards(shards, queueCapacity, enqueueTimeout,
+                                              IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS));
+    }
+
+    /**
+     * Recovers the accounts from the log file, starting from the snapshot next to it if there is one, and
+     * logs every change to it, syncing up to {@code maxBatchRecords} changes at a time and holding a change
+     * back for at most {@code flushIntervalMillis} waiting for others to share its sync. A checkpoint is
+     * taken every {@code checkpointIntervalSeconds}, or never if that is 0.
+     */
+    public static AccountDao createDurableDao(long lockAcquireTimeout, Path logFile, long flushIntervalMillis,
+                                              int maxBatchRecords, long checkpointIntervalSeconds) {
+        InMemoryAccountDao dao;
+        try {
+            WriteAheadLog writeAheadLog = WriteAheadLog.open(logFile, flushIntervalMillis, maxBatchRecords);
+            dao = InMemoryAccountDao.newDurable(lockAcquireTimeout,
+                                                IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS),
+                                                writeAheadLog, logFile.resolveSibling(logFile.getFileName() + ".snapshot"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to recover accounts from " + logFile, e);
+        }
+
+        if (checkpointIntervalSeconds > 0) {
+            ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    dao.checkpoint();
+                } catch (IOException | RuntimeException e) {
+                    log.error("Checkpoint failed, the log will be replayed from the previous one", e);
+                }
+            }, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+        }
+        return dao;
     }
 }
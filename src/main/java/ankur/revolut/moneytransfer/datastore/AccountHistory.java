@@ -0,0 +1,103 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One account's changes, appended in chunks that are never moved once full, so reading a page finds its
+ * chunk by arithmetic and copies out only the entries on the page, however long the history is. The first
+ * chunk starts small and doubles up to the full chunk size, as most accounts only ever change a few times.
+ *
+ * Entries are numbered in the order they are appended, which for changes made without the account lock
+ * is not always the order they reached the balance.
+ *
+ * Appends take this history's lock. Reads take none: an entry is written before the count that covers
+ * it, and chunks are only ever swapped in through a new directory published before that count.
+ */
+final class AccountHistory {
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int FIRST_CHUNK_SIZE = 8;
+
+    private volatile Chunk[] chunks = {new Chunk(FIRST_CHUNK_SIZE)};
+    private volatile int size;
+
+    synchronized void append(long timeMillis, long change, String counterparty) {
+        int index = size;
+        if (index == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Account history is full");
+        }
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & (CHUNK_SIZE - 1);
+        Chunk[] chunks = this.chunks;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            chunks[chunk] = new Chunk(CHUNK_SIZE);
+            this.chunks = chunks;
+        } else if (chunks[chunk] == null) {
+            chunks = chunks.clone();
+            chunks[chunk] = new Chunk(CHUNK_SIZE);
+            this.chunks = chunks;
+        } else if (offset == chunks[chunk].counterparties.length) {
+            chunks = chunks.clone();
+            chunks[chunk] = chunks[chunk].grow();
+            this.chunks = chunks;
+        }
+        chunks[chunk].set(offset, timeMillis, change, counterparty);
+        size = index + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return up to limit entries, newest first, from those numbered below the given id
+     */
+    List<HistoryEntry> before(long id, int limit) {
+        int size = this.size;
+        Chunk[] chunks = this.chunks;
+        int last = id > size ? size : (int) Math.max(0, id - 1);
+        List<HistoryEntry> page = new ArrayList<>(Math.max(0, Math.min(limit, last)));
+        for (int number = last; number > 0 && page.size() < limit; number--) {
+            int index = number - 1;
+            Chunk chunk = chunks[index >>> CHUNK_SHIFT];
+            int offset = index & (CHUNK_SIZE - 1);
+            page.add(new HistoryEntry(number, chunk.entries[offset * 2], Amount.newAmount(chunk.entries[offset * 2 + 1]),
+                                      chunk.counterparties[offset]));
+        }
+        return page;
+    }
+
+    private static final class Chunk {
+        // The time then the change, for each entry
+        private final long[] entries;
+        private final String[] counterparties;
+
+        Chunk(int capacity) {
+            entries = new long[capacity * 2];
+            counterparties = new String[capacity];
+        }
+
+        private Chunk(long[] entries, String[] counterparties) {
+            this.entries = entries;
+            this.counterparties = counterparties;
+        }
+
+        Chunk grow() {
+            return new Chunk(Arrays.copyOf(entries, entries.length * 2),
+                             Arrays.copyOf(counterparties, counterparties.length * 2));
+        }
+
+        void set(int offset, long timeMillis, long change, String counterparty) {
+            entries[offset * 2] = timeMillis;
+            entries[offset * 2 + 1] = change;
+            counterparties[offset] = counterparty;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * The datastore's accounts by account number. Numbers of the form handed out, nine zero padded digits after
+ * the creating node's number if it is not 0, are parsed to longs and kept in an open addressing table, so a
+ * lookup neither hashes nor compares strings and an account costs a long and a reference in two arrays
+ * rather than a map node. Any other number is kept in a map.
+ * Lookups take no lock and adding an account takes the index's lock. Accounts are never removed.
+ */
+final class AccountIndex implements Iterable<AccountState> {
+
+    static final long NOT_NUMERIC = -1;
+    // Nine digits after a node number of up to two
+    private static final int MIN_DIGITS = 9;
+    private static final int MAX_DIGITS = 11;
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private final ConcurrentHashMap<String, AccountState> others = new ConcurrentHashMap<>();
+
+    AccountState get(String accountNumber) {
+        long number = number(accountNumber);
+        return number == NOT_NUMERIC ? others.get(accountNumber) : table.get(number + 1);
+    }
+
+    boolean containsKey(String accountNumber) {
+        return get(accountNumber) != null;
+    }
+
+    /**
+     * @return the account already held under the number, in which case the new one was not added
+     */
+    AccountState putIfAbsent(String accountNumber, AccountState state) {
+        long number = number(accountNumber);
+        if (number == NOT_NUMERIC) {
+            return others.putIfAbsent(accountNumber, state);
+        }
+        synchronized (this) {
+            AccountState existing = table.get(number + 1);
+            if (existing == null) {
+                add(number + 1, state);
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * Adds the account newAccount makes unless one is already held under the number. newAccount is only
+     * called once the number is known to be free, and before the account can be looked up, so nothing it
+     * claims is spent on a number that is already taken.
+     *
+     * @return the account added, or null if one was already held under the number
+     */
+    AccountState addIfAbsent(String accountNumber, Supplier<AccountState> newAccount) {
+        long number = number(accountNumber);
+        if (number == NOT_NUMERIC) {
+            AccountState[] added = new AccountState[1];
+            others.computeIfAbsent(accountNumber, key -> added[0] = newAccount.get());
+            return added[0];
+        }
+        synchronized (this) {
+            if (table.get(number + 1) != null) {
+                return null;
+            }
+            AccountState state = newAccount.get();
+            add(number + 1, state);
+            return state;
+        }
+    }
+
+    /**
+     * Holds the account under the number, replacing any there already.
+     */
+    void put(String accountNumber, AccountState state) {
+        long number = number(accountNumber);
+        if (number == NOT_NUMERIC) {
+            others.put(accountNumber, state);
+            return;
+        }
+        synchronized (this) {
+            if (!table.replace(number + 1, state)) {
+                add(number + 1, state);
+            }
+        }
+    }
+
+    int size() {
+        return table.size + others.size();
+    }
+
+    /**
+     * Sees every account added before it was called, and may or may not see those added while it runs.
+     */
+    @Override
+    public Iterator<AccountState> iterator() {
+        Table current = table;
+        Iterator<AccountState> rest = others.values().iterator();
+        return new Iterator<AccountState>() {
+            private int slot = nextFilled(0);
+
+            private int nextFilled(int from) {
+                while (from < current.keys.length() && current.states.get(from) == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < current.keys.length() || rest.hasNext();
+            }
+
+            @Override
+            public AccountState next() {
+                if (slot < current.keys.length()) {
+                    AccountState state = current.states.get(slot);
+                    slot = nextFilled(slot + 1);
+                    return state;
+                }
+                if (!rest.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    // Guarded by this
+    private void add(long key, AccountState state) {
+        Table current = table;
+        // Linear probing stays short up to three quarters full
+        if (current.size + 1 > current.keys.length() - (current.keys.length() >> 2)) {
+            Table grown = new Table(current.keys.length() << 1);
+            for (int slot = 0; slot < current.keys.length(); slot++) {
+                AccountState moved = current.states.get(slot);
+                if (moved != null) {
+                    grown.add(current.keys.get(slot), moved);
+                }
+            }
+            // Readers move to the grown table once it is complete
+            table = current = grown;
+        }
+        current.add(key, state);
+    }
+
+    /**
+     * @return the account number as a long, or {@link #NOT_NUMERIC} if it is not of the form handed out.
+     *         Only nine digit numbers may start with a zero, so no two numbers parse the same.
+     */
+    static long number(String accountNumber) {
+        int length = accountNumber.length();
+        if (length < MIN_DIGITS || length > MAX_DIGITS || (length > MIN_DIGITS && accountNumber.charAt(0) == '0')) {
+            return NOT_NUMERIC;
+        }
+        long number = 0;
+        for (int i = 0; i < length; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_NUMERIC;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static final class Table {
+        // Account number plus one, so that 0 marks an empty slot. A key is published after its slot's state
+        // and read before it, so a reader that finds the key finds the state, and one that probes after an
+        // add has returned finds the key.
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<AccountState> states;
+        private final int mask;
+        // Guarded by the index's lock
+        private volatile int size;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            states = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        AccountState get(long key) {
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                long found = keys.get(slot);
+                if (found == key) {
+                    return states.get(slot);
+                }
+                if (found == 0) {
+                    return null;
+                }
+            }
+        }
+
+        boolean replace(long key, AccountState state) {
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                long found = keys.get(slot);
+                if (found == key) {
+                    states.set(slot, state);
+                    return true;
+                }
+                if (found == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long key, AccountState state) {
+            int slot = slot(key);
+            while (keys.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            states.set(slot, state);
+            keys.set(slot, key);
+            size++;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Everything the datastore holds for a single account, so that an operation
+ * resolves the account with one map lookup instead of one per data structure.
+ */
+class AccountState {
+
+    // Longs between stripes, so that each stripe has a cache line of its own
+    private static final int STRIPE_SPACING = 8;
+
+    private final Account account;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Balance in minor units, in the DAO's table, compare-and-set so that lock free writers never allocate
+    private final BalanceTable balances;
+    private final int slot;
+    // Only for hot accounts: credits that have not yet been moved into the balance, see creditStripe
+    private volatile AtomicLongArray stripes;
+    // Guarded by the account lock: the balance as it stood at the cut of checkpoint checkpointEpoch,
+    // kept by the first write after the cut, and the epoch whose cut the account was created after.
+    private int checkpointEpoch;
+    private long checkpointBalance;
+    private int createdEpoch;
+    // Created by the first change, as many accounts never have one
+    private volatile AccountHistory history;
+
+    AccountState(Account account, BalanceTable balances) {
+        this(account, balances, 0);
+    }
+
+    AccountState(Account account, BalanceTable balances, long balance) {
+        this.account = account;
+        this.balances = balances;
+        this.slot = balances.allocate(balance);
+    }
+
+    Account getAccount() {
+        return account;
+    }
+
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    long getBalance() {
+        return balances.getBalance(slot);
+    }
+
+    /**
+     * How many times the balance has changed. Striped credits count once they are consolidated.
+     */
+    long getVersion() {
+        return balances.getVersion(slot);
+    }
+
+    AccountSnapshot snapshot() {
+        return balances.snapshot(slot, account);
+    }
+
+    boolean compareAndSetBalance(long expected, long balance) {
+        return balances.compareAndSetBalance(slot, expected, balance);
+    }
+
+    void addToBalance(long change) {
+        balances.addToBalance(slot, change);
+    }
+
+    boolean isHot() {
+        return stripes != null;
+    }
+
+    /**
+     * Splits credits to this account across stripes so that they no longer contend with each other.
+     * Called with the account lock held.
+     */
+    void stripe(int count) {
+        if (stripes == null) {
+            stripes = new AtomicLongArray(count * STRIPE_SPACING);
+        }
+    }
+
+    /**
+     * Credits one of the stripes without taking the account lock, moving on to the next stripe whenever
+     * another credit gets there first. Only debits can take money out of the account, and they consolidate
+     * under the lock first, so credits never need to see an exact balance: the overflow check uses the
+     * balance plus the stripes as read, and could only be beaten by credits racing past Long.MAX_VALUE.
+     * Striped credits are not ordered against each other, so the balance given for one is that sum plus
+     * its own change.
+     */
+    FundsResult creditStripe(long change) {
+        AtomicLongArray stripes = this.stripes;
+        long estimate = getBalance();
+        for (int i = 0; i < stripes.length(); i += STRIPE_SPACING) {
+            estimate += stripes.get(i);
+        }
+        FundEnum overUnderCheck = BalanceChecks.fundChangeCausesOverflowOrUnderflow(estimate, change);
+        if (overUnderCheck != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+            return FundsResult.withBalance(overUnderCheck, estimate);
+        }
+
+        int count = stripes.length() / STRIPE_SPACING;
+        int stripe = (int) (Thread.currentThread().getId() % count);
+        while (true) {
+            int index = stripe * STRIPE_SPACING;
+            long old = stripes.get(index);
+            if (stripes.compareAndSet(index, old, old + change)) {
+                return FundsResult.withBalance(FundEnum.SUCCESS, estimate + change);
+            }
+            stripe = stripe + 1 == count ? 0 : stripe + 1;
+        }
+    }
+
+    /**
+     * Moves every striped credit into the balance, so that {@link #getBalance} includes every credit
+     * made before the call. Later credits only add to the stripes, so the balance is safe to debit against
+     * for as long as the caller keeps the account lock. Does nothing for an account that is not hot.
+     */
+    void consolidate() {
+        AtomicLongArray stripes = this.stripes;
+        if (stripes == null) {
+            return;
+        }
+        for (int i = 0; i < stripes.length(); i += STRIPE_SPACING) {
+            long credits = stripes.getAndSet(i, 0);
+            if (credits != 0) {
+                addToBalance(credits);
+            }
+        }
+    }
+
+    void keepBalanceForCheckpoint(int epoch) {
+        if (checkpointEpoch != epoch) {
+            checkpointEpoch = epoch;
+            checkpointBalance = getBalance();
+        }
+    }
+
+    long getBalanceForCheckpoint(int epoch) {
+        return checkpointEpoch == epoch ? checkpointBalance : getBalance();
+    }
+
+    void recordHistory(long timeMillis, long change, String counterparty) {
+        AccountHistory history = this.history;
+        if (history == null) {
+            synchronized (this) {
+                history = this.history;
+                if (history == null) {
+                    this.history = history = new AccountHistory();
+                }
+            }
+        }
+        history.append(timeMillis, change, counterparty);
+    }
+
+    /**
+     * @return the account's changes, or null if it has had none
+     */
+    AccountHistory getHistory() {
+        return history;
+    }
+
+    int getCreatedEpoch() {
+        return createdEpoch;
+    }
+
+    void setCreatedEpoch(int createdEpoch) {
+        this.createdEpoch = createdEpoch;
+    }
+}
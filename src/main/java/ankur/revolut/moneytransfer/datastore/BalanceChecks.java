@@ -0,0 +1,20 @@
+package ankur.revolut.moneytransfer.datastore;
+
+final class BalanceChecks {
+
+    private BalanceChecks() {
+    }
+
+    static FundEnum fundChangeCausesOverflowOrUnderflow(long oldBalance, long change) {
+        if (change > 0) {
+            if (Long.MAX_VALUE - change < oldBalance) {
+                return FundEnum.FUND_OVERFLOW;
+            }
+        } else {
+            if (oldBalance + change < 0) {
+                return FundEnum.FUND_UNDERFLOW;
+            }
+        }
+        return FundEnum.FUND_NOT_OVER_UNDER_FLOW;
+    }
+}
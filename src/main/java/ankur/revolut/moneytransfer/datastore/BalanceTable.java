@@ -0,0 +1,130 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Every account's balance, and a version counting the changes made to it, in one slot of a few large
+ * arrays of longs instead of an object per account. The collector has nothing to trace inside the arrays,
+ * so tens of millions of balances cost it a handful of objects rather than one each. Where a page is first
+ * allocated depends on the collector: under G1 with regions of 2 MB or less a megabyte page is humongous
+ * and goes straight into the old generation, while other collectors, or G1 with larger regions, start it
+ * in the young generation and copy it out like any other long lived object. The arrays stay
+ * on the heap rather than in native memory: an AtomicLongArray already gives each long the atomic
+ * updates the balances need without Unsafe or direct buffers, and the collector ignores its contents
+ * just the same.
+ *
+ * The version word doubles as a sequence lock, so a balance and its version always change together. A
+ * change first moves the sequence to an odd number, claiming the slot, then writes the balance and moves
+ * the sequence on to the next even number; the version is the sequence halved. A reader wanting both
+ * reads the sequence, the balance and the sequence again, and tries again unless the two match and are
+ * even. Claiming is a compare-and-set, so changes still need no lock, but a change or a snapshot arriving
+ * while the slot is claimed waits the two writes out.
+ *
+ * Slots are handed out in order and never reused.
+ */
+final class BalanceTable {
+
+    // Slots per page; a page is a megabyte, enough to amortise growth without holding much idle memory
+    private static final int PAGE_SLOTS = 1 << 16;
+    private static final int PAGE_SHIFT = 16;
+    private static final int SLOT_MASK = PAGE_SLOTS - 1;
+    // Longs per slot: the balance, then the sequence
+    private static final int SLOT_LONGS = 2;
+
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    /**
+     * @return the slot now holding the balance, at version 0
+     */
+    int allocate(long balance) {
+        int slot = nextSlot.getAndIncrement();
+        if (slot < 0) {
+            throw new IllegalStateException("The balance table is full");
+        }
+        AtomicLongArray[] pages = this.pages;
+        int page = slot >>> PAGE_SHIFT;
+        if (page >= pages.length) {
+            pages = grow(page);
+        }
+        pages[page].set((slot & SLOT_MASK) * SLOT_LONGS, balance);
+        return slot;
+    }
+
+    private synchronized AtomicLongArray[] grow(int page) {
+        AtomicLongArray[] pages = this.pages;
+        if (page >= pages.length) {
+            pages = Arrays.copyOf(pages, page + 1);
+            for (int i = this.pages.length; i < pages.length; i++) {
+                pages[i] = new AtomicLongArray(PAGE_SLOTS * SLOT_LONGS);
+            }
+            this.pages = pages;
+        }
+        return pages;
+    }
+
+    long getBalance(int slot) {
+        return pages[slot >>> PAGE_SHIFT].get((slot & SLOT_MASK) * SLOT_LONGS);
+    }
+
+    long getVersion(int slot) {
+        return pages[slot >>> PAGE_SHIFT].get((slot & SLOT_MASK) * SLOT_LONGS + 1) >>> 1;
+    }
+
+    /**
+     * @return the account with the balance and the version it is at, read as one
+     */
+    AccountSnapshot snapshot(int slot, Account account) {
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        int index = (slot & SLOT_MASK) * SLOT_LONGS;
+        for (;;) {
+            long sequence = unclaimedSequence(page, index);
+            long balance = page.get(index);
+            if (page.get(index + 1) == sequence) {
+                return new AccountSnapshot(account, Amount.newAmount(balance), sequence >>> 1);
+            }
+        }
+    }
+
+    /**
+     * May fail even though the balance is as expected when another change is being made at the same time,
+     * so callers read the balance again and retry just as they would for a balance that has moved.
+     */
+    boolean compareAndSetBalance(int slot, long expected, long balance) {
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        int index = (slot & SLOT_MASK) * SLOT_LONGS;
+        long sequence = unclaimedSequence(page, index);
+        if (page.get(index) != expected || !page.compareAndSet(index + 1, sequence, sequence + 1)) {
+            return false;
+        }
+        page.set(index, balance);
+        page.set(index + 1, sequence + 2);
+        return true;
+    }
+
+    void addToBalance(int slot, long change) {
+        AtomicLongArray page = pages[slot >>> PAGE_SHIFT];
+        int index = (slot & SLOT_MASK) * SLOT_LONGS;
+        long sequence;
+        do {
+            sequence = unclaimedSequence(page, index);
+        } while (!page.compareAndSet(index + 1, sequence, sequence + 1));
+        page.set(index, page.get(index) + change);
+        page.set(index + 1, sequence + 2);
+    }
+
+    // Only the thread that claimed the slot writes the balance, so an odd sequence is cleared within two writes
+    private static long unclaimedSequence(AtomicLongArray page, int index) {
+        long sequence;
+        while (((sequence = page.get(index + 1)) & 1) != 0) {
+            Thread.yield();
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,134 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The accounts whose locks are most often contended, kept as a space-saving heavy hitters sketch: at most
+ * {@code capacity} accounts are tracked, and an untracked account replaces the one with the lowest count,
+ * taking over that count as its possible overstatement. Any account contended more than a
+ * 1/{@code capacity} share of the time is guaranteed to be in it.
+ *
+ * Only contended lock acquisitions are recorded, after they have already waited, and an event is dropped
+ * rather than waited on if another thread is updating the sketch, so profiling never adds a wait of its
+ * own. Under heavy contention the counts are therefore a sample.
+ */
+class ContentionProfiler {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    ContentionProfiler(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records one acquisition of the account's lock that could not be made straight away, which waited
+     * {@code waitNanos} and then either got the lock or gave up.
+     */
+    void record(String accountNumber, long waitNanos, boolean timedOut) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Entry entry = entries.get(accountNumber);
+            if (entry == null) {
+                entry = new Entry(accountNumber, evictForNewEntry());
+                entries.put(accountNumber, entry);
+            }
+            entry.record(waitNanos, timedOut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long evictForNewEntry() {
+        if (entries.size() < capacity) {
+            return 0;
+        }
+        Entry smallest = null;
+        for (Entry entry : entries.values()) {
+            if (smallest == null || entry.count < smallest.count) {
+                smallest = entry;
+            }
+        }
+        entries.remove(smallest.accountNumber);
+        return smallest.count;
+    }
+
+    /**
+     * Up to {@code limit} of the most contended accounts, most contended first.
+     */
+    List<AccountContention> hottest(int limit, Predicate<String> isHot) {
+        List<AccountContention> hottest = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Entry entry : entries.values()) {
+                hottest.add(entry.report(isHot.test(entry.accountNumber)));
+            }
+        } finally {
+            lock.unlock();
+        }
+        hottest.sort(Comparator.comparingLong(AccountContention::getContended).reversed());
+        return hottest.size() > limit ? new ArrayList<>(hottest.subList(0, limit)) : hottest;
+    }
+
+    private static final class Entry {
+        final String accountNumber;
+        // Inherited from the entry this one replaced, so the count may overstate this account by as much
+        final long error;
+        long count;
+        long timedOut;
+        long maxWait;
+        // Bucket i counts waits of less than 2^i nanoseconds and at least half that
+        final long[] waits = new long[64];
+        long recorded;
+
+        Entry(String accountNumber, long error) {
+            this.accountNumber = accountNumber;
+            this.error = error;
+            this.count = error;
+        }
+
+        void record(long waitNanos, boolean timedOut) {
+            count++;
+            recorded++;
+            if (timedOut) {
+                this.timedOut++;
+            }
+            waits[64 - Long.numberOfLeadingZeros(Math.max(waitNanos, 0))]++;
+            maxWait = Math.max(maxWait, waitNanos);
+        }
+
+        AccountContention report(boolean hot) {
+            return new AccountContention(accountNumber, count, error, timedOut, percentile(0.5), percentile(0.99),
+                                         maxWait, hot);
+        }
+
+        /**
+         * The upper bound of the bucket the percentile falls in, so at most double the true value.
+         */
+        private long percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * recorded);
+            long seen = 0;
+            for (int i = 0; i < waits.length; i++) {
+                seen += waits[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min((1L << i) - 1, maxWait);
+                }
+            }
+            return 0;
+        }
+    }
+}
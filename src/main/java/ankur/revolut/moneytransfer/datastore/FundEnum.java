@@ -1,5 +1,8 @@
 package ankur.revolut.moneytransfer.datastore;
 
+/**
+ * Binary protocol clients are sent the ordinal, so new outcomes go at the end.
+ */
 public enum FundEnum {
     TRANSACTION_ALREADY_COMPLETE,
     FUND_UNDERFLOW,
@@ -10,5 +13,6 @@ public enum FundEnum {
     TIMED_OUT,
     SUCCESS,
     ACCOUNT_PRE_CHECK_PASS,
-    SAME_ACCOUNT
+    SAME_ACCOUNT,
+    BATCH_ROLLED_BACK
 }
@@ -0,0 +1,49 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+
+import java.util.Optional;
+
+/**
+ * The outcome of a change to an account, with the account's balance as the change left it. A change that
+ * never reached the balance, such as one that timed out or a repeated request ID, has no balance.
+ */
+public final class FundsResult {
+
+    private static final FundsResult[] withoutBalance = new FundsResult[FundEnum.values().length];
+
+    static {
+        for (FundEnum outcome : FundEnum.values()) {
+            withoutBalance[outcome.ordinal()] = new FundsResult(outcome, null);
+        }
+    }
+
+    private final FundEnum outcome;
+    private final Amount balance;
+
+    private FundsResult(FundEnum outcome, Amount balance) {
+        this.outcome = outcome;
+        this.balance = balance;
+    }
+
+    public static FundsResult of(FundEnum outcome) {
+        return withoutBalance[outcome.ordinal()];
+    }
+
+    public static FundsResult withBalance(FundEnum outcome, long balance) {
+        return new FundsResult(outcome, Amount.newAmount(balance));
+    }
+
+    public FundEnum getOutcome() {
+        return outcome;
+    }
+
+    public Optional<Amount> getBalance() {
+        return Optional.ofNullable(balance);
+    }
+
+    @Override
+    public String toString() {
+        return balance == null ? outcome.toString() : outcome + " " + balance.getValue();
+    }
+}
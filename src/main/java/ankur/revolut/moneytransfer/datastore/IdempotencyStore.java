@@ -0,0 +1,375 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers which request IDs have been seen, and what they resulted in, for a bounded window of time.
+ *
+ * Request IDs are held as two longs: IDs of 32 lower case hex digits, as the binary protocol sends them,
+ * are parsed exactly, and anything else is reduced to a 128 bit hash of the whole string. IDs are case
+ * sensitive, so upper case hex, or a UUID with its hyphens, is hashed rather than parsed and never taken
+ * for the same digits in another form. Entries live in open addressing tables split into stripes, each guarded by
+ * its own lock, and into generations that each cover a slice of the retention window. Expiry is done by
+ * dropping the oldest generation as a whole once it falls out of the window, so nothing ever walks the
+ * entries to evict them and no operation waits on more than one stripe.
+ */
+public class IdempotencyStore {
+
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final int DEFAULT_GENERATIONS = 4;
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int INITIAL_SLOTS = 16;
+
+    private static final byte EMPTY = 0;
+    private static final byte PENDING = 1;
+    private static final byte RELEASED = 2;
+    private static final byte COMPLETE = 3;
+    private static final FundEnum[] OUTCOMES = FundEnum.values();
+
+    private final long sliceNanos;
+    private final int stripeMask;
+    private final Object[] stripeLocks;
+    private final Object rotationLock = new Object();
+    private final LongSupplier nanoClock;
+    private volatile Generation[] generations;
+
+    public static IdempotencyStore newWithRetention(long retentionMillis) {
+        return new IdempotencyStore(TimeUnit.MILLISECONDS.toNanos(retentionMillis), DEFAULT_GENERATIONS,
+                                    DEFAULT_STRIPES, System::nanoTime);
+    }
+
+    IdempotencyStore(long retentionNanos, int generationCount, int stripes, LongSupplier nanoClock) {
+        if (generationCount < 2 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Need at least two generations and a power of two number of stripes");
+        }
+        // An entry written at the very end of a slice still survives generationCount - 1 whole slices
+        this.sliceNanos = Math.max(1, retentionNanos / (generationCount - 1));
+        this.stripeMask = stripes - 1;
+        this.stripeLocks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            stripeLocks[i] = new Object();
+        }
+        this.nanoClock = nanoClock;
+
+        long now = nanoClock.getAsLong();
+        Generation[] initial = new Generation[generationCount];
+        for (int i = 0; i < generationCount; i++) {
+            initial[i] = new Generation(stripes, now);
+        }
+        this.generations = initial;
+    }
+
+    /**
+     * Claims a request ID for a new transaction.
+     *
+     * @return ACCOUNT_PRE_CHECK_PASS if the caller now owns the request ID and must later {@link #complete}
+     *         or {@link #release} it, the recorded outcome if the request has already been completed, or
+     *         TRANSACTION_ALREADY_COMPLETE if it is still being processed by someone else.
+     */
+    public FundEnum claim(String requestID) {
+        rotateIfDue();
+        long high = keyHigh(requestID);
+        long low = keyLow(requestID);
+        long hash = hash(high, low);
+        int stripe = (int) (hash >>> 40) & stripeMask;
+
+        synchronized (stripeLocks[stripe]) {
+            Generation[] current = generations;
+            for (Generation generation : current) {
+                Table table = generation.tables[stripe];
+                int slot = table.find(high, low, hash);
+                if (slot >= 0) {
+                    byte state = table.states[slot];
+                    if (state == PENDING) {
+                        return FundEnum.TRANSACTION_ALREADY_COMPLETE;
+                    }
+                    return OUTCOMES[state - COMPLETE];
+                }
+            }
+            current[0].tables[stripe].insert(high, low, hash, PENDING);
+        }
+        return FundEnum.ACCOUNT_PRE_CHECK_PASS;
+    }
+
+    /**
+     * Completes or releases a claimed request depending on its outcome. A rejection on the balance is as
+     * much the answer to the request as a success is, whereas a timeout says nothing about it, so only the
+     * latter leaves the request ID free to be retried.
+     */
+    public void finish(String requestID, FundEnum outcome) {
+        if (outcome == FundEnum.SUCCESS || outcome == FundEnum.FUND_UNDERFLOW || outcome == FundEnum.FUND_OVERFLOW) {
+            complete(requestID, outcome);
+        } else {
+            release(requestID);
+        }
+    }
+
+    /**
+     * Records the outcome of a claimed request, which is what any replay inside the window gets back.
+     */
+    public void complete(String requestID, FundEnum outcome) {
+        setState(requestID, (byte) (COMPLETE + outcome.ordinal()));
+    }
+
+    /**
+     * Gives up a claim without recording an outcome, so the request can be retried.
+     */
+    public void release(String requestID) {
+        setState(requestID, RELEASED);
+    }
+
+    private void setState(String requestID, byte state) {
+        long high = keyHigh(requestID);
+        long low = keyLow(requestID);
+        long hash = hash(high, low);
+        int stripe = (int) (hash >>> 40) & stripeMask;
+
+        synchronized (stripeLocks[stripe]) {
+            for (Generation generation : generations) {
+                Table table = generation.tables[stripe];
+                int slot = table.find(high, low, hash);
+                if (slot >= 0) {
+                    table.states[slot] = state;
+                    if (state == RELEASED) {
+                        table.size--;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands every completed request to the consumer, as its two key halves and outcome. A stripe is only
+     * locked while its entries are copied out, not while they are consumed.
+     */
+    public void forEachCompleted(CompletedConsumer consumer) {
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            long[] keys;
+            byte[] states;
+            int count = 0;
+            synchronized (stripeLocks[stripe]) {
+                int size = 0;
+                for (Generation generation : generations) {
+                    size += generation.tables[stripe].size;
+                }
+                keys = new long[size * 2];
+                states = new byte[size];
+                for (Generation generation : generations) {
+                    Table table = generation.tables[stripe];
+                    for (int slot = 0; slot < table.states.length; slot++) {
+                        if (table.states[slot] >= COMPLETE) {
+                            keys[count * 2] = table.keys[slot * 2];
+                            keys[count * 2 + 1] = table.keys[slot * 2 + 1];
+                            states[count++] = table.states[slot];
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                consumer.accept(keys[i * 2], keys[i * 2 + 1], OUTCOMES[states[i] - COMPLETE]);
+            }
+        }
+    }
+
+    /**
+     * Records a completed request by its key halves, as handed out by {@link #forEachCompleted}.
+     */
+    public void restoreCompleted(long high, long low, FundEnum outcome) {
+        long hash = hash(high, low);
+        int stripe = (int) (hash >>> 40) & stripeMask;
+
+        synchronized (stripeLocks[stripe]) {
+            for (Generation generation : generations) {
+                if (generation.tables[stripe].find(high, low, hash) >= 0) {
+                    return;
+                }
+            }
+            generations[0].tables[stripe].insert(high, low, hash, (byte) (COMPLETE + outcome.ordinal()));
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            synchronized (stripeLocks[stripe]) {
+                for (Generation generation : generations) {
+                    size += generation.tables[stripe].size;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes held by the tables' arrays, which is where nearly all of the store's memory goes
+     */
+    public long footprintBytes() {
+        long bytes = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            synchronized (stripeLocks[stripe]) {
+                for (Generation generation : generations) {
+                    Table table = generation.tables[stripe];
+                    bytes += table.keys.length * 8L + table.states.length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void rotateIfDue() {
+        long now = nanoClock.getAsLong();
+        if (now - generations[0].startNanos < sliceNanos) {
+            return;
+        }
+
+        synchronized (rotationLock) {
+            Generation[] current = generations;
+            long elapsedSlices = (now - current[0].startNanos) / sliceNanos;
+            if (elapsedSlices == 0) {
+                return;
+            }
+
+            // Shift the ring along by however many slices have passed, so a long idle period expires
+            // everything it should rather than just the single oldest generation.
+            int shift = (int) Math.min(elapsedSlices, current.length);
+            Generation[] next = new Generation[current.length];
+            for (int i = 0; i < shift; i++) {
+                next[i] = new Generation(stripeLocks.length, now);
+            }
+            System.arraycopy(current, 0, next, shift, current.length - shift);
+            generations = next;
+        }
+    }
+
+    static long keyHigh(String requestID) {
+        if (isLowerHex(requestID)) {
+            return parseHex(requestID, 0, 16);
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < requestID.length(); i++) {
+            hash = (hash ^ requestID.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long keyLow(String requestID) {
+        if (isLowerHex(requestID)) {
+            return parseHex(requestID, 16, 32);
+        }
+        long hash = requestID.length();
+        for (int i = 0; i < requestID.length(); i++) {
+            hash = hash * 0x9e3779b97f4a7c15L + requestID.charAt(i);
+        }
+        return mix(hash);
+    }
+
+    private static boolean isLowerHex(String requestID) {
+        if (requestID.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < requestID.length(); i++) {
+            char c = requestID.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String requestID, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value << 4 | Character.digit(requestID.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static long hash(long high, long low) {
+        return mix(high ^ Long.rotateLeft(low, 32));
+    }
+
+    public interface CompletedConsumer {
+        void accept(long high, long low, FundEnum outcome);
+    }
+
+    private static final class Generation {
+        final Table[] tables;
+        final long startNanos;
+
+        Generation(int stripes, long startNanos) {
+            this.tables = new Table[stripes];
+            for (int i = 0; i < stripes; i++) {
+                tables[i] = new Table();
+            }
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * Linear probing table of 128 bit keys with a one byte state per slot. Released slots are left in
+     * place as tombstones until the next resize so that probe chains stay intact.
+     */
+    private static final class Table {
+        long[] keys = new long[INITIAL_SLOTS * 2];
+        byte[] states = new byte[INITIAL_SLOTS];
+        int used;
+        int size;
+
+        int find(long high, long low, long hash) {
+            int mask = states.length - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                byte state = states[slot];
+                if (state == EMPTY) {
+                    return -1;
+                }
+                if (state != RELEASED && keys[slot * 2] == high && keys[slot * 2 + 1] == low) {
+                    return slot;
+                }
+            }
+        }
+
+        void insert(long high, long low, long hash, byte state) {
+            if ((used + 1) * 4 > states.length * 3) {
+                resize();
+            }
+            int mask = states.length - 1;
+            int slot = (int) hash & mask;
+            while (states[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 2] = high;
+            keys[slot * 2 + 1] = low;
+            states[slot] = state;
+            used++;
+            size++;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            byte[] oldStates = states;
+            // Tombstones are dropped here, so only grow if the live entries need the room
+            int capacity = (size + 1) * 2 > oldStates.length ? oldStates.length * 2 : oldStates.length;
+            keys = new long[capacity * 2];
+            states = new byte[capacity];
+            used = 0;
+            size = 0;
+            for (int i = 0; i < oldStates.length; i++) {
+                byte state = oldStates[i];
+                if (state != EMPTY && state != RELEASED) {
+                    long high = oldKeys[i * 2];
+                    long low = oldKeys[i * 2 + 1];
+                    insert(high, low, hash(high, low), state);
+                }
+            }
+        }
+    }
+}
@@ -1,52 +1,206 @@
 package ankur.revolut.moneytransfer.datastore;
 
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import ankur.revolut.moneytransfer.metrics.Histogram;
+import ankur.revolut.moneytransfer.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class InMemoryAccountDao implements AccountDao {
 
     private static final Logger log = LoggerFactory.getLogger(InMemoryAccountDao.class);
 
-    ConcurrentHashMap<String, Account> accountNumbers = new ConcurrentHashMap<>();
-    ConcurrentHashMap<String, Amount> accountAmounts = new ConcurrentHashMap<>();
-    ConcurrentHashMap<String, ConcurrentHashMap<String, Amount>> transactionAudit = new ConcurrentHashMap<>();
-    ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    // Async writers that find an account locked try again from here rather than blocking a thread
+    private static final ScheduledExecutorService lockRetries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ledger-lock-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final long FIRST_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Histogram lockWait = MetricsRegistry.DEFAULT.histogram(
+            "ledger_lock_wait_seconds", "Time a change waited for its account locks, including waits that timed out", "operation");
+    private static final Histogram lockHold = MetricsRegistry.DEFAULT.histogram(
+            "ledger_lock_hold_seconds", "Time a change held its account locks", "operation");
+    private static final Histogram.Child addFundsLockWait = lockWait.labels("add_funds");
+    private static final Histogram.Child addFundsLockHold = lockHold.labels("add_funds");
+    private static final Histogram.Child transferLockWait = lockWait.labels("transfer");
+    private static final Histogram.Child transferLockHold = lockHold.labels("transfer");
+    private static final Histogram.Child batchLockWait = lockWait.labels("batch");
+    private static final Histogram.Child batchLockHold = lockHold.labels("batch");
+
+    AccountIndex accounts = new AccountIndex();
+    BalanceTable balances = new BalanceTable();
+    IdempotencyStore idempotencyStore;
     long lockAcquireTimeout = 0;
+    boolean lockFree = false;
+    WriteAheadLog writeAheadLog;
+    Path snapshotFile;
+    ConcurrentHashMap<String, Integer> hotAccounts = new ConcurrentHashMap<>();
+    ContentionProfiler contention = new ContentionProfiler(ContentionProfiler.DEFAULT_CAPACITY);
 
     public static InMemoryAccountDao newWithTimeout(long lockAcquireTimeout) {
-        return new InMemoryAccountDao(lockAcquireTimeout);
+        return newWithTimeout(lockAcquireTimeout, IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS));
+    }
+
+    public static InMemoryAccountDao newWithTimeout(long lockAcquireTimeout, IdempotencyStore idempotencyStore) {
+        return new InMemoryAccountDao(lockAcquireTimeout, false, idempotencyStore);
+    }
+
+    /**
+     * Credits and debits to a single account are applied with compare-and-set on the balance
+     * instead of taking the account lock. Transfers still lock both accounts, in order, against
+     * each other.
+     */
+    public static InMemoryAccountDao newLockFree(long lockAcquireTimeout) {
+        return newLockFree(lockAcquireTimeout, IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS));
+    }
+
+    public static InMemoryAccountDao newLockFree(long lockAcquireTimeout, IdempotencyStore idempotencyStore) {
+        return new InMemoryAccountDao(lockAcquireTimeout, true, idempotencyStore);
+    }
+
+    /**
+     * Rebuilds the accounts from the write-ahead log and then logs every change to it, only answering
+     * once the change is on disk. Writers always lock in this mode, as the log has to be appended to in
+     * the same order the changes are made to each account.
+     */
+    public static InMemoryAccountDao newDurable(long lockAcquireTimeout, IdempotencyStore idempotencyStore,
+                                                WriteAheadLog writeAheadLog) throws IOException {
+        return newDurable(lockAcquireTimeout, idempotencyStore, writeAheadLog, null);
     }
 
-    private InMemoryAccountDao(long lockAcquireTimeout) {
+    /**
+     * As above, but starts from the snapshot file if there is one, replaying only the log after it, and
+     * {@link #checkpoint}s to it.
+     */
+    public static InMemoryAccountDao newDurable(long lockAcquireTimeout, IdempotencyStore idempotencyStore,
+                                                WriteAheadLog writeAheadLog, Path snapshotFile) throws IOException {
+        InMemoryAccountDao dao = new InMemoryAccountDao(lockAcquireTimeout, false, idempotencyStore);
+        long start = System.nanoTime();
+        dao.recover(writeAheadLog, snapshotFile);
+        dao.writeAheadLog = writeAheadLog;
+        dao.snapshotFile = snapshotFile;
+        log.info("Recovered {} accounts in {} ms", dao.accounts.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return dao;
+    }
+
+    private InMemoryAccountDao(long lockAcquireTimeout, boolean lockFree, IdempotencyStore idempotencyStore) {
         this.lockAcquireTimeout = lockAcquireTimeout;
+        this.lockFree = lockFree;
+        this.idempotencyStore = idempotencyStore;
+    }
+
+    /**
+     * Splits credits to the account across stripes, so that many can land on it at once, as for a
+     * merchant or settlement account. Debits and balance reads still lock the account and first gather
+     * the stripes up. The account need not exist yet. Not available with a write-ahead log, where every
+     * credit has to be logged under the account lock.
+     */
+    public void markHot(String accountNumber, int stripes) {
+        if (writeAheadLog != null) {
+            throw new IllegalStateException("Hot accounts are not striped when changes are logged");
+        }
+        hotAccounts.put(accountNumber, stripes);
+        AccountState state = accounts.get(accountNumber);
+        if (state != null) {
+            stripe(state, stripes);
+        }
+    }
+
+    private void stripe(AccountState state, int stripes) {
+        state.getLock().lock();
+        try {
+            state.stripe(stripes);
+        } finally {
+            state.getLock().unlock();
+        }
+        log.info("Account marked hot with {} stripes", stripes);
+    }
+
+    @Override
+    public int accountCount() {
+        return accounts.size();
+    }
+
+    @Override
+    public Iterable<String> accountNumbers() {
+        return () -> {
+            Iterator<AccountState> states = accounts.iterator();
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return states.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return states.next().getAccount().getAccountNumber();
+                }
+            };
+        };
     }
 
     @Override
     public Optional<Account> addAccount(Account account) {
-        if (accountNumbers.containsKey(account.getAccountNumber())) {
+        // The balance slot is only claimed for a number not already taken, as slots are never given back.
+        // Nobody can change the account until its lock is released, so its record is logged before theirs.
+        AccountState state = accounts.addIfAbsent(account.getAccountNumber(), () -> {
+            AccountState added = new AccountState(account, balances);
+            added.getLock().lock();
+            return added;
+        });
+        if (state == null) {
             return Optional.empty();
         }
-
-        if (accountAmounts.containsKey(account.getAccountNumber())
-                || transactionAudit.containsKey(account.getAccountNumber())
-                || locks.containsKey(account.getAccountNumber())) {
-            log.error("Account number found in other data structures when creating new account.");
-            return Optional.empty();
+        long ticket = 0;
+        try {
+            if (writeAheadLog != null) {
+                ticket = writeAheadLog.appendAccount(account);
+                WriteAheadLog.Cut cut = writeAheadLog.currentCut();
+                if (!cut.includes(ticket)) {
+                    state.setCreatedEpoch(cut.getEpoch());
+                }
+            }
+        } finally {
+            state.getLock().unlock();
+        }
+        awaitDurable(ticket);
+        Integer stripes = hotAccounts.get(account.getAccountNumber());
+        if (stripes != null) {
+            stripe(state, stripes);
         }
-
-        accountNumbers.put(account.getAccountNumber(), account);
-        accountAmounts.put(account.getAccountNumber(), Amount.ZERO);
-        transactionAudit.put(account.getAccountNumber(), new ConcurrentHashMap<>());
-        locks.put(account.getAccountNumber(), new ReentrantLock());
 
         log.info("Created new account");
 
@@ -55,177 +209,1064 @@ public class InMemoryAccountDao implements AccountDao {
 
     @Override
     public Optional<Account> getAccount(String accountNumber) {
-        return Optional.ofNullable(accountNumbers.get(accountNumber));
+        AccountState state = accounts.get(accountNumber);
+        if (state == null) {
+            return Optional.empty();
+        }
+        return Optional.of(state.getAccount());
     }
 
     @Override
     public Optional<Amount> getAmount(String accountNumber) {
-        if (!doesAccountExist(accountNumber)) {
+        AccountState state = accounts.get(accountNumber);
+        if (state == null) {
             return Optional.empty();
         }
+        if (state.isHot()) {
+            state.getLock().lock();
+            try {
+                state.consolidate();
+                return Optional.of(Amount.newAmount(state.getBalance()));
+            } finally {
+                state.getLock().unlock();
+            }
+        }
+        return Optional.of(Amount.newAmount(state.getBalance()));
+    }
 
-        if (!accountAmounts.containsKey(accountNumber)) {
-            log.error(String.format("Expecting account in internal data structures, but not found"));
+    /**
+     * The version and the amount are read together, so a snapshot's version and amount never match an
+     * earlier snapshot's unless the balance is the same.
+     */
+    @Override
+    public Optional<AccountSnapshot> getAccountSnapshot(String accountNumber) {
+        AccountState state = accounts.get(accountNumber);
+        if (state == null) {
             return Optional.empty();
         }
-
-        return Optional.of(accountAmounts.get(accountNumber));
+        if (state.isHot()) {
+            state.getLock().lock();
+            try {
+                state.consolidate();
+                return Optional.of(state.snapshot());
+            } finally {
+                state.getLock().unlock();
+            }
+        }
+        return Optional.of(state.snapshot());
     }
 
     @Override
     public boolean doesAccountExist(String accountNumber) {
-        return accountNumbers.containsKey(accountNumber);
+        return accounts.containsKey(accountNumber);
     }
 
+    /**
+     * History is kept from when the service started; changes recovered from the write-ahead log or a
+     * snapshot are in the balance but not in the history.
+     *
+     * Changes made under the account lock are listed in the order they were applied. Lock-free credits,
+     * and credits to hot accounts' stripes, are appended after they reach the balance and outside the
+     * lock, so two of them landing together, or one landing alongside a locked change, may be listed the
+     * other way round. Each entry's amount is still exact, but a running balance rebuilt from the history
+     * may pass through values the account never held.
+     */
     @Override
-    public FundEnum addFunds(AddFunds addFunds) {
-        FundEnum response = dataStorePreCheckBeforeFundChangesSrc(addFunds);
+    public Optional<List<HistoryEntry>> getHistory(String accountNumber, long before, int limit) {
+        AccountState state = accounts.get(accountNumber);
+        if (state == null) {
+            return Optional.empty();
+        }
+        AccountHistory history = state.getHistory();
+        return Optional.of(history == null ? Collections.emptyList() : history.before(before, limit));
+    }
+
+    @Override
+    public FundsResult addFunds(AddFunds addFunds) {
+        AccountState state = accounts.get(addFunds.getAccountNumber());
+        FundEnum response = dataStorePreCheckBeforeFundChanges(state, addFunds, FundEnum.ACCOUNT_NOT_FOUND);
         if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
-            return response;
+            return FundsResult.of(response);
         }
 
-        FundEnum returnValue = FundEnum.TIMED_OUT;
-        ReentrantLock accountLock = locks.get(addFunds.getAccountNumber());
+        FundsResult returnValue = needsLock(state, addFunds) ? addFundsUnderLock(state, addFunds) : addFundsWithoutLock(state, addFunds);
+        recordOutcome(addFunds.getRequestID(), returnValue.getOutcome());
+        return returnValue;
+    }
 
-        try {
-            if (accountLock.tryLock(lockAcquireTimeout, TimeUnit.MILLISECONDS)) {
-                Amount oldAmount = accountAmounts.get(addFunds.getAccountNumber());
+    /**
+     * As {@link #addFunds}, but if the account is locked the attempt is retried later instead of the
+     * caller's thread waiting for it, and a durable change completes once it has been synced.
+     */
+    @Override
+    public CompletableFuture<FundsResult> addFundsAsync(AddFunds addFunds) {
+        AccountState state = accounts.get(addFunds.getAccountNumber());
+        FundEnum response = dataStorePreCheckBeforeFundChanges(state, addFunds, FundEnum.ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
 
-                FundEnum overUnderCheck = fundChangeCausesOverflowOrUnderflow(oldAmount, addFunds.getAmount());
-                if (overUnderCheck != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
-                    returnValue = overUnderCheck;
-                } else {
-                    performFundTransaction(addFunds, oldAmount);
-                    returnValue = FundEnum.SUCCESS;
-                    log.info(String.format("%s - transaction completed successfully", addFunds.getRequestID()));
-                }
+        if (!needsLock(state, addFunds)) {
+            FundsResult returnValue = addFundsWithoutLock(state, addFunds);
+            recordOutcome(addFunds.getRequestID(), returnValue.getOutcome());
+            return CompletableFuture.completedFuture(returnValue);
+        }
+        return underLocksAsync(addFunds.getRequestID(), () -> applyFundsUnderLock(state, addFunds),
+                               addFundsLockWait, addFundsLockHold, state);
+    }
+
+    private boolean needsLock(AccountState state, AddFunds addFunds) {
+        if (state.isHot()) {
+            return addFunds.getAmount().getValue() <= 0 || writeAheadLog != null;
+        }
+        return !lockFree;
+    }
+
+    private FundsResult addFundsWithoutLock(AccountState state, AddFunds addFunds) {
+        FundsResult returnValue = state.isHot() ? state.creditStripe(addFunds.getAmount().getValue()) : addFundsLockFree(state, addFunds);
+        if (returnValue.getOutcome() == FundEnum.SUCCESS) {
+            recordHistory(state, addFunds);
+        }
+        return returnValue;
+    }
+
+    private FundsResult addFundsUnderLock(AccountState state, AddFunds addFunds) {
+        FundsResult returnValue = FundsResult.of(FundEnum.TIMED_OUT);
+        ReentrantLock accountLock = state.getLock();
+        long ticket = 0;
+        long waitStart = System.nanoTime();
+        long acquired = 0;
+
+        try {
+            if (acquire(state)) {
+                acquired = System.nanoTime();
+                Applied applied = applyFundsUnderLock(state, addFunds);
+                returnValue = applied.result;
+                ticket = applied.ticket;
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
-            log.warn(String.format("%s - Thread interrupted during lock acquisition", addFunds.getRequestID()));
+            log.warn("{} - Thread interrupted during lock acquisition", addFunds.getRequestID());
         } finally {
             if (accountLock.isHeldByCurrentThread()) {
                 accountLock.unlock();
+                addFundsLockHold.recordSince(acquired);
             }
         }
+        addFundsLockWait.record((acquired != 0 ? acquired : System.nanoTime()) - waitStart);
 
-        if (returnValue == FundEnum.TIMED_OUT) {
-            log.info(String.format("%s - Lock acquisition may have timed out", addFunds.getRequestID()));
+        if (returnValue.getOutcome() == FundEnum.TIMED_OUT) {
+            log.info("{} - Lock acquisition may have timed out", addFunds.getRequestID());
         }
 
+        awaitDurable(ticket);
         return returnValue;
     }
 
-    private void performFundTransaction(AddFunds addFunds, Amount oldAmount) {
-        Amount newAmount = Amount.newAmount(addFunds.getAmount().getValue() + oldAmount.getValue());
-        accountAmounts.put(addFunds.getAccountNumber(), newAmount);
+    private Applied applyFundsUnderLock(AccountState state, AddFunds addFunds) {
+        state.consolidate();
+        long balance = state.getBalance();
+        FundEnum overUnderCheck = BalanceChecks.fundChangeCausesOverflowOrUnderflow(balance, addFunds.getAmount().getValue());
+        if (overUnderCheck != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+            return new Applied(FundsResult.withBalance(overUnderCheck, balance), 0);
+        }
+        long ticket;
+        try {
+            ticket = logFunds(addFunds);
+        } catch (IllegalArgumentException e) {
+            log.warn("{} - Change could not be logged, not applied: {}", addFunds.getRequestID(), e.getMessage());
+            return new Applied(FundsResult.of(FundEnum.TIMED_OUT), 0);
+        }
+        keepForCheckpoint(state, ticket);
+        FundsResult result = performFundTransaction(state, addFunds);
+        recordHistory(state, addFunds);
+        log.info("{} - transaction completed successfully", addFunds.getRequestID());
+        return new Applied(result, ticket);
+    }
 
-        ConcurrentHashMap<String, Amount> accountAudit = transactionAudit.get(addFunds.getAccountNumber());
-        accountAudit.put(addFunds.getRequestID(), addFunds.getAmount());
+    private FundsResult addFundsLockFree(AccountState state, AddFunds addFunds) {
+        FundsResult returnValue = compareAndSetFundChange(state, addFunds.getAmount().getValue());
+        if (returnValue.getOutcome() == FundEnum.SUCCESS) {
+            log.info("{} - transaction completed successfully", addFunds.getRequestID());
+        }
+        return returnValue;
+    }
+
+    /**
+     * The balance in the result is the one the CAS set, or the one it was refused against, so it is exact
+     * for this change whatever other writers do afterwards.
+     */
+    private FundsResult compareAndSetFundChange(AccountState state, long change) {
+        while (true) {
+            long oldBalance = state.getBalance();
+            FundEnum overUnderCheck = BalanceChecks.fundChangeCausesOverflowOrUnderflow(oldBalance, change);
+            if (overUnderCheck != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+                return FundsResult.withBalance(overUnderCheck, oldBalance);
+            }
+            if (state.compareAndSetBalance(oldBalance, oldBalance + change)) {
+                return FundsResult.withBalance(FundEnum.SUCCESS, oldBalance + change);
+            }
+        }
+    }
+
+    private FundsResult performFundTransaction(AccountState state, AddFunds addFunds) {
+        // Every writer holds the account lock in this mode, so the CAS succeeds first time
+        return compareAndSetFundChange(state, addFunds.getAmount().getValue());
+    }
+
+    @Override
+    public FundsResult transferFunds(Transfer transfer) {
+        String requestID = transfer.getFromAccountA().getRequestID();
+        AccountState stateA = accounts.get(transfer.getFromAccountA().getAccountNumber());
+        AccountState stateB = accounts.get(transfer.getToAccountB().getAccountNumber());
+        FundEnum response = transferPreCheck(stateA, stateB, requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+
+        FundsResult returnValue = FundsResult.of(FundEnum.TIMED_OUT);
+        long ticket = 0;
+
+        AccountState[] ordered = lockOrder(stateA, stateB);
+        ReentrantLock firstLock = ordered[0].getLock();
+        ReentrantLock secondLock = ordered[1].getLock();
+        long waitStart = System.nanoTime();
+        long acquired = 0;
+
+        try {
+            if (acquire(ordered[0]) && acquire(ordered[1])) {
+                acquired = System.nanoTime();
+                Applied applied = applyTransferUnderLocks(stateA, stateB, transfer);
+                returnValue = applied.result;
+                ticket = applied.ticket;
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            log.warn("{} - Thread interrupted during lock acquisition", transfer.getFromAccountA().getRequestID());
+        } finally {
+            if (secondLock.isHeldByCurrentThread()) {
+                secondLock.unlock();
+            }
+
+            if (firstLock.isHeldByCurrentThread()) {
+                firstLock.unlock();
+            }
+            if (acquired != 0) {
+                transferLockHold.recordSince(acquired);
+            }
+        }
+        transferLockWait.record((acquired != 0 ? acquired : System.nanoTime()) - waitStart);
+
+        if (returnValue.getOutcome() == FundEnum.TIMED_OUT) {
+            log.info("{} - Lock acquisition may have timed out", transfer.getFromAccountA().getRequestID());
+        }
+
+        awaitDurable(ticket);
+        recordOutcome(requestID, returnValue.getOutcome());
+        return returnValue;
     }
 
+    /**
+     * As {@link #transferFunds}, but if either account is locked the attempt is retried later instead of
+     * the caller's thread waiting for it, and a durable transfer completes once it has been synced.
+     */
     @Override
-    public FundEnum transferFunds(Transfer transfer) {
-        FundEnum response = dataStorePreCheckBeforeFundChangesSrc(transfer.getFromAccountA());
+    public CompletableFuture<FundsResult> transferFundsAsync(Transfer transfer) {
+        String requestID = transfer.getFromAccountA().getRequestID();
+        AccountState stateA = accounts.get(transfer.getFromAccountA().getAccountNumber());
+        AccountState stateB = accounts.get(transfer.getToAccountB().getAccountNumber());
+        FundEnum response = transferPreCheck(stateA, stateB, requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+        return underLocksAsync(requestID, () -> applyTransferUnderLocks(stateA, stateB, transfer),
+                               transferLockWait, transferLockHold, lockOrder(stateA, stateB));
+    }
+
+    private FundEnum transferPreCheck(AccountState stateA, AccountState stateB, String requestID) {
+        FundEnum response = accountPreCheck(stateA, requestID, FundEnum.ACCOUNT_NOT_FOUND);
         if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
             return response;
         }
-        response = dataStorePreCheckBeforeFundChangesDest(transfer.getToAccountB());
+        response = accountPreCheck(stateB, requestID, FundEnum.DEST_ACCOUNT_NOT_FOUND);
         if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
             return response;
         }
+        return claimRequest(requestID);
+    }
+
+    private AccountState[] lockOrder(AccountState stateA, AccountState stateB) {
+        // Always lock the lower account number first so opposing transfers queue behind each other
+        // rather than each holding one lock while waiting out the timeout on the other.
+        boolean aFirst = stateA.getAccount().getAccountNumber().compareTo(stateB.getAccount().getAccountNumber()) < 0;
+        return aFirst ? new AccountState[]{stateA, stateB} : new AccountState[]{stateB, stateA};
+    }
+
+    /**
+     * Takes the account's lock, waiting up to the lock timeout for it. Only a wait is profiled, so an
+     * uncontended lock costs the same as before.
+     */
+    private boolean acquire(AccountState state) throws InterruptedException {
+        ReentrantLock lock = state.getLock();
+        if (lock.tryLock()) {
+            return true;
+        }
+        long waitStart = System.nanoTime();
+        boolean locked = lock.tryLock(lockAcquireTimeout, TimeUnit.MILLISECONDS);
+        contention.record(state.getAccount().getAccountNumber(), System.nanoTime() - waitStart, !locked);
+        return locked;
+    }
 
-        FundEnum returnValue = FundEnum.TIMED_OUT;
+    /**
+     * Up to {@code limit} of the accounts whose locks changes most often had to wait for.
+     */
+    @Override
+    public List<AccountContention> hottestAccounts(int limit) {
+        return contention.hottest(limit, accountNumber -> {
+            AccountState state = accounts.get(accountNumber);
+            return state != null && state.isHot();
+        });
+    }
 
-        ReentrantLock accountLockA = locks.get(transfer.getFromAccountA().getAccountNumber());
-        ReentrantLock accountLockB = locks.get(transfer.getToAccountB().getAccountNumber());
+    private Applied applyTransferUnderLocks(AccountState stateA, AccountState stateB, Transfer transfer) {
+        stateA.consolidate();
+        stateB.consolidate();
 
-        try {
-            if (accountLockA.tryLock(lockAcquireTimeout, TimeUnit.MILLISECONDS)
-                    && accountLockB.tryLock(lockAcquireTimeout, TimeUnit.MILLISECONDS)){
+        FundsResult returnValue;
+        long ticket = 0;
+        if (lockFree) {
+            returnValue = transferLockFree(stateA, stateB, transfer);
+        } else {
+            FundEnum check = checkTransferUnderLocks(stateA, stateB, transfer);
+            if (check == FundEnum.SUCCESS) {
+                try {
+                    ticket = logTransfer(transfer);
+                } catch (IllegalArgumentException e) {
+                    log.warn("{} - Transfer could not be logged, not applied: {}",
+                             transfer.getFromAccountA().getRequestID(), e.getMessage());
+                    return new Applied(FundsResult.of(FundEnum.TIMED_OUT), 0);
+                }
+                keepForCheckpoint(stateA, ticket);
+                keepForCheckpoint(stateB, ticket);
+                returnValue = performFundTransaction(stateA, transfer.getFromAccountA());
+                performFundTransaction(stateB, transfer.getToAccountB());
+            } else {
+                returnValue = FundsResult.withBalance(check, stateA.getBalance());
+            }
+        }
 
-                Amount oldAmountA = accountAmounts.get(transfer.getFromAccountA().getAccountNumber());
-                Amount oldAmountB = accountAmounts.get(transfer.getToAccountB().getAccountNumber());
+        if (returnValue.getOutcome() == FundEnum.SUCCESS) {
+            recordHistory(stateA, stateB, transfer, System.currentTimeMillis());
+            log.info("{} - transaction completed successfully", transfer.getFromAccountA().getRequestID());
+        }
+        return new Applied(returnValue, ticket);
+    }
 
-                FundEnum overUnderCheckA = fundChangeCausesOverflowOrUnderflow(oldAmountA, transfer.getFromAccountA().getAmount());
-                FundEnum overUnderCheckB = fundChangeCausesOverflowOrUnderflow(oldAmountB, transfer.getToAccountB().getAmount());
+    /**
+     * Runs the work once all of the locks can be taken without waiting, trying again with a growing
+     * delay until the lock timeout has passed, then waits for the change to be synced if it was logged.
+     */
+    private CompletableFuture<FundsResult> underLocksAsync(String requestID, Supplier<Applied> work, Histogram.Child waits,
+                                                           Histogram.Child holds, AccountState... states) {
+        CompletableFuture<Applied> applied = new CompletableFuture<>();
+        new LockAttempt(states, work, applied, TimeUnit.MILLISECONDS.toNanos(lockAcquireTimeout), waits, holds, contention).run();
+        return applied.thenCompose(result -> {
+            if (result.result.getOutcome() == FundEnum.TIMED_OUT) {
+                log.info("{} - Lock acquisition may have timed out", requestID);
+            }
+            if (result.ticket == 0) {
+                return CompletableFuture.completedFuture(result.result);
+            }
+            return writeAheadLog.whenDurable(result.ticket).thenApply(synced -> result.result);
+        }).thenApply(result -> {
+            recordOutcome(requestID, result.getOutcome());
+            return result;
+        });
+    }
 
-                if (overUnderCheckA != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
-                    returnValue = overUnderCheckA;
-                } else if (overUnderCheckB != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
-                    returnValue = overUnderCheckB;
+    private static final class LockAttempt implements Runnable {
+        private final AccountState[] states;
+        private final Supplier<Applied> work;
+        private final CompletableFuture<Applied> applied;
+        private final long started = System.nanoTime();
+        private final long deadline;
+        private final Histogram.Child waits;
+        private final Histogram.Child holds;
+        private final ContentionProfiler contention;
+        private long delay = FIRST_RETRY_NANOS;
+        // The account whose lock was last found taken, null until one is
+        private AccountState blockedOn;
+
+        LockAttempt(AccountState[] states, Supplier<Applied> work, CompletableFuture<Applied> applied, long timeoutNanos,
+                    Histogram.Child waits, Histogram.Child holds, ContentionProfiler contention) {
+            this.states = states;
+            this.work = work;
+            this.applied = applied;
+            this.deadline = started + timeoutNanos;
+            this.waits = waits;
+            this.holds = holds;
+            this.contention = contention;
+        }
+
+        @Override
+        public void run() {
+            Applied result = null;
+            RuntimeException failure = null;
+            int held = 0;
+            long acquired = 0;
+            try {
+                while (held < states.length && states[held].getLock().tryLock()) {
+                    held++;
+                }
+                if (held == states.length) {
+                    acquired = System.nanoTime();
+                    result = work.get();
                 } else {
-                    performFundTransaction(transfer.getFromAccountA(), oldAmountA);
-                    performFundTransaction(transfer.getToAccountB(), oldAmountB);
-                    returnValue = FundEnum.SUCCESS;
-                    log.info(String.format("%s - transaction completed successfully", transfer.getFromAccountA().getRequestID()));
+                    blockedOn = states[held];
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                for (int i = held - 1; i >= 0; i--) {
+                    states[i].getLock().unlock();
+                }
+                if (acquired != 0) {
+                    holds.recordSince(acquired);
+                    waits.record(acquired - started);
+                    if (blockedOn != null) {
+                        contention.record(blockedOn.getAccount().getAccountNumber(), acquired - started, false);
+                    }
                 }
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            log.warn(String.format("%s - Thread interrupted during lock acquisition", transfer.getFromAccountA().getRequestID()));
-        } finally {
-            if (accountLockB.isHeldByCurrentThread()) {
-                accountLockB.unlock();
+
+            // Completed only once the locks are released, as whatever waits on it then runs on this thread
+            if (failure != null) {
+                applied.completeExceptionally(failure);
+            } else if (result != null) {
+                applied.complete(result);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    long waited = System.nanoTime() - started;
+                    waits.record(waited);
+                    contention.record(blockedOn.getAccount().getAccountNumber(), waited, true);
+                    applied.complete(new Applied(FundsResult.of(FundEnum.TIMED_OUT), 0));
+                    return;
+                }
+                long wait = Math.min(delay, remaining);
+                delay = Math.min(delay * 2, MAX_RETRY_NANOS);
+                lockRetries.schedule(this, wait, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * The outcome of a change made under its account locks, and its write-ahead log ticket, 0 if it was
+     * not logged.
+     */
+    private static final class Applied {
+        final FundsResult result;
+        final long ticket;
+
+        Applied(FundsResult result, long ticket) {
+            this.result = result;
+            this.ticket = ticket;
+        }
+    }
+
+    /**
+     * Applies many transfers while taking each account's lock only once, in account number order. With
+     * allOrNothing the batch is judged on each account's net change across all of its transfers, and
+     * either every transfer is applied or none are and all of their request IDs are left free to retry.
+     */
+    @Override
+    public List<FundEnum> transferFundsBatch(List<Transfer> transfers, boolean allOrNothing) {
+        int size = transfers.size();
+        FundEnum[] results = new FundEnum[size];
+        AccountState[] froms = new AccountState[size];
+        AccountState[] tos = new AccountState[size];
+        boolean[] claimed = new boolean[size];
+        TreeMap<String, AccountState> involved = new TreeMap<>();
+        boolean rejected = false;
+
+        for (int i = 0; i < size; i++) {
+            Transfer transfer = transfers.get(i);
+            String requestID = transfer.getFromAccountA().getRequestID();
+            String fromNumber = transfer.getFromAccountA().getAccountNumber();
+            String toNumber = transfer.getToAccountB().getAccountNumber();
+            froms[i] = accounts.get(fromNumber);
+            tos[i] = accounts.get(toNumber);
+
+            if (fromNumber.equals(toNumber)) {
+                results[i] = FundEnum.SAME_ACCOUNT;
+            } else if ((results[i] = accountPreCheck(froms[i], requestID, FundEnum.ACCOUNT_NOT_FOUND)) == FundEnum.ACCOUNT_PRE_CHECK_PASS
+                    && (results[i] = accountPreCheck(tos[i], requestID, FundEnum.DEST_ACCOUNT_NOT_FOUND)) == FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+                results[i] = claimRequest(requestID);
+                claimed[i] = results[i] == FundEnum.ACCOUNT_PRE_CHECK_PASS;
+            }
+
+            if (claimed[i]) {
+                involved.put(fromNumber, froms[i]);
+                involved.put(toNumber, tos[i]);
+            } else if (results[i] != FundEnum.SUCCESS) {
+                rejected = true;
             }
+        }
 
-            if (accountLockA.isHeldByCurrentThread()) {
-                accountLockA.unlock();
+        long ticket = 0;
+        if (!involved.isEmpty() && !(allOrNothing && rejected)) {
+            List<ReentrantLock> held = new ArrayList<>(involved.size());
+            long waitStart = System.nanoTime();
+            long acquired = 0;
+            try {
+                if (lockAll(involved, held)) {
+                    acquired = System.nanoTime();
+                    ticket = applyBatchUnderLocks(transfers, froms, tos, claimed, results, allOrNothing);
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < size; i++) {
+                        if (claimed[i] && results[i] == FundEnum.SUCCESS) {
+                            recordHistory(froms[i], tos[i], transfers.get(i), now);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                log.warn("Thread interrupted during batch lock acquisition");
+            } finally {
+                for (int i = held.size() - 1; i >= 0; i--) {
+                    held.get(i).unlock();
+                }
+                if (acquired != 0) {
+                    batchLockHold.recordSince(acquired);
+                }
             }
+            batchLockWait.record((acquired != 0 ? acquired : System.nanoTime()) - waitStart);
         }
 
-        if (returnValue == FundEnum.TIMED_OUT) {
-            log.info(String.format("%s - Lock acquisition may have timed out", transfer.getFromAccountA().getRequestID()));
+        boolean rolledBack = false;
+        for (int i = 0; i < size; i++) {
+            if (claimed[i] && results[i] == FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+                results[i] = allOrNothing && rejected ? FundEnum.BATCH_ROLLED_BACK : FundEnum.TIMED_OUT;
+            }
+            rolledBack |= claimed[i] && results[i] != FundEnum.SUCCESS;
         }
+        awaitDurable(ticket);
 
-        return returnValue;
+        for (int i = 0; i < size; i++) {
+            if (!claimed[i]) {
+                continue;
+            }
+            String requestID = transfers.get(i).getFromAccountA().getRequestID();
+            if (allOrNothing && rolledBack) {
+                idempotencyStore.release(requestID);
+            } else {
+                recordOutcome(requestID, results[i]);
+            }
+        }
+        log.info("Batch of {} transfers across {} accounts processed", size, involved.size());
+        return Arrays.asList(results);
     }
 
-    private FundEnum fundChangeCausesOverflowOrUnderflow(Amount oldAmount, Amount amountChange) {
-        if (amountChange.getValue() > 0) {
-            if (Float.MAX_VALUE - amountChange.getValue() <= oldAmount.getValue()) {
-                return FundEnum.FUND_OVERFLOW;
+    @Override
+    public boolean supportsAllOrNothingBatches() {
+        return true;
+    }
+
+    private boolean lockAll(TreeMap<String, AccountState> involved, List<ReentrantLock> held) throws InterruptedException {
+        for (AccountState state : involved.values()) {
+            if (!acquire(state)) {
+                log.info("Batch lock acquisition timed out");
+                return false;
             }
-        } else {
-            if (oldAmount.getValue() + amountChange.getValue() < 0) {
-                return FundEnum.FUND_UNDERFLOW;
+            held.add(state.getLock());
+            state.consolidate();
+        }
+        return true;
+    }
+
+    private long applyBatchUnderLocks(List<Transfer> transfers, AccountState[] froms, AccountState[] tos,
+                                      boolean[] claimed, FundEnum[] results, boolean allOrNothing) {
+        if (allOrNothing) {
+            return lockFree ? applyNetChangesLockFree(froms, tos, claimed, results, transfers)
+                            : applyNetChangesUnderLocks(froms, tos, claimed, results, transfers);
+        }
+
+        if (lockFree) {
+            for (int i = 0; i < transfers.size(); i++) {
+                if (claimed[i]) {
+                    results[i] = transferLockFree(froms[i], tos[i], transfers.get(i)).getOutcome();
+                }
             }
+            return 0;
         }
-        return FundEnum.FUND_NOT_OVER_UNDER_FLOW;
+
+        // Each transfer is checked against the balances left by the ones before it, then all that pass
+        // are logged as one record before any is applied
+        Map<AccountState, Long> balances = new HashMap<>();
+        List<Transfer> passed = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            if (!claimed[i]) {
+                continue;
+            }
+            long amount = transfers.get(i).getToAccountB().getAmount().getValue();
+            long fromBalance = balances.getOrDefault(froms[i], froms[i].getBalance());
+            long toBalance = balances.getOrDefault(tos[i], tos[i].getBalance());
+            FundEnum check = BalanceChecks.fundChangeCausesOverflowOrUnderflow(fromBalance, -amount);
+            if (check == FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+                check = BalanceChecks.fundChangeCausesOverflowOrUnderflow(toBalance, amount);
+            }
+            if (check != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+                results[i] = check;
+                continue;
+            }
+            balances.put(froms[i], fromBalance - amount);
+            balances.put(tos[i], toBalance + amount);
+            results[i] = FundEnum.SUCCESS;
+            passed.add(transfers.get(i));
+        }
+        return applyPassed(transfers, froms, tos, claimed, results, passed);
     }
 
-    private FundEnum dataStorePreCheckBeforeFundChangesSrc(AddFunds addFunds) {
-        if (!doesAccountExist(addFunds.getAccountNumber())) {
-            log.info(String.format("%s - Account not found when attempting to add funds", addFunds.getRequestID()));
-            return FundEnum.ACCOUNT_NOT_FOUND;
+    private long applyNetChangesUnderLocks(AccountState[] froms, AccountState[] tos, boolean[] claimed,
+                                           FundEnum[] results, List<Transfer> transfers) {
+        Map<AccountState, FundEnum> failures = new HashMap<>();
+        for (Map.Entry<AccountState, Long> net : netChanges(froms, tos, claimed, transfers).entrySet()) {
+            FundEnum check = BalanceChecks.fundChangeCausesOverflowOrUnderflow(net.getKey().getBalance(), net.getValue());
+            if (check != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+                failures.put(net.getKey(), check);
+            }
+        }
+        if (!failures.isEmpty()) {
+            markBatchFailures(froms, tos, claimed, results, failures);
+            return 0;
+        }
+
+        List<Transfer> passed = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            if (claimed[i]) {
+                results[i] = FundEnum.SUCCESS;
+                passed.add(transfers.get(i));
+            }
         }
-        return dataStorePreCheckBeforeFundChanges(addFunds.getAccountNumber(), addFunds.getRequestID());
+        return applyPassed(transfers, froms, tos, claimed, results, passed);
     }
 
-    private FundEnum dataStorePreCheckBeforeFundChangesDest(AddFunds addFunds) {
-        if (!doesAccountExist(addFunds.getAccountNumber())) {
-            log.info(String.format("%s - Account not found when attempting to add funds", addFunds.getRequestID()));
-            return FundEnum.DEST_ACCOUNT_NOT_FOUND;
+    private long applyPassed(List<Transfer> transfers, AccountState[] froms, AccountState[] tos, boolean[] claimed,
+                             FundEnum[] results, List<Transfer> passed) {
+        long ticket = 0;
+        if (writeAheadLog != null && !passed.isEmpty()) {
+            try {
+                ticket = writeAheadLog.appendTransferBatch(passed);
+            } catch (IllegalArgumentException e) {
+                log.warn("Batch of {} transfers could not be logged, none applied: {}", passed.size(), e.getMessage());
+                for (int i = 0; i < transfers.size(); i++) {
+                    if (claimed[i] && results[i] == FundEnum.SUCCESS) {
+                        results[i] = FundEnum.TIMED_OUT;
+                    }
+                }
+                return 0;
+            }
         }
-        return dataStorePreCheckBeforeFundChanges(addFunds.getAccountNumber(), addFunds.getRequestID());
+        for (int i = 0; i < transfers.size(); i++) {
+            if (claimed[i] && results[i] == FundEnum.SUCCESS) {
+                keepForCheckpoint(froms[i], ticket);
+                keepForCheckpoint(tos[i], ticket);
+                performFundTransaction(froms[i], transfers.get(i).getFromAccountA());
+                performFundTransaction(tos[i], transfers.get(i).getToAccountB());
+            }
+        }
+        return ticket;
     }
 
-    private FundEnum dataStorePreCheckBeforeFundChanges(String accountNumber, String requestID) {
-        if (!transactionAudit.containsKey(accountNumber)
-                || !locks.containsKey(accountNumber)
-                || !accountAmounts.containsKey(accountNumber)) {
-            log.error(String.format("%s - Expecting account in internal data structures, but not found", requestID));
-            return FundEnum.ACCOUNT_NOT_FOUND;
+    private long applyNetChangesLockFree(AccountState[] froms, AccountState[] tos, boolean[] claimed,
+                                         FundEnum[] results, List<Transfer> transfers) {
+        // Single account writers do not take the locks in this mode, so each net change is applied with
+        // its own CAS. Debits go first because they can always be handed back; credits can only be
+        // refused for overflow, which needs a balance near Long.MAX_VALUE pence.
+        Map<AccountState, Long> nets = netChanges(froms, tos, claimed, transfers);
+        List<Map.Entry<AccountState, Long>> ordered = new ArrayList<>(nets.entrySet());
+        ordered.sort((a, b) -> Long.compare(a.getValue(), b.getValue()));
+
+        Map<AccountState, FundEnum> failures = new HashMap<>();
+        int applied = 0;
+        for (Map.Entry<AccountState, Long> net : ordered) {
+            FundEnum result = compareAndSetFundChange(net.getKey(), net.getValue()).getOutcome();
+            if (result != FundEnum.SUCCESS) {
+                failures.put(net.getKey(), result);
+                break;
+            }
+            applied++;
+        }
+        if (failures.isEmpty()) {
+            for (int i = 0; i < transfers.size(); i++) {
+                if (claimed[i]) {
+                    results[i] = FundEnum.SUCCESS;
+                }
+            }
+            return 0;
         }
 
-        ConcurrentHashMap<String, Amount> accountAudit = transactionAudit.get(accountNumber);
-        if (accountAudit.containsKey(requestID)) {
-            log.info(String.format("%s - Transaction already completed", requestID));
-            return FundEnum.TRANSACTION_ALREADY_COMPLETE;
+        for (int i = 0; i < applied; i++) {
+            refund(ordered.get(i).getKey(), ordered.get(i).getValue());
+        }
+        markBatchFailures(froms, tos, claimed, results, failures);
+        return 0;
+    }
+
+    private Map<AccountState, Long> netChanges(AccountState[] froms, AccountState[] tos, boolean[] claimed,
+                                               List<Transfer> transfers) {
+        Map<AccountState, Long> nets = new LinkedHashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            if (claimed[i]) {
+                long amount = transfers.get(i).getToAccountB().getAmount().getValue();
+                // A net change too large for a long is out of range for any balance, so saturate it
+                nets.merge(froms[i], -amount, InMemoryAccountDao::saturatedAdd);
+                nets.merge(tos[i], amount, InMemoryAccountDao::saturatedAdd);
+            }
+        }
+        return nets;
+    }
+
+    private static Long saturatedAdd(Long a, Long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    private void markBatchFailures(AccountState[] froms, AccountState[] tos, boolean[] claimed, FundEnum[] results,
+                                   Map<AccountState, FundEnum> failures) {
+        for (int i = 0; i < results.length; i++) {
+            if (!claimed[i]) {
+                continue;
+            }
+            FundEnum fromFailure = failures.get(froms[i]);
+            FundEnum toFailure = failures.get(tos[i]);
+            if (fromFailure == FundEnum.FUND_UNDERFLOW) {
+                results[i] = fromFailure;
+            } else if (toFailure == FundEnum.FUND_OVERFLOW) {
+                results[i] = toFailure;
+            } else {
+                results[i] = FundEnum.BATCH_ROLLED_BACK;
+            }
+        }
+    }
+
+    private FundEnum checkTransferUnderLocks(AccountState stateA, AccountState stateB, Transfer transfer) {
+        FundEnum overUnderCheckA = BalanceChecks.fundChangeCausesOverflowOrUnderflow(stateA.getBalance(), transfer.getFromAccountA().getAmount().getValue());
+        FundEnum overUnderCheckB = BalanceChecks.fundChangeCausesOverflowOrUnderflow(stateB.getBalance(), transfer.getToAccountB().getAmount().getValue());
+
+        if (overUnderCheckA != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+            return overUnderCheckA;
+        } else if (overUnderCheckB != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+            return overUnderCheckB;
+        }
+        return FundEnum.SUCCESS;
+    }
+
+    private FundsResult transferLockFree(AccountState stateA, AccountState stateB, Transfer transfer) {
+        // Single account writers do not take the locks, so each side is checked and applied in one
+        // CAS, and the debit is handed back if the credit cannot be applied.
+        long debit = transfer.getFromAccountA().getAmount().getValue();
+        FundsResult debitResult = compareAndSetFundChange(stateA, debit);
+        if (debitResult.getOutcome() != FundEnum.SUCCESS) {
+            return debitResult;
         }
 
-        log.info(String.format("%s - Pre check before fund changes passed", requestID));
+        FundEnum creditResult = compareAndSetFundChange(stateB, transfer.getToAccountB().getAmount().getValue()).getOutcome();
+        if (creditResult != FundEnum.SUCCESS) {
+            return FundsResult.withBalance(creditResult, refund(stateA, debit));
+        }
+        return debitResult;
+    }
+
+    private static void recordHistory(AccountState state, AddFunds addFunds) {
+        state.recordHistory(System.currentTimeMillis(), addFunds.getAmount().getValue(), null);
+    }
+
+    private static void recordHistory(AccountState from, AccountState to, Transfer transfer, long timeMillis) {
+        from.recordHistory(timeMillis, transfer.getFromAccountA().getAmount().getValue(), to.getAccount().getAccountNumber());
+        to.recordHistory(timeMillis, transfer.getToAccountB().getAmount().getValue(), from.getAccount().getAccountNumber());
+    }
+
+    /**
+     * @return the balance once the debit is handed back
+     */
+    private long refund(AccountState state, long debit) {
+        long oldBalance;
+        do {
+            oldBalance = state.getBalance();
+        } while (!state.compareAndSetBalance(oldBalance, oldBalance - debit));
+        return oldBalance - debit;
+    }
 
+    private FundEnum dataStorePreCheckBeforeFundChanges(AccountState state, AddFunds addFunds, FundEnum notFound) {
+        FundEnum response = accountPreCheck(state, addFunds.getRequestID(), notFound);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return response;
+        }
+        return claimRequest(addFunds.getRequestID());
+    }
+
+    private FundEnum accountPreCheck(AccountState state, String requestID, FundEnum notFound) {
+        if (state == null) {
+            log.info("{} - Account not found when attempting to add funds", requestID);
+            return notFound;
+        }
         return FundEnum.ACCOUNT_PRE_CHECK_PASS;
     }
+
+    private FundEnum claimRequest(String requestID) {
+        // Claiming the request ID before touching any balance stops concurrent duplicates both being applied
+        FundEnum response = idempotencyStore.claim(requestID);
+        if (response == FundEnum.TRANSACTION_ALREADY_COMPLETE) {
+            log.info("{} - Transaction already in progress", requestID);
+            return response;
+        } else if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            log.info("{} - Transaction already completed, replaying its outcome", requestID);
+            return response;
+        }
+
+        log.info("{} - Pre check before fund changes passed", requestID);
+
+        return FundEnum.ACCOUNT_PRE_CHECK_PASS;
+    }
+
+    private void recordOutcome(String requestID, FundEnum outcome) {
+        idempotencyStore.finish(requestID, outcome);
+    }
+
+    /**
+     * Throws IllegalArgumentException, before anything is logged, for a record too large for the log. Callers
+     * hold the account locks and have claimed the request ID, so they answer TIMED_OUT, which frees the ID,
+     * rather than letting it stay claimed.
+     */
+    private long logFunds(AddFunds addFunds) {
+        if (writeAheadLog == null) {
+            return 0;
+        }
+        return writeAheadLog.appendFunds(addFunds.getAccountNumber(), addFunds.getAmount().getValue(), addFunds.getRequestID());
+    }
+
+    private long logTransfer(Transfer transfer) {
+        if (writeAheadLog == null) {
+            return 0;
+        }
+        return writeAheadLog.appendTransfer(transfer.getFromAccountA().getAccountNumber(),
+                                            transfer.getToAccountB().getAccountNumber(),
+                                            transfer.getToAccountB().getAmount().getValue(),
+                                            transfer.getFromAccountA().getRequestID());
+    }
+
+    private void awaitDurable(long ticket) {
+        // Waiting happens after the locks are released so that other requests can join the same fsync.
+        // If the log fails the request ID stays claimed, as whether the change survives is unknown.
+        if (ticket != 0) {
+            writeAheadLog.awaitDurable(ticket);
+        }
+    }
+
+    private void keepForCheckpoint(AccountState state, long ticket) {
+        if (ticket != 0) {
+            WriteAheadLog.Cut cut = writeAheadLog.currentCut();
+            if (!cut.includes(ticket)) {
+                state.keepBalanceForCheckpoint(cut.getEpoch());
+            }
+        }
+    }
+
+    /**
+     * Writes every account as it stood at a cut in the write-ahead log to the snapshot file, while
+     * writes carry on. The first write to an account after the cut keeps its balance from before the
+     * change, so each account only has to be locked for as long as it takes to read it.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("No snapshot file to checkpoint to");
+        }
+        long start = System.nanoTime();
+        WriteAheadLog.Cut cut = writeAheadLog.beginCheckpoint();
+        // A snapshot must never be ahead of the log a restart would replay after it
+        writeAheadLog.awaitDurable(cut.getTicket());
+
+        long count = 0;
+        try (LedgerSnapshot.Writer writer = LedgerSnapshot.create(snapshotFile)) {
+            for (AccountState state : accounts) {
+                boolean createdAfterCut;
+                long balance;
+                state.getLock().lock();
+                try {
+                    createdAfterCut = state.getCreatedEpoch() == cut.getEpoch();
+                    balance = state.getBalanceForCheckpoint(cut.getEpoch());
+                } finally {
+                    state.getLock().unlock();
+                }
+                if (!createdAfterCut) {
+                    writer.addAccount(state.getAccount(), balance);
+                    count++;
+                }
+            }
+            try {
+                idempotencyStore.forEachCompleted((high, low, outcome) -> {
+                    try {
+                        writer.addRequest(high, low, outcome);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.commit(cut.getPosition());
+        }
+        log.info("Checkpointed {} accounts in {} ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void recover(WriteAheadLog writeAheadLog, Path snapshotFile) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long position = 0;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            position = LedgerSnapshot.load(snapshotFile, threads, new LedgerSnapshot.Loader() {
+                @Override
+                public void onAccount(Account account, long balance) {
+                    accounts.put(account.getAccountNumber(), new AccountState(account, balances, balance));
+                }
+
+                @Override
+                public void onRequest(long high, long low, FundEnum outcome) {
+                    idempotencyStore.restoreCompleted(high, low, outcome);
+                }
+            });
+        }
+
+        Recovery recovery = new Recovery(threads);
+        try {
+            writeAheadLog.replay(position, recovery);
+        } finally {
+            recovery.finish();
+        }
+    }
+
+    /**
+     * Applies logged changes as they were made, without checks, since only successful changes are logged.
+     * Changes are split between threads by account number, so each account still sees its own in order.
+     */
+    private class Recovery implements WriteAheadLog.Replayer {
+        private final List<BlockingQueue<Object>> queues;
+        private final Thread[] workers;
+        private volatile RuntimeException failure;
+
+        Recovery(int partitions) {
+            queues = new ArrayList<>(partitions);
+            workers = new Thread[partitions];
+            for (int p = 0; p < partitions; p++) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(4096);
+                queues.add(queue);
+                workers[p] = new Thread(() -> drain(queue), "wal-replay-" + p);
+                workers[p].start();
+            }
+        }
+
+        @Override
+        public void onAccount(Account account) {
+            dispatch(account.getAccountNumber(), account);
+        }
+
+        @Override
+        public void onFunds(String accountNumber, long change, String requestID) {
+            dispatch(accountNumber, new Change(accountNumber, change));
+            remember(requestID);
+        }
+
+        @Override
+        public void onTransfer(String fromAccountNumber, String toAccountNumber, long amount, String requestID) {
+            dispatch(fromAccountNumber, new Change(fromAccountNumber, -amount));
+            dispatch(toAccountNumber, new Change(toAccountNumber, amount));
+            remember(requestID);
+        }
+
+        private void dispatch(String accountNumber, Object item) {
+            put(queues.get((accountNumber.hashCode() & 0x7fffffff) % queues.size()), item);
+        }
+
+        private void put(BlockingQueue<Object> queue, Object item) {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while replaying the write-ahead log", e);
+            }
+        }
+
+        private void drain(BlockingQueue<Object> queue) {
+            while (true) {
+                Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item == END) {
+                    return;
+                }
+                // Keep taking after a failure so that the reader is never left blocked on a full queue
+                if (failure == null) {
+                    try {
+                        apply(item);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+
+        private void apply(Object item) {
+            if (item instanceof Account) {
+                Account account = (Account) item;
+                accounts.put(account.getAccountNumber(), new AccountState(account, balances));
+                return;
+            }
+            Change change = (Change) item;
+            AccountState state = accounts.get(change.accountNumber);
+            if (state == null) {
+                throw new IllegalStateException("Write-ahead log changes unknown account " + change.accountNumber);
+            }
+            state.addToBalance(change.amount);
+        }
+
+        private void remember(String requestID) {
+            idempotencyStore.claim(requestID);
+            idempotencyStore.complete(requestID, FundEnum.SUCCESS);
+        }
+
+        void finish() {
+            for (BlockingQueue<Object> queue : queues) {
+                put(queue, END);
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while replaying the write-ahead log", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static final Object END = new Object();
+
+    private static final class Change {
+        final String accountNumber;
+        final long amount;
+
+        Change(String accountNumber, long amount) {
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+        }
+    }
 }
@@ -0,0 +1,330 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every account, its balance and the completed request IDs as of a cut in the write-ahead log.
+ *
+ * The file is a 64 byte header, then one fixed 32 byte entry per account holding its balance, creation
+ * time and the offset of its names, then the names themselves, then one 17 byte entry per completed
+ * request. Loading maps the file and splits the account entries between threads, while the calling thread
+ * reads the request entries one by one alongside them. A snapshot is written to a temporary file and moved into place once synced, so
+ * the previous one stays whole until the new one is complete.
+ */
+final class LedgerSnapshot {
+
+    private static final long MAGIC = 0x4c454447534e4150L;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int ENTRY_BYTES = 32;
+    private static final int NAMES_OFFSET = 24;
+    private static final int REQUEST_BYTES = 17;
+    private static final short NULL_STRING = -1;
+    private static final int BUFFER_BYTES = 1024 * 1024;
+    private static final long MAX_PARTITION_BYTES = 1L << 30;
+    private static final int MAX_SHARED_NAMES = 1 << 16;
+    private static final FundEnum[] OUTCOMES = FundEnum.values();
+
+    private LedgerSnapshot() {
+    }
+
+    static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Loads a snapshot, calling the loader for each account from several threads at once.
+     *
+     * @return the position in the write-ahead log that replay has to carry on from
+     */
+    static long load(Path file, int threads, Loader loader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a ledger snapshot");
+            }
+            header.getInt();
+            long logPosition = header.getLong();
+            long accountCount = header.getLong();
+            long namesStart = header.getLong();
+            long requestsStart = header.getLong();
+            long requestCount = header.getLong();
+
+            int partitions = (int) Math.max(Math.min(threads, accountCount),
+                                            accountCount * ENTRY_BYTES / MAX_PARTITION_BYTES + 1);
+            Thread[] loaders = new Thread[partitions];
+            Throwable[] failures = new Throwable[partitions];
+            for (int p = 0; p < partitions; p++) {
+                long from = accountCount * p / partitions;
+                long to = accountCount * (p + 1) / partitions;
+                int partition = p;
+                loaders[p] = new Thread(() -> {
+                    try {
+                        loadAccounts(channel, from, to, accountCount, namesStart, requestsStart, loader);
+                    } catch (Throwable e) {
+                        failures[partition] = e;
+                    }
+                }, "snapshot-loader-" + p);
+                loaders[p].start();
+            }
+
+            if (requestCount > 0) {
+                MappedByteBuffer requests = channel.map(FileChannel.MapMode.READ_ONLY, requestsStart,
+                                                        requestCount * REQUEST_BYTES);
+                for (long i = 0; i < requestCount; i++) {
+                    loader.onRequest(requests.getLong(), requests.getLong(), OUTCOMES[requests.get()]);
+                }
+            }
+
+            for (int p = 0; p < partitions; p++) {
+                try {
+                    loaders[p].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading " + file, e);
+                }
+                if (failures[p] != null) {
+                    throw new IOException("Unable to load " + file, failures[p]);
+                }
+            }
+            return logPosition;
+        }
+    }
+
+    private static void loadAccounts(FileChannel channel, long from, long to, long accountCount, long namesStart,
+                                     long namesEnd, Loader loader) throws IOException {
+        if (from == to) {
+            return;
+        }
+        MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + from * ENTRY_BYTES,
+                                               (to - from) * ENTRY_BYTES);
+        // Names are written in entry order, so this partition's run ends where the next entry's begins
+        long firstNames = namesStart + entries.getLong(NAMES_OFFSET);
+        long lastNames = to < accountCount
+                ? namesStart + channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + to * ENTRY_BYTES, ENTRY_BYTES).getLong(NAMES_OFFSET)
+                : namesEnd;
+        MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, firstNames, lastNames - firstNames);
+
+        // Names repeat a great deal across millions of accounts, and so do creation times for accounts
+        // opened in bulk, so equal ones share a single instance rather than each holding its own.
+        Map<String, String> seenNames = new HashMap<>();
+        OffsetDateTime created = null;
+        for (long i = from; i < to; i++) {
+            long balance = entries.getLong();
+            long epochSecond = entries.getLong();
+            int nano = entries.getInt();
+            int offsetSeconds = entries.getInt();
+            entries.getLong();
+            if (created == null || created.toEpochSecond() != epochSecond || created.getNano() != nano
+                    || created.getOffset().getTotalSeconds() != offsetSeconds) {
+                created = OffsetDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano),
+                                                   ZoneOffset.ofTotalSeconds(offsetSeconds));
+            }
+            Account account = Account.AccountBuilder.anAccount()
+                    .withAccountNumber(getString(names))
+                    .withFirstName(shared(seenNames, getString(names)))
+                    .withOtherName(shared(seenNames, getString(names)))
+                    .withSurname(shared(seenNames, getString(names)))
+                    .withCreationDateTime(created)
+                    .build();
+            loader.onAccount(account, balance);
+        }
+    }
+
+    private static String shared(Map<String, String> seen, String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = seen.putIfAbsent(value, value);
+        if (existing != null) {
+            return existing;
+        }
+        if (seen.size() > MAX_SHARED_NAMES) {
+            seen.clear();
+        }
+        return value;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] value = new byte[length & 0xffff];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    interface Loader {
+        void onAccount(Account account, long balance);
+
+        void onRequest(long high, long low, FundEnum outcome);
+    }
+
+    /**
+     * Takes every account and then every request, in that order, then {@link #commit}s the file.
+     */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final Path temporary;
+        private final Path temporaryNames;
+        private final FileChannel channel;
+        private final FileChannel namesChannel;
+        private final ByteBuffer entries = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final ByteBuffer names = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private long accountCount;
+        private long namesLength;
+        private long namesStart = -1;
+        private long requestCount;
+        private boolean committed;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.temporaryNames = file.resolveSibling(file.getFileName() + ".names.tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+            this.namesChannel = FileChannel.open(temporaryNames, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);
+        }
+
+        void addAccount(Account account, long balance) throws IOException {
+            if (namesStart >= 0) {
+                throw new IllegalStateException("Accounts must all be added before any request");
+            }
+            byte[] number = utf8(account.getAccountNumber());
+            byte[] firstName = utf8(account.getFirstName());
+            byte[] otherName = utf8(account.getOtherName());
+            byte[] surname = utf8(account.getSurname());
+
+            if (entries.remaining() < ENTRY_BYTES) {
+                drain(entries, channel);
+            }
+            OffsetDateTime created = account.getCreationDateTime();
+            entries.putLong(balance);
+            entries.putLong(created.toEpochSecond());
+            entries.putInt(created.getNano());
+            entries.putInt(created.getOffset().getTotalSeconds());
+            entries.putLong(namesLength);
+
+            int length = 8 + length(number) + length(firstName) + length(otherName) + length(surname);
+            if (names.remaining() < length) {
+                drain(names, namesChannel);
+            }
+            putString(names, number);
+            putString(names, firstName);
+            putString(names, otherName);
+            putString(names, surname);
+            namesLength += length;
+            accountCount++;
+        }
+
+        void addRequest(long high, long low, FundEnum outcome) throws IOException {
+            if (namesStart < 0) {
+                appendNames();
+            }
+            if (entries.remaining() < REQUEST_BYTES) {
+                drain(entries, channel);
+            }
+            entries.putLong(high);
+            entries.putLong(low);
+            entries.put((byte) outcome.ordinal());
+            requestCount++;
+        }
+
+        /**
+         * Syncs the snapshot and moves it into place, so that it replaces any previous one in one step.
+         */
+        void commit(long logPosition) throws IOException {
+            if (namesStart < 0) {
+                appendNames();
+            }
+            drain(entries, channel);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(0);
+            header.putLong(logPosition);
+            header.putLong(accountCount);
+            header.putLong(namesStart);
+            header.putLong(namesStart + namesLength);
+            header.putLong(requestCount);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            committed = true;
+            close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void appendNames() throws IOException {
+            drain(entries, channel);
+            drain(names, namesChannel);
+            namesStart = channel.position();
+            long copied = 0;
+            while (copied < namesLength) {
+                copied += namesChannel.transferTo(copied, namesLength - copied, channel);
+            }
+            channel.position(namesStart + namesLength);
+        }
+
+        private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                namesChannel.close();
+                Files.deleteIfExists(temporaryNames);
+                if (!committed) {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort(NULL_STRING);
+            return;
+        }
+        if (value.length >= (NULL_STRING & 0xffff)) {
+            throw new IllegalArgumentException("Value too long for a snapshot");
+        }
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+}
@@ -0,0 +1,570 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Accounts are hash partitioned across a fixed number of shards. Each shard has a single thread that
+ * owns its accounts' balances outright and applies commands from a bounded queue one at a time, so no
+ * balance is ever locked.
+ *
+ * A transfer between shards is handed from one shard thread to the next: the source shard debits and
+ * passes the credit on to the destination shard, which either applies it or hands a refund back to the
+ * source. Handoffs between shards go on a separate unbounded queue so that two shards with full command
+ * queues can never block on each other.
+ */
+public class ShardedLedgerDao implements AccountDao {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedLedgerDao.class);
+
+    ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    Shard[] shards;
+    IdempotencyStore idempotencyStore;
+    long enqueueTimeout;
+
+    /**
+     * @param enqueueTimeout how long to wait for room on a full shard queue before giving up with TIMED_OUT.
+     *                       Once a command is queued it always runs, so nothing else can time out.
+     */
+    public static ShardedLedgerDao newWithShards(int shardCount, int queueCapacity, long enqueueTimeout,
+                                                 IdempotencyStore idempotencyStore) {
+        return new ShardedLedgerDao(shardCount, queueCapacity, enqueueTimeout, idempotencyStore);
+    }
+
+    private ShardedLedgerDao(int shardCount, int queueCapacity, long enqueueTimeout, IdempotencyStore idempotencyStore) {
+        this.enqueueTimeout = enqueueTimeout;
+        this.idempotencyStore = idempotencyStore;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+        }
+    }
+
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    @Override
+    public Optional<Account> addAccount(Account account) {
+        if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+            return Optional.empty();
+        }
+
+        // Wait for the shard to open the account so that anything sent to it afterwards finds it there
+        OpenAccount open = new OpenAccount(account.getAccountNumber());
+        shardFor(account.getAccountNumber()).put(open);
+        open.result.join();
+
+        log.info("Created new account");
+
+        return Optional.of(account);
+    }
+
+    @Override
+    public Optional<Account> getAccount(String accountNumber) {
+        return Optional.ofNullable(accounts.get(accountNumber));
+    }
+
+    @Override
+    public Optional<Amount> getAmount(String accountNumber) {
+        if (!accounts.containsKey(accountNumber)) {
+            return Optional.empty();
+        }
+
+        ReadBalance read = new ReadBalance(accountNumber);
+        shardFor(accountNumber).put(read);
+        return Optional.of(Amount.newAmount(read.result.join()));
+    }
+
+    /**
+     * Shards keep no count of changes, so every snapshot's version is 0 and only its amount tells whether
+     * the account has changed.
+     */
+    @Override
+    public Optional<AccountSnapshot> getAccountSnapshot(String accountNumber) {
+        Account account = accounts.get(accountNumber);
+        if (account == null) {
+            return Optional.empty();
+        }
+
+        ReadBalance read = new ReadBalance(accountNumber);
+        shardFor(accountNumber).put(read);
+        return Optional.of(new AccountSnapshot(account, Amount.newAmount(read.result.join()), 0));
+    }
+
+    @Override
+    public boolean doesAccountExist(String accountNumber) {
+        return accounts.containsKey(accountNumber);
+    }
+
+    /**
+     * Always empty for an account that exists, as shards do not keep history.
+     */
+    @Override
+    public Optional<List<HistoryEntry>> getHistory(String accountNumber, long before, int limit) {
+        return accounts.containsKey(accountNumber) ? Optional.of(Collections.emptyList()) : Optional.empty();
+    }
+
+    @Override
+    public int accountCount() {
+        return accounts.size();
+    }
+
+    @Override
+    public Iterable<String> accountNumbers() {
+        return accounts.keySet();
+    }
+
+    /**
+     * Always empty, as accounts are only changed from their shard's thread and have no locks to wait for.
+     */
+    @Override
+    public List<AccountContention> hottestAccounts(int limit) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public FundsResult addFunds(AddFunds addFunds) {
+        String requestID = addFunds.getRequestID();
+        FundEnum response = preCheck(addFunds.getAccountNumber(), requestID, FundEnum.ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+        response = claimRequest(requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+
+        ChangeBalance change = new ChangeBalance(addFunds.getAccountNumber(), addFunds.getAmount().getValue());
+        return completeRequest(requestID, shardFor(addFunds.getAccountNumber()), change, change.result);
+    }
+
+    /**
+     * As {@link #addFunds}, completing when the shard has applied the change. A shard whose queue is full
+     * times the change out straight away rather than waiting for room.
+     */
+    @Override
+    public CompletableFuture<FundsResult> addFundsAsync(AddFunds addFunds) {
+        String requestID = addFunds.getRequestID();
+        FundEnum response = preCheck(addFunds.getAccountNumber(), requestID, FundEnum.ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+        response = claimRequest(requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+
+        ChangeBalance change = new ChangeBalance(addFunds.getAccountNumber(), addFunds.getAmount().getValue());
+        return submitRequest(requestID, shardFor(addFunds.getAccountNumber()), change, change.result);
+    }
+
+    @Override
+    public FundsResult transferFunds(Transfer transfer) {
+        String requestID = transfer.getFromAccountA().getRequestID();
+        FundEnum response = preCheck(transfer.getFromAccountA().getAccountNumber(), requestID, FundEnum.ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+        response = preCheck(transfer.getToAccountB().getAccountNumber(), requestID, FundEnum.DEST_ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+        response = claimRequest(requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return FundsResult.of(response);
+        }
+
+        TransferDebit debit = new TransferDebit(transfer.getFromAccountA().getAccountNumber(),
+                                                transfer.getToAccountB().getAccountNumber(),
+                                                transfer.getToAccountB().getAmount().getValue());
+        return completeRequest(requestID, shardFor(transfer.getFromAccountA().getAccountNumber()), debit, debit.result);
+    }
+
+    @Override
+    public CompletableFuture<FundsResult> transferFundsAsync(Transfer transfer) {
+        String requestID = transfer.getFromAccountA().getRequestID();
+        FundEnum response = preCheck(transfer.getFromAccountA().getAccountNumber(), requestID, FundEnum.ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+        response = preCheck(transfer.getToAccountB().getAccountNumber(), requestID, FundEnum.DEST_ACCOUNT_NOT_FOUND);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+        response = claimRequest(requestID);
+        if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            return CompletableFuture.completedFuture(FundsResult.of(response));
+        }
+
+        TransferDebit debit = new TransferDebit(transfer.getFromAccountA().getAccountNumber(),
+                                                transfer.getToAccountB().getAccountNumber(),
+                                                transfer.getToAccountB().getAmount().getValue());
+        return submitRequest(requestID, shardFor(transfer.getFromAccountA().getAccountNumber()), debit, debit.result);
+    }
+
+    /**
+     * Transfers are applied one at a time on their shards. All-or-nothing batches would need the shards
+     * to agree with each other, which they never do, so every transfer in one is rolled back untouched,
+     * without claiming its request ID; callers can check {@link #supportsAllOrNothingBatches} first.
+     */
+    @Override
+    public List<FundEnum> transferFundsBatch(List<Transfer> transfers, boolean allOrNothing) {
+        List<FundEnum> results = new ArrayList<>(transfers.size());
+        if (allOrNothing) {
+            log.info("All-or-nothing batch of {} transfers rolled back, shards cannot apply them together", transfers.size());
+            for (int i = 0; i < transfers.size(); i++) {
+                results.add(FundEnum.BATCH_ROLLED_BACK);
+            }
+            return results;
+        }
+        for (Transfer transfer : transfers) {
+            results.add(transfer.getFromAccountA().getAccountNumber().equals(transfer.getToAccountB().getAccountNumber())
+                                ? FundEnum.SAME_ACCOUNT : transferFunds(transfer).getOutcome());
+        }
+        return results;
+    }
+
+    @Override
+    public boolean supportsAllOrNothingBatches() {
+        return false;
+    }
+
+    /**
+     * A command that failed on its shard is finished as timed out, which says nothing about the request and
+     * so frees its ID to be retried.
+     */
+    private FundsResult completeRequest(String requestID, Shard shard, Command command, CompletableFuture<FundsResult> result) {
+        FundsResult returnValue = FundsResult.of(FundEnum.TIMED_OUT);
+        try {
+            if (shard.offer(command, enqueueTimeout)) {
+                returnValue = result.join();
+            } else {
+                log.info("{} - Shard queue full, command not accepted in time", requestID);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("{} - Thread interrupted while queueing command", requestID);
+        } catch (CompletionException e) {
+            log.error("{} - Command failed on its shard", requestID, e.getCause());
+        }
+
+        return finishRequest(requestID, returnValue);
+    }
+
+    /**
+     * As {@link #completeRequest}, finishing a command that failed on its shard as timed out.
+     */
+    private CompletableFuture<FundsResult> submitRequest(String requestID, Shard shard, Command command,
+                                                         CompletableFuture<FundsResult> result) {
+        if (!shard.offerNow(command)) {
+            log.info("{} - Shard queue full, command not accepted", requestID);
+            return CompletableFuture.completedFuture(finishRequest(requestID, FundsResult.of(FundEnum.TIMED_OUT)));
+        }
+        return result.handle((returnValue, failure) -> {
+            if (failure != null) {
+                log.error("{} - Command failed on its shard", requestID, failure);
+                return finishRequest(requestID, FundsResult.of(FundEnum.TIMED_OUT));
+            }
+            return finishRequest(requestID, returnValue);
+        });
+    }
+
+    /**
+     * Records the outcome against the request ID.
+     */
+    private FundsResult finishRequest(String requestID, FundsResult returnValue) {
+        if (returnValue.getOutcome() == FundEnum.SUCCESS) {
+            log.info("{} - transaction completed successfully", requestID);
+        }
+        idempotencyStore.finish(requestID, returnValue.getOutcome());
+        return returnValue;
+    }
+
+    private FundEnum preCheck(String accountNumber, String requestID, FundEnum notFound) {
+        if (!accounts.containsKey(accountNumber)) {
+            log.info("{} - Account not found when attempting to add funds", requestID);
+            return notFound;
+        }
+        return FundEnum.ACCOUNT_PRE_CHECK_PASS;
+    }
+
+    private FundEnum claimRequest(String requestID) {
+        FundEnum response = idempotencyStore.claim(requestID);
+        if (response == FundEnum.TRANSACTION_ALREADY_COMPLETE) {
+            log.info("{} - Transaction already in progress", requestID);
+        } else if (response != FundEnum.ACCOUNT_PRE_CHECK_PASS) {
+            log.info("{} - Transaction already completed, replaying its outcome", requestID);
+        }
+        return response;
+    }
+
+    private Shard shardFor(String accountNumber) {
+        int hash = accountNumber.hashCode();
+        hash ^= hash >>> 16;
+        return shards[Math.floorMod(hash * 0x9e3779b9, shards.length)];
+    }
+
+    static final class LedgerAccount {
+        long balance;
+    }
+
+    final class Shard implements Runnable {
+        final HashMap<String, LedgerAccount> balances = new HashMap<>();
+        final ArrayBlockingQueue<Command> commands;
+        final ConcurrentLinkedQueue<Command> handoffs = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile boolean running = true;
+
+        Shard(int index, int queueCapacity) {
+            this.commands = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this, "ledger-shard-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        boolean offer(Command command, long timeoutMillis) throws InterruptedException {
+            if (!commands.offer(command, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        boolean offerNow(Command command) {
+            if (!commands.offer(command)) {
+                return false;
+            }
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        void put(Command command) {
+            try {
+                commands.put(command);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing command", e);
+            }
+            LockSupport.unpark(thread);
+        }
+
+        void handoff(Command command) {
+            handoffs.add(command);
+            LockSupport.unpark(thread);
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Command command = handoffs.poll();
+                if (command == null) {
+                    command = commands.poll();
+                }
+                if (command == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                try {
+                    command.execute(this);
+                } catch (RuntimeException e) {
+                    log.error("Shard command failed", e);
+                    command.fail(e);
+                }
+            }
+        }
+
+        FundsResult apply(String accountNumber, long change) {
+            LedgerAccount account = balances.get(accountNumber);
+            if (account == null) {
+                // Only while addAccount's OpenAccount is still behind this command in the queue
+                return FundsResult.of(FundEnum.ACCOUNT_NOT_FOUND);
+            }
+            FundEnum overUnderCheck = BalanceChecks.fundChangeCausesOverflowOrUnderflow(account.balance, change);
+            if (overUnderCheck != FundEnum.FUND_NOT_OVER_UNDER_FLOW) {
+                return FundsResult.withBalance(overUnderCheck, account.balance);
+            }
+            account.balance += change;
+            return FundsResult.withBalance(FundEnum.SUCCESS, account.balance);
+        }
+    }
+
+    abstract static class Command {
+        abstract void execute(Shard shard);
+
+        abstract void fail(Throwable cause);
+    }
+
+    static final class OpenAccount extends Command {
+        final String accountNumber;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        OpenAccount(String accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+
+        @Override
+        void execute(Shard shard) {
+            shard.balances.put(accountNumber, new LedgerAccount());
+            result.complete(null);
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    static final class ReadBalance extends Command {
+        final String accountNumber;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        ReadBalance(String accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+
+        @Override
+        void execute(Shard shard) {
+            LedgerAccount account = shard.balances.get(accountNumber);
+            result.complete(account == null ? 0L : account.balance);
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    static final class ChangeBalance extends Command {
+        final String accountNumber;
+        final long change;
+        final CompletableFuture<FundsResult> result = new CompletableFuture<>();
+
+        ChangeBalance(String accountNumber, long change) {
+            this.accountNumber = accountNumber;
+            this.change = change;
+        }
+
+        @Override
+        void execute(Shard shard) {
+            result.complete(shard.apply(accountNumber, change));
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Runs on the source account's shard, then on the destination's, then back on the source's if the
+     * credit has to be refunded. Whichever step decides the outcome completes the result, with the source
+     * account's balance as the source's shard last left it.
+     */
+    final class TransferDebit extends Command {
+        final String from;
+        final String to;
+        final long amount;
+        final CompletableFuture<FundsResult> result = new CompletableFuture<>();
+        // Set on the source's shard before the credit is handed to the destination's
+        private FundsResult debited;
+
+        TransferDebit(String from, String to, long amount) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+
+        @Override
+        void execute(Shard shard) {
+            debited = shard.apply(from, -amount);
+            if (debited.getOutcome() != FundEnum.SUCCESS) {
+                result.complete(debited);
+                return;
+            }
+
+            Shard destination = shardFor(to);
+            if (destination == shard) {
+                credit(shard, shard);
+            } else {
+                destination.handoff(new Command() {
+                    @Override
+                    void execute(Shard destination) {
+                        credit(destination, shard);
+                    }
+
+                    @Override
+                    void fail(Throwable cause) {
+                        refund(shard, null, cause);
+                    }
+                });
+            }
+        }
+
+        private void credit(Shard destination, Shard source) {
+            FundEnum credit = destination.apply(to, amount).getOutcome();
+            if (credit == FundEnum.ACCOUNT_NOT_FOUND) {
+                credit = FundEnum.DEST_ACCOUNT_NOT_FOUND;
+            }
+            if (credit == FundEnum.SUCCESS) {
+                result.complete(debited);
+            } else if (destination == source) {
+                result.complete(FundsResult.withBalance(credit, source.balances.get(from).balance += amount));
+            } else {
+                refund(source, credit, null);
+            }
+        }
+
+        private void refund(Shard source, FundEnum outcome, Throwable cause) {
+            source.handoff(new Command() {
+                @Override
+                void execute(Shard source) {
+                    long balance = source.balances.get(from).balance += amount;
+                    if (cause == null) {
+                        result.complete(FundsResult.withBalance(outcome, balance));
+                    } else {
+                        result.completeExceptionally(cause);
+                    }
+                }
+
+                @Override
+                void fail(Throwable cause) {
+                    result.completeExceptionally(cause);
+                }
+            });
+        }
+
+        @Override
+        void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+}
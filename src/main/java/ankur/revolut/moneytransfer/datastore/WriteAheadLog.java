@@ -0,0 +1,576 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every change made to the accounts, so that they can be rebuilt after a restart.
+ *
+ * Each record is framed as {@code [int length][int crc32][payload]}. Appends only copy the record into
+ * an in-memory batch and hand back a ticket; a single flusher thread writes each batch with one write
+ * and one fsync, and {@link #awaitDurable} blocks until the ticket's batch is on disk. A batch is
+ * flushed once it holds {@code maxBatchRecords} records or its first record has waited
+ * {@code flushIntervalMillis}, whichever comes first, and appenders wait while a batch is full.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final byte ACCOUNT = 1;
+    static final byte FUNDS = 2;
+    static final byte TRANSFER = 3;
+    static final byte TRANSFER_BATCH = 4;
+
+    private static final int HEADER_BYTES = 8;
+    private static final short NULL_STRING = -1;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long validLength;
+    private final long flushIntervalNanos;
+    private final int maxBatchRecords;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition batchFlushed = lock.newCondition();
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private int batchRecords;
+    private long appended;
+    private long appendedBytes;
+    private volatile Cut cut = new Cut(0, 0, 0);
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+    private final Thread flusher;
+    // Guarded by lock: futures from whenDurable, earliest ticket first
+    private final PriorityQueue<DurableWaiter> durableWaiters = new PriorityQueue<>();
+
+    /**
+     * Opens the log, creating it if needed. A record left half written by a crash is cut off the end.
+     */
+    public static WriteAheadLog open(Path file, long flushIntervalMillis, int maxBatchRecords) throws IOException {
+        if (maxBatchRecords < 1) {
+            throw new IllegalArgumentException("A batch needs room for at least one record");
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        return new WriteAheadLog(channel, flushIntervalMillis, maxBatchRecords);
+    }
+
+    private WriteAheadLog(FileChannel channel, long flushIntervalMillis, int maxBatchRecords) throws IOException {
+        this.channel = channel;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxBatchRecords = maxBatchRecords;
+        this.validLength = scan(channel);
+        if (validLength < channel.size()) {
+            log.warn("Discarding {} bytes of incomplete records from the end of the log", channel.size() - validLength);
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        this.appendedBytes = validLength;
+
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long appendAccount(Account account) {
+        byte[] number = utf8(account.getAccountNumber());
+        byte[] firstName = utf8(account.getFirstName());
+        byte[] otherName = utf8(account.getOtherName());
+        byte[] surname = utf8(account.getSurname());
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + length(number) + length(firstName) + length(otherName)
+                                                 + length(surname) + 8 + 4 + 4);
+        payload.put(ACCOUNT);
+        putString(payload, number);
+        putString(payload, firstName);
+        putString(payload, otherName);
+        putString(payload, surname);
+        OffsetDateTime created = account.getCreationDateTime();
+        payload.putLong(created.toEpochSecond());
+        payload.putInt(created.getNano());
+        payload.putInt(created.getOffset().getTotalSeconds());
+        return append(payload.array());
+    }
+
+    public long appendFunds(String accountNumber, long change, String requestID) {
+        byte[] number = utf8(accountNumber);
+        byte[] request = utf8(requestID);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + length(number) + length(request) + 8);
+        payload.put(FUNDS);
+        putString(payload, number);
+        putString(payload, request);
+        payload.putLong(change);
+        return append(payload.array());
+    }
+
+    public long appendTransfer(String fromAccountNumber, String toAccountNumber, long amount, String requestID) {
+        byte[] from = utf8(fromAccountNumber);
+        byte[] to = utf8(toAccountNumber);
+        byte[] request = utf8(requestID);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 6 + length(from) + length(to) + length(request) + 8);
+        payload.put(TRANSFER);
+        putString(payload, from);
+        putString(payload, to);
+        putString(payload, request);
+        payload.putLong(amount);
+        return append(payload.array());
+    }
+
+    /**
+     * Logs several transfers as one record, so that a crash never leaves only part of them in the log.
+     */
+    public long appendTransferBatch(List<Transfer> transfers) {
+        byte[][] fields = new byte[transfers.size() * 3][];
+        int length = 1 + 4;
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            fields[i * 3] = utf8(transfer.getFromAccountA().getAccountNumber());
+            fields[i * 3 + 1] = utf8(transfer.getToAccountB().getAccountNumber());
+            fields[i * 3 + 2] = utf8(transfer.getFromAccountA().getRequestID());
+            length += 6 + length(fields[i * 3]) + length(fields[i * 3 + 1]) + length(fields[i * 3 + 2]) + 8;
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Too many transfers to log as one record");
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.put(TRANSFER_BATCH);
+        payload.putInt(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            putString(payload, fields[i * 3]);
+            putString(payload, fields[i * 3 + 1]);
+            putString(payload, fields[i * 3 + 2]);
+            payload.putLong(transfers.get(i).getToAccountB().getAmount().getValue());
+        }
+        return append(payload.array());
+    }
+
+    private long append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        lock.lock();
+        try {
+            while (batchRecords >= maxBatchRecords && failure == null && !closed) {
+                batchFlushed.awaitUninterruptibly();
+            }
+            checkWritable();
+            if (batch.remaining() < HEADER_BYTES + payload.length) {
+                batch = grow(batch, HEADER_BYTES + payload.length);
+            }
+            batch.putInt(payload.length);
+            batch.putInt((int) crc.getValue());
+            batch.put(payload);
+            appendedBytes += HEADER_BYTES + payload.length;
+            if (++batchRecords == 1 || batchRecords == maxBatchRecords) {
+                batchReady.signal();
+            }
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new checkpoint epoch. Every record appended so far is before the cut, and every record
+     * appended from now on is after it.
+     */
+    public Cut beginCheckpoint() {
+        lock.lock();
+        try {
+            cut = new Cut(cut.getEpoch() + 1, appended, appendedBytes);
+            return cut;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the cut made by the most recent checkpoint
+     */
+    public Cut currentCut() {
+        return cut;
+    }
+
+    /**
+     * Blocks until the record with the given ticket has been written and synced to disk.
+     *
+     * @throws UncheckedIOException if the log failed before the record was synced
+     */
+    public void awaitDurable(long ticket) {
+        lock.lock();
+        try {
+            while (durable < ticket && failure == null) {
+                batchFlushed.awaitUninterruptibly();
+            }
+            if (durable < ticket) {
+                throw new UncheckedIOException("Write-ahead log is unavailable", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes once the record with the given ticket has been written and synced to disk, without
+     * blocking the caller. The future is completed on the flusher thread, so what it runs should be short.
+     * It fails with an {@link UncheckedIOException} if the log failed before the record was synced.
+     */
+    public CompletableFuture<Void> whenDurable(long ticket) {
+        lock.lock();
+        try {
+            if (durable >= ticket) {
+                return CompletableFuture.completedFuture(null);
+            }
+            DurableWaiter waiter = new DurableWaiter(ticket);
+            if (failure != null) {
+                waiter.completeExceptionally(new UncheckedIOException("Write-ahead log is unavailable", failure));
+            } else {
+                durableWaiters.add(waiter);
+            }
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log is unavailable", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer toWrite;
+            long lastTicket;
+            lock.lock();
+            try {
+                while (batchRecords == 0 && !closed) {
+                    batchReady.awaitUninterruptibly();
+                }
+                if (batchRecords == 0) {
+                    return;
+                }
+                // Give other requests the rest of the interval to join the batch before paying for the fsync
+                long remaining = flushIntervalNanos;
+                while (batchRecords < maxBatchRecords && remaining > 0 && !closed) {
+                    try {
+                        remaining = batchReady.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                toWrite = batch;
+                batch = spare;
+                spare = null;
+                lastTicket = appended;
+                batchRecords = 0;
+                batchFlushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Failed to write to the write-ahead log", e);
+                error = e;
+            }
+            toWrite.clear();
+
+            List<DurableWaiter> synced = new ArrayList<>();
+            lock.lock();
+            try {
+                spare = toWrite;
+                if (error != null) {
+                    failure = error;
+                    synced.addAll(durableWaiters);
+                    durableWaiters.clear();
+                } else {
+                    durable = lastTicket;
+                    while (!durableWaiters.isEmpty() && durableWaiters.peek().ticket <= lastTicket) {
+                        synced.add(durableWaiters.poll());
+                    }
+                }
+                batchFlushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for (DurableWaiter waiter : synced) {
+                if (error != null) {
+                    waiter.completeExceptionally(new UncheckedIOException("Write-ahead log is unavailable", error));
+                } else {
+                    waiter.complete(null);
+                }
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private static final class DurableWaiter extends CompletableFuture<Void> implements Comparable<DurableWaiter> {
+        final long ticket;
+
+        DurableWaiter(long ticket) {
+            this.ticket = ticket;
+        }
+
+        @Override
+        public int compareTo(DurableWaiter other) {
+            return Long.compare(ticket, other.ticket);
+        }
+    }
+
+    /**
+     * Reads back every complete record that was in the log when it was opened. Must be called before
+     * anything new is appended.
+     */
+    public void replay(Replayer replayer) throws IOException {
+        replay(0, replayer);
+    }
+
+    /**
+     * Reads back the records from the given position, which must be the start of a record such as the
+     * position of a checkpoint's cut, to the end of the log as it was when opened.
+     */
+    public void replay(long fromPosition, Replayer replayer) throws IOException {
+        if (fromPosition > validLength) {
+            throw new IOException("Log ends at " + validLength + ", before position " + fromPosition);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = fromPosition;
+        while (position < validLength) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            payload.flip();
+            dispatch(payload, replayer);
+            position += HEADER_BYTES + length;
+        }
+    }
+
+    private static void dispatch(ByteBuffer payload, Replayer replayer) {
+        byte type = payload.get();
+        switch (type) {
+            case ACCOUNT:
+                String accountNumber = getString(payload);
+                String firstName = getString(payload);
+                String otherName = getString(payload);
+                String surname = getString(payload);
+                long epochSecond = payload.getLong();
+                int nano = payload.getInt();
+                ZoneOffset offset = ZoneOffset.ofTotalSeconds(payload.getInt());
+                replayer.onAccount(Account.AccountBuilder.anAccount()
+                        .withAccountNumber(accountNumber)
+                        .withFirstName(firstName)
+                        .withOtherName(otherName)
+                        .withSurname(surname)
+                        .withCreationDateTime(OffsetDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano), offset))
+                        .build());
+                break;
+            case FUNDS:
+                String number = getString(payload);
+                String requestID = getString(payload);
+                replayer.onFunds(number, payload.getLong(), requestID);
+                break;
+            case TRANSFER:
+                String from = getString(payload);
+                String to = getString(payload);
+                String transferRequestID = getString(payload);
+                replayer.onTransfer(from, to, payload.getLong(), transferRequestID);
+                break;
+            case TRANSFER_BATCH:
+                int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    String batchFrom = getString(payload);
+                    String batchTo = getString(payload);
+                    String batchRequestID = getString(payload);
+                    replayer.onTransfer(batchFrom, batchTo, payload.getLong(), batchRequestID);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type + " in the write-ahead log");
+        }
+    }
+
+    /**
+     * @return the length of the run of complete, uncorrupted records at the start of the log
+     */
+    private static long scan(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the write-ahead log");
+            }
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort(NULL_STRING);
+            return;
+        }
+        if (value.length >= (NULL_STRING & 0xffff)) {
+            throw new IllegalArgumentException("Value too long to be logged");
+        }
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] value = new byte[length & 0xffff];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Flushes whatever has been appended, stops the flusher and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * The point in the log a checkpoint is taken at.
+     */
+    public static final class Cut {
+        private final int epoch;
+        private final long ticket;
+        private final long position;
+
+        Cut(int epoch, long ticket, long position) {
+            this.epoch = epoch;
+            this.ticket = ticket;
+            this.position = position;
+        }
+
+        public int getEpoch() {
+            return epoch;
+        }
+
+        /**
+         * @return the ticket of the last record before the cut
+         */
+        public long getTicket() {
+            return ticket;
+        }
+
+        /**
+         * @return the byte offset in the log of the first record after the cut
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public boolean includes(long ticket) {
+            return ticket <= this.ticket;
+        }
+    }
+
+    public interface Replayer {
+        void onAccount(Account account);
+
+        void onFunds(String accountNumber, long change, String requestID);
+
+        void onTransfer(String fromAccountNumber, String toAccountNumber, long amount, String requestID);
+    }
+}
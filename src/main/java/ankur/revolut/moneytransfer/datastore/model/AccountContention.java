@@ -0,0 +1,60 @@
+package ankur.revolut.moneytransfer.datastore.model;
+
+/**
+ * How often changes had to wait for an account's lock, and for how long. {@code contended} may overstate
+ * the true count by up to {@code countError}, as the account may have replaced another in the profile.
+ */
+public class AccountContention {
+    private final String accountNumber;
+    private final long contended;
+    private final long countError;
+    private final long timedOut;
+    private final long waitP50Nanos;
+    private final long waitP99Nanos;
+    private final long waitMaxNanos;
+    private final boolean hot;
+
+    public AccountContention(String accountNumber, long contended, long countError, long timedOut, long waitP50Nanos,
+                             long waitP99Nanos, long waitMaxNanos, boolean hot) {
+        this.accountNumber = accountNumber;
+        this.contended = contended;
+        this.countError = countError;
+        this.timedOut = timedOut;
+        this.waitP50Nanos = waitP50Nanos;
+        this.waitP99Nanos = waitP99Nanos;
+        this.waitMaxNanos = waitMaxNanos;
+        this.hot = hot;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public long getContended() {
+        return contended;
+    }
+
+    public long getCountError() {
+        return countError;
+    }
+
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    public long getWaitP50Nanos() {
+        return waitP50Nanos;
+    }
+
+    public long getWaitP99Nanos() {
+        return waitP99Nanos;
+    }
+
+    public long getWaitMaxNanos() {
+        return waitMaxNanos;
+    }
+
+    public boolean isHot() {
+        return hot;
+    }
+}
@@ -0,0 +1,30 @@
+package ankur.revolut.moneytransfer.datastore.model;
+
+/**
+ * An account together with its balance, both read from a single lookup of the account. The version counts
+ * the changes made to the balance, so together with the amount it tells whether the account has changed
+ * since an earlier snapshot.
+ */
+public class AccountSnapshot {
+    private final Account account;
+    private final Amount amount;
+    private final long version;
+
+    public AccountSnapshot(Account account, Amount amount, long version) {
+        this.account = account;
+        this.amount = amount;
+        this.version = version;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public Amount getAmount() {
+        return amount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
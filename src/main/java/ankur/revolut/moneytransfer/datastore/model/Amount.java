@@ -1,29 +1,67 @@
 package ankur.revolut.moneytransfer.datastore.model;
 
+import java.math.BigDecimal;
 import java.util.Currency;
 import java.util.Objects;
 
+/**
+ * A sum of money held as a whole number of the currency's minor unit (pence for GBP),
+ * so that balances never pick up binary floating point rounding errors.
+ */
 public class Amount {
 
     private static Currency GBP = Currency.getInstance("GBP");
+    private static int GBP_FRACTION_DIGITS = GBP.getDefaultFractionDigits();
     public static Amount ZERO = newAmount(0);
+    private static final BigDecimal MIN_MINOR_UNITS = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal MAX_MINOR_UNITS = BigDecimal.valueOf(Long.MAX_VALUE);
 
-    private final float value;
+    private final long value;
     private final Currency currency;
 
-    private Amount(float value, Currency currency) {
+    private Amount(long value, Currency currency) {
         this.value = value;
         this.currency = currency;
     }
 
-    public static Amount newAmount(float value) {
-        return new Amount(value, GBP);
+    public static Amount newAmount(long minorUnits) {
+        return new Amount(minorUnits, GBP);
     }
 
-    public float getValue() {
+    /**
+     * @throws ArithmeticException if the amount has a fraction of a minor unit or does not fit in a long
+     */
+    public static long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(GBP_FRACTION_DIGITS).longValueExact();
+    }
+
+    /**
+     * @return whether {@link #toMinorUnits} would accept the amount, found without it having to throw
+     */
+    public static boolean isMinorUnits(BigDecimal amount) {
+        if (amount == null) {
+            return false;
+        }
+        BigDecimal minorUnits = amount.movePointRight(GBP_FRACTION_DIGITS);
+        return (minorUnits.scale() <= 0 || minorUnits.stripTrailingZeros().scale() <= 0)
+                && minorUnits.compareTo(MIN_MINOR_UNITS) >= 0 && minorUnits.compareTo(MAX_MINOR_UNITS) <= 0;
+    }
+
+    public static BigDecimal toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, GBP_FRACTION_DIGITS);
+    }
+
+    /**
+     * @return the amount in minor units
+     */
+    public long getValue() {
         return value;
     }
 
+    public BigDecimal toDecimal() {
+        return BigDecimal.valueOf(value, currency.getDefaultFractionDigits());
+    }
+
     public Currency getCurrency() {
         return currency;
     }
@@ -33,7 +71,7 @@ public class Amount {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Amount amount = (Amount) o;
-        return Float.compare(amount.value, value) == 0 &&
+        return value == amount.value &&
                 currency.equals(amount.currency);
     }
 
@@ -0,0 +1,35 @@
+package ankur.revolut.moneytransfer.datastore.model;
+
+/**
+ * A change made to an account's balance. Entries are numbered from 1 in the order they were recorded for
+ * the account. The counterparty is the other account of a transfer, and null for money added or taken.
+ */
+public class HistoryEntry {
+    private final long id;
+    private final long timeMillis;
+    private final Amount amount;
+    private final String counterparty;
+
+    public HistoryEntry(long id, long timeMillis, Amount amount, String counterparty) {
+        this.id = id;
+        this.timeMillis = timeMillis;
+        this.amount = amount;
+        this.counterparty = counterparty;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public Amount getAmount() {
+        return amount;
+    }
+
+    public String getCounterparty() {
+        return counterparty;
+    }
+}
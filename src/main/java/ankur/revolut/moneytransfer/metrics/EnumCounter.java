@@ -0,0 +1,62 @@
+package ankur.revolut.moneytransfer.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of every value of an enum, such as the outcome of a change, for each value of one other label.
+ * Every value is exported, including those not yet seen, so that a rate can be taken from the start.
+ */
+public final class EnumCounter<E extends Enum<E>> implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String labelName;
+    private final String enumLabelName;
+    private final E[] values;
+    private final Map<String, Child> children = new ConcurrentHashMap<>();
+
+    EnumCounter(String name, String help, String labelName, String enumLabelName, Class<E> type) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+        this.enumLabelName = enumLabelName;
+        this.values = type.getEnumConstants();
+    }
+
+    public Child labels(String labelValue) {
+        return children.computeIfAbsent(labelValue, value -> new Child());
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        children.forEach((labelValue, child) -> {
+            for (E value : values) {
+                out.append(name).append('{').append(labelName).append("=\"").append(Metric.escape(labelValue))
+                   .append("\",").append(enumLabelName).append("=\"").append(value.name()).append("\"} ")
+                   .append(child.counts[value.ordinal()].sum()).append('\n');
+            }
+        });
+    }
+
+    public final class Child {
+        private final LongAdder[] counts = new LongAdder[values.length];
+
+        private Child() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void increment(E value) {
+            counts[value.ordinal()].increment();
+        }
+
+        public long get(E value) {
+            return counts[value.ordinal()].sum();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ankur.revolut.moneytransfer.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations bucketed by powers of two nanoseconds, from about a microsecond up to 17 seconds, for each
+ * value of one label. Children are made once, up front, so recording is a bucket index computed from the
+ * leading zeros of the duration and two {@link LongAdder} increments, without locks or allocation.
+ */
+public final class Histogram implements Metric {
+
+    // Bucket i holds durations up to 2^(MIN_SHIFT + i) nanoseconds, the last one anything longer
+    private static final int MIN_SHIFT = 10;
+    private static final int BOUNDS = 25;
+
+    private final String name;
+    private final String help;
+    private final String labelName;
+    private final Map<String, Child> children = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+    }
+
+    /**
+     * The histogram for one label value, which callers keep rather than looking it up per recording.
+     */
+    public Child labels(String labelValue) {
+        return children.computeIfAbsent(labelValue, value -> new Child());
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        children.forEach((labelValue, child) -> child.writeTo(out, Metric.escape(labelValue)));
+    }
+
+    static int bucket(long nanos) {
+        if (nanos <= 1L << MIN_SHIFT) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT, BOUNDS);
+    }
+
+    public final class Child {
+        private final LongAdder[] buckets = new LongAdder[BOUNDS + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Child() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            buckets[bucket(nanos)].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Records the time since {@code startNanos}, a {@link System#nanoTime} reading.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private void writeTo(StringBuilder out, String labelValue) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(labelName).append("=\"").append(labelValue)
+                   .append("\",le=\"").append(i < BOUNDS ? Double.toString((1L << (MIN_SHIFT + i)) / 1e9) : "+Inf")
+                   .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{").append(labelName).append("=\"").append(labelValue).append("\"} ")
+               .append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count{").append(labelName).append("=\"").append(labelValue).append("\"} ")
+               .append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ankur.revolut.moneytransfer.metrics;
+
+interface Metric {
+
+    /**
+     * Appends this metric in the Prometheus text exposition format.
+     */
+    void writeTo(StringBuilder out);
+
+    static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
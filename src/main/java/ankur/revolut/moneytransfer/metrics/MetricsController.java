@@ -0,0 +1,14 @@
+package ankur.revolut.moneytransfer.metrics;
+
+import static spark.Spark.get;
+
+public class MetricsController {
+
+    public MetricsController(MetricsRegistry registry) {
+
+        get("/metrics", (request, response) -> {
+            response.type("text/plain; version=0.0.4; charset=utf-8");
+            return registry.scrape();
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package ankur.revolut.moneytransfer.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The metrics exported on {@code /metrics}. Classes register theirs in static fields on
+ * {@link #DEFAULT}, so that recording needs no registry lookup.
+ */
+public final class MetricsRegistry {
+
+    public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public Histogram histogram(String name, String help, String labelName) {
+        return register(new Histogram(name, help, labelName));
+    }
+
+    public <E extends Enum<E>> EnumCounter<E> enumCounter(String name, String help, String labelName,
+                                                          String enumLabelName, Class<E> type) {
+        return register(new EnumCounter<>(name, help, labelName, enumLabelName, type));
+    }
+
+    /**
+     * Every metric in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics) {
+            metric.writeTo(out);
+        }
+        return out.toString();
+    }
+
+    private <M extends Metric> M register(M metric) {
+        metrics.add(metric);
+        return metric;
+    }
+}
@@ -0,0 +1,204 @@
+package ankur.revolut.moneytransfer.server;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.ForwardedRequestCustomizer;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.ExceptionMapper;
+import spark.embeddedserver.EmbeddedServer;
+import spark.embeddedserver.EmbeddedServerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyServer;
+import spark.embeddedserver.jetty.JettyHandler;
+import spark.embeddedserver.jetty.JettyServerFactory;
+import spark.http.matching.MatcherFilter;
+import spark.route.Routes;
+import spark.staticfiles.StaticFilesConfiguration;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spark's embedded Jetty, except that a route may call {@code request.raw().startAsync()} and write its
+ * response later from the {@link AsyncContext}. Spark itself always writes the route's return value and
+ * closes the response as soon as the route returns, so here it is told the response is already
+ * committed once the route has gone async. Request bodies are read straight from the connection
+ * rather than first being copied into an array by Spark. The thread pool and connector are set up from
+ * {@link ServerSettings}.
+ */
+public class AsyncJettyFactory implements EmbeddedServerFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncJettyFactory.class);
+
+    private final ServerSettings settings;
+
+    private AsyncJettyFactory(ServerSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Makes Spark use this factory for the server it starts. Must be called before any route is added.
+     */
+    public static void install(ServerSettings settings) {
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new AsyncJettyFactory(settings));
+    }
+
+    /**
+     * @return the executor the request's connection is served from, on which a response that is written
+     *         later can be handed back to a request thread
+     */
+    public static Executor executorFor(HttpServletRequest request) {
+        return Request.getBaseRequest(request).getHttpChannel().getConnector().getExecutor();
+    }
+
+    @Override
+    public EmbeddedServer create(Routes routeMatcher, StaticFilesConfiguration staticFilesConfiguration,
+                                 ExceptionMapper exceptionMapper, boolean hasMultipleHandler) {
+        MatcherFilter matcherFilter = new AsyncMatcherFilter(routeMatcher, staticFilesConfiguration, exceptionMapper,
+                                                             hasMultipleHandler);
+        matcherFilter.init(null);
+
+        JettyHandler handler = new StreamingJettyHandler(matcherFilter);
+        handler.getSessionCookieConfig().setHttpOnly(true);
+        return new EmbeddedJettyServer(new ServerFactory(settings), handler);
+    }
+
+    private static final class AsyncMatcherFilter extends MatcherFilter {
+
+        AsyncMatcherFilter(Routes routeMatcher, StaticFilesConfiguration staticFiles, ExceptionMapper exceptionMapper,
+                           boolean hasOtherHandlers) {
+            super(routeMatcher, staticFiles, exceptionMapper, false, hasOtherHandlers);
+        }
+
+        @Override
+        public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+                throws IOException, ServletException {
+            AsyncTrackingRequest request = new AsyncTrackingRequest((HttpServletRequest) servletRequest);
+            super.doFilter(request, new AsyncAwareResponse(request, (HttpServletResponse) servletResponse), chain);
+        }
+    }
+
+    /**
+     * Spark's handler wraps every request so its body can be read more than once, which means reading it
+     * all into an array first. The routes here read a body once, so it is left on the connection. The
+     * request is always marked handled, as Spark's handler does when there is only one.
+     */
+    private static final class StreamingJettyHandler extends JettyHandler {
+        private final Filter filter;
+
+        StreamingJettyHandler(Filter filter) {
+            super(filter);
+            this.filter = filter;
+        }
+
+        @Override
+        public void doHandle(String target, Request baseRequest, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException, ServletException {
+            filter.doFilter(request, response, null);
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private static final class AsyncTrackingRequest extends HttpServletRequestWrapper {
+        // The async context may already be complete by the time Spark looks, so remember it was started
+        private boolean asyncStarted;
+
+        AsyncTrackingRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            asyncStarted = true;
+            return super.startAsync();
+        }
+    }
+
+    private static final class AsyncAwareResponse extends HttpServletResponseWrapper {
+        private final AsyncTrackingRequest request;
+
+        AsyncAwareResponse(AsyncTrackingRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return request.asyncStarted || super.isCommitted();
+        }
+    }
+
+    /**
+     * Ignores the thread pool sizes Spark passes in for those in the settings. Spark listens on the
+     * connector set up here, rather than its own, because the server already has one.
+     */
+    static final class ServerFactory implements JettyServerFactory {
+        private final ServerSettings settings;
+
+        ServerFactory(ServerSettings settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+            return create(threadPool());
+        }
+
+        @Override
+        public Server create(ThreadPool threadPool) {
+            Server server = new Server(threadPool);
+            HttpConfiguration httpConfig = new HttpConfiguration();
+            httpConfig.setSecureScheme("https");
+            httpConfig.addCustomizer(new ForwardedRequestCustomizer());
+            ServerConnector connector = new ServerConnector(server, settings.getAcceptors(), settings.getSelectors(),
+                                                            new HttpConnectionFactory(httpConfig));
+            connector.setIdleTimeout(TimeUnit.HOURS.toMillis(1));
+            connector.setHost(settings.getHost());
+            connector.setPort(settings.getPort());
+            connector.setAcceptQueueSize(settings.getAcceptQueueSize());
+            server.setConnectors(new Connector[]{connector});
+            log.info("Serving on {}", settings);
+            return server;
+        }
+
+        ThreadPool threadPool() {
+            if (settings.isVirtualThreads()) {
+                try {
+                    Method newExecutor = Class.forName(AsyncJettyFactory.class.getPackage().getName() + ".VirtualThreads")
+                                              .getDeclaredMethod("newExecutor");
+                    newExecutor.setAccessible(true);
+                    return new VirtualThreadPool((ExecutorService) newExecutor.invoke(null));
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    log.warn("Virtual threads need the virtual-threads build on Java 21 or later, using a thread pool instead");
+                }
+            }
+            BlockingQueue<Runnable> queue = settings.getMaxQueuedRequests() > 0
+                    ? new BlockingArrayQueue<>(settings.getMaxQueuedRequests())
+                    : new BlockingArrayQueue<>(settings.getMinThreads(), settings.getMinThreads());
+            return new QueuedThreadPool(settings.getMaxThreads(), settings.getMinThreads(),
+                                        settings.getIdleTimeoutMillis(), queue);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ankur.revolut.moneytransfer.server;
+
+/**
+ * How the embedded Jetty server listens and which threads it runs requests on, read from
+ * {@code -Dserver.*} system properties. A value left at -1 (or 0 for the queues) keeps Jetty's default.
+ */
+public final class ServerSettings {
+
+    private final String host;
+    private final int port;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int idleTimeoutMillis;
+    private final int acceptors;
+    private final int selectors;
+    private final int acceptQueueSize;
+    private final int maxQueuedRequests;
+    private final boolean virtualThreads;
+    private final int binaryPort;
+
+    private ServerSettings(String host, int port, int minThreads, int maxThreads, int idleTimeoutMillis, int acceptors,
+                           int selectors, int acceptQueueSize, int maxQueuedRequests, boolean virtualThreads,
+                           int binaryPort) {
+        this.host = host;
+        this.port = port;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acceptors = acceptors;
+        this.selectors = selectors;
+        this.acceptQueueSize = acceptQueueSize;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.virtualThreads = virtualThreads;
+        this.binaryPort = binaryPort;
+    }
+
+    /**
+     * <ul>
+     * <li>{@code server.host}, {@code server.port}: where to listen, 0.0.0.0:8080 by default</li>
+     * <li>{@code server.minThreads}, {@code server.maxThreads}, {@code server.idleTimeoutMillis}: the request
+     * thread pool, 8 to 200 threads with idle ones stopped after 60 seconds by default</li>
+     * <li>{@code server.acceptors}, {@code server.selectors}: threads accepting connections and selecting
+     * on them, by default picked by Jetty from the core count</li>
+     * <li>{@code server.acceptQueueSize}: connections the OS holds waiting to be accepted</li>
+     * <li>{@code server.maxQueuedRequests}: requests waiting for a thread before new ones are turned away,
+     * unbounded by default</li>
+     * <li>{@code server.virtualThreads}: run every request on a virtual thread of its own instead of the
+     * pool, which needs the {@code virtual-threads} build on Java 21 or later</li>
+     * <li>{@code server.binaryPort}: where to also serve the binary protocol, off by default</li>
+     * </ul>
+     */
+    public static ServerSettings fromSystemProperties() {
+        return new ServerSettings(System.getProperty("server.host", "0.0.0.0"),
+                                  Integer.getInteger("server.port", 8080),
+                                  Integer.getInteger("server.minThreads", 8),
+                                  Integer.getInteger("server.maxThreads", 200),
+                                  Integer.getInteger("server.idleTimeoutMillis", 60000),
+                                  Integer.getInteger("server.acceptors", -1),
+                                  Integer.getInteger("server.selectors", -1),
+                                  Integer.getInteger("server.acceptQueueSize", 0),
+                                  Integer.getInteger("server.maxQueuedRequests", 0),
+                                  Boolean.getBoolean("server.virtualThreads"),
+                                  Integer.getInteger("server.binaryPort", 0));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return the port for the binary protocol, or 0 if it is not served
+     */
+    public int getBinaryPort() {
+        return binaryPort;
+    }
+
+    @Override
+    public String toString() {
+        return virtualThreads
+                ? String.format("%s:%d on virtual threads", host, port)
+                : String.format("%s:%d on %d-%d threads", host, port, minThreads, maxThreads);
+    }
+}
@@ -0,0 +1,18 @@
+package ankur.revolut.moneytransfer.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Only in the {@code virtual-threads} build, which needs Java 21. Looked up by name from
+ * {@link AsyncJettyFactory}, so that the rest of the service still builds and runs on Java 8.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static ExecutorService newExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory());
+    }
+}
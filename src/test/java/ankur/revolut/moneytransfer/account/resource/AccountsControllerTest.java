@@ -3,6 +3,7 @@ package ankur.revolut.moneytransfer.account.resource;
 import ankur.revolut.moneytransfer.Main;
 import ankur.revolut.moneytransfer.account.model.AccountRequest;
 import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.BatchTransferRequest;
 import ankur.revolut.moneytransfer.account.model.TransferRequest;
 import ankur.revolut.moneytransfer.account.service.ObjectMapper;
 import org.junit.AfterClass;
@@ -16,24 +17,31 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 
 import static java.security.MessageDigest.getInstance;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class AccountsControllerTest {
 
     static ObjectMapper objectMapper = new ObjectMapper();
+    static AtomicLong requestCounter = new AtomicLong();
 
     @BeforeClass
     public static void beforeClass() {
@@ -56,7 +64,7 @@ public class AccountsControllerTest {
         TestResponse res = request("POST", "/v1/accounts", req);
 
         // then
-        String expected = "{\"reason\":\"Success\",\"status\":201,\"firstName\":\"Ankur\",\"otherName\":\"\",\"surname\":\"Agarwal\",\"accountNumber\":\"000000001\",\"totalAmount\":0.0}";
+        String expected = "{\"reason\":\"Success\",\"status\":201,\"firstName\":\"Ankur\",\"otherName\":\"\",\"surname\":\"Agarwal\",\"accountNumber\":\"000000001\",\"totalAmount\":0.00}";
         assertEquals(201, res.getStatus());
         assertEquals(expected, res.getBody());
     }
@@ -74,7 +82,7 @@ public class AccountsControllerTest {
 
         // then
         String expected = String.format("{\"reason\":\"Success\",\"status\":200,\"firstName\":\"Ankur\"," +
-                "\"otherName\":\"\",\"surname\":\"Agarwal\",\"accountNumber\":\"%s\",\"totalAmount\":0.0}", accountNum);
+                "\"otherName\":\"\",\"surname\":\"Agarwal\",\"accountNumber\":\"%s\",\"totalAmount\":0.00}", accountNum);
         assertEquals(200, res.getStatus());
         assertEquals(expected, res.getBody());
     }
@@ -103,7 +111,7 @@ public class AccountsControllerTest {
         res = request("GET", String.format("/v1/accounts/%s/money", accountNum));
 
         // then
-        String expected = "{\"reason\":\"Success\",\"status\":200,\"totalAmount\":0.0}";
+        String expected = "{\"reason\":\"Success\",\"status\":200,\"totalAmount\":0.00}";
         assertEquals(200, res.getStatus());
         assertEquals(expected, res.getBody());
     }
@@ -121,11 +129,45 @@ public class AccountsControllerTest {
         res = request("PATCH", String.format("/v1/accounts/%s/money", accountNum), req2);
 
         // then
-        String expected = "{\"reason\":\"Funds added\",\"status\":200,\"totalAmount\":10.0}";
+        String expected = "{\"reason\":\"Funds added\",\"status\":200,\"totalAmount\":10.00}";
         assertEquals(200, res.getStatus());
         assertEquals(expected, res.getBody());
     }
 
+    @Test
+    public void addAmountToAccountRequestFailsWithFractionOfPenny() {
+        // given
+        AccountRequest req = givenAccountRequest();
+        Map<String, Object> req2 = new HashMap<>();
+        req2.put("amount", new BigDecimal("10.005"));
+        req2.put("requestID", hashString("10.005"));
+
+        TestResponse res = request("POST", "/v1/accounts", req);
+        String accountNum = getAccountNumber(res.getBody());
+
+        // when
+        res = request("PATCH", String.format("/v1/accounts/%s/money", accountNum), req2);
+
+        // then
+        assertEquals(400, res.getStatus());
+    }
+
+    @Test
+    public void requestsWithBodiesThatAreNotObjectsAreRejected() {
+        // given
+        TestResponse res = request("POST", "/v1/accounts", givenAccountRequest());
+        String accountNum = getAccountNumber(res.getBody());
+
+        // when
+        TestResponse newAccount = request("POST", "/v1/accounts", "Ankur Agarwal");
+        TestResponse transfer = request("PATCH", String.format("/v1/accounts/%s/money/transfer", accountNum),
+                                        new Object[] {"10.00", accountNum});
+
+        // then
+        assertEquals(400, newAccount.getStatus());
+        assertEquals(400, transfer.getStatus());
+    }
+
     @Test
     public void ensureLocksWorkingWhenAddingToAccount() {
         // given
@@ -164,7 +206,7 @@ public class AccountsControllerTest {
     }
 
     @Test
-    public void addAmountToAccountRequestFailedDueToRequestAlreadyComplete() {
+    public void addAmountToAccountRequestReplayedWhenRequestAlreadyComplete() {
         // given
         AccountRequest req = givenAccountRequest();
         AmountRequest req2 = givenAmountRequest(10);
@@ -177,7 +219,9 @@ public class AccountsControllerTest {
         res = request("PATCH", String.format("/v1/accounts/%s/money", accountNum), req2);
 
         // then
-        assertEquals(409, res.getStatus());
+        String expected = "{\"reason\":\"Funds added\",\"status\":200}";
+        assertEquals(200, res.getStatus());
+        assertEquals(expected, res.getBody());
     }
 
     @Test
@@ -198,11 +242,59 @@ public class AccountsControllerTest {
         res = request("PATCH", String.format("/v1/accounts/%s/money/transfer", accountNumA), req3);
 
         // then
-        String expected = "{\"reason\":\"Funds added\",\"status\":200,\"totalAmount\":35.0}";
+        String expected = "{\"reason\":\"Funds added\",\"status\":200,\"totalAmount\":35.00}";
         assertEquals(200, res.getStatus());
         assertEquals(expected, res.getBody());
     }
 
+    @Test
+    public void batchTransferRequest() {
+        // given
+        AccountRequest req = givenAccountRequest();
+        TestResponse res = request("POST", "/v1/accounts", req);
+        String accountNumA = getAccountNumber(res.getBody());
+        res = request("POST", "/v1/accounts", req);
+        String accountNumB = getAccountNumber(res.getBody());
+        request("PATCH", String.format("/v1/accounts/%s/money", accountNumA), givenAmountRequest(100));
+
+        BatchTransferRequest batch = new BatchTransferRequest();
+        batch.setTransfers(Arrays.asList(givenBatchItem(accountNumA, accountNumB, 60),
+                                         givenBatchItem(accountNumB, accountNumA, 20)));
+
+        // when
+        res = request("POST", "/v1/transfers/batch", batch);
+
+        // then
+        assertEquals(200, res.getStatus());
+        assertTrue(res.getBody().startsWith("{\"reason\":\"Batch processed\",\"status\":200,\"results\":[{"));
+        assertEquals("{\"reason\":\"Success\",\"status\":200,\"totalAmount\":60.00}",
+                     request("GET", String.format("/v1/accounts/%s/money", accountNumA)).getBody());
+    }
+
+    @Test
+    public void batchTransferRequestAllOrNothingRejected() {
+        // given
+        AccountRequest req = givenAccountRequest();
+        TestResponse res = request("POST", "/v1/accounts", req);
+        String accountNumA = getAccountNumber(res.getBody());
+        res = request("POST", "/v1/accounts", req);
+        String accountNumB = getAccountNumber(res.getBody());
+        request("PATCH", String.format("/v1/accounts/%s/money", accountNumA), givenAmountRequest(100));
+
+        BatchTransferRequest batch = new BatchTransferRequest();
+        batch.setAllOrNothing(true);
+        batch.setTransfers(Arrays.asList(givenBatchItem(accountNumA, accountNumB, 60),
+                                         givenBatchItem(accountNumA, accountNumB, 60)));
+
+        // when
+        res = request("POST", "/v1/transfers/batch", batch);
+
+        // then
+        assertEquals(400, res.getStatus());
+        assertEquals("{\"reason\":\"Success\",\"status\":200,\"totalAmount\":100.00}",
+                     request("GET", String.format("/v1/accounts/%s/money", accountNumA)).getBody());
+    }
+
     @Test
     public void addAmountToAccountRequestFailWhenUsingSameAccountToTransferBetween() {
         // given
@@ -309,6 +401,97 @@ public class AccountsControllerTest {
         assertEquals(numRequests, totalResponses.get());
     }
 
+    @Test
+    public void metricsRequest() {
+        // given
+        AccountRequest req = givenAccountRequest();
+        TestResponse res = request("POST", "/v1/accounts", req);
+        String accountNum = getAccountNumber(res.getBody());
+        request("PATCH", String.format("/v1/accounts/%s/money", accountNum), givenAmountRequest(10));
+
+        // when
+        res = request("GET", "/metrics");
+
+        // then
+        assertEquals(200, res.getStatus());
+        assertTrue(res.getBody().contains("http_request_duration_seconds_count{route=\"POST /v1/accounts\"}"));
+        assertTrue(res.getBody().contains("http_request_duration_seconds_count{route=\"PATCH /v1/accounts/:accountNumber/money\"}"));
+        assertTrue(res.getBody().contains("ledger_fund_outcomes_total{operation=\"add_funds\",outcome=\"SUCCESS\"}"));
+        assertTrue(res.getBody().contains("ledger_lock_wait_seconds_count{operation=\"transfer\"}"));
+    }
+
+    @Test
+    public void contentionRequest() {
+        // when
+        TestResponse res = request("GET", "/admin/contention?limit=5");
+        TestResponse tooMany = request("GET", "/admin/contention?limit=1000");
+
+        // then
+        assertEquals(200, res.getStatus());
+        assertTrue(res.getBody().startsWith("{\"reason\":\"Success\",\"status\":200,\"accounts\":["));
+        assertEquals(400, tooMany.getStatus());
+    }
+
+    @Test
+    public void transactionsRequestPagesBackThroughHistory() {
+        // given
+        TestResponse res = request("POST", "/v1/accounts", givenAccountRequest());
+        String accountNumA = getAccountNumber(res.getBody());
+        res = request("POST", "/v1/accounts", givenAccountRequest());
+        String accountNumB = getAccountNumber(res.getBody());
+        request("PATCH", String.format("/v1/accounts/%s/money", accountNumA), givenAmountRequest(100));
+        request("PATCH", String.format("/v1/accounts/%s/money/transfer", accountNumA), givenTransferRequest(65, accountNumB));
+
+        // when
+        TestResponse first = request("GET", String.format("/v1/accounts/%s/transactions?limit=1", accountNumA));
+        TestResponse second = request("GET", String.format("/v1/accounts/%s/transactions?limit=1&before=2", accountNumA));
+        TestResponse unknown = request("GET", "/v1/accounts/999999999/transactions");
+        TestResponse badCursor = request("GET", String.format("/v1/accounts/%s/transactions?before=x", accountNumA));
+
+        // then
+        assertEquals(200, first.getStatus());
+        assertTrue(first.getBody(), first.getBody().matches(
+                "\\{\"reason\":\"Success\",\"status\":200,\"transactions\":\\[\\{\"id\":2,\"time\":\"[^\"]+\","
+                + "\"amount\":-65\\.00,\"counterparty\":\"" + accountNumB + "\"}],\"next\":2}"));
+        assertTrue(second.getBody(), second.getBody().matches(
+                "\\{\"reason\":\"Success\",\"status\":200,\"transactions\":\\[\\{\"id\":1,\"time\":\"[^\"]+\","
+                + "\"amount\":100\\.00}]}"));
+        assertEquals(404, unknown.getStatus());
+        assertEquals(400, badCursor.getStatus());
+    }
+
+    @Test
+    public void accountRequestWithCurrentETagIsNotModified() throws IOException {
+        // given
+        TestResponse res = request("POST", "/v1/accounts", givenAccountRequest());
+        String accountNum = getAccountNumber(res.getBody());
+        String path = String.format("/v1/accounts/%s", accountNum);
+        String eTag = conditionalGet(path, null).getHeaderField("ETag");
+
+        // when
+        HttpURLConnection unchanged = conditionalGet(path, eTag);
+        HttpURLConnection weak = conditionalGet(path, "\"other\", W/" + eTag);
+        request("PATCH", String.format("/v1/accounts/%s/money", accountNum), givenAmountRequest(100));
+        HttpURLConnection changed = conditionalGet(path, eTag);
+
+        // then
+        assertEquals(304, unchanged.getResponseCode());
+        assertEquals(eTag, unchanged.getHeaderField("ETag"));
+        assertEquals(304, weak.getResponseCode());
+        assertEquals(200, changed.getResponseCode());
+        assertNotEquals(eTag, changed.getHeaderField("ETag"));
+        assertTrue(IOUtils.toString(changed.getInputStream()).endsWith("\"totalAmount\":100.00}"));
+    }
+
+    private static HttpURLConnection conditionalGet(String path, String ifNoneMatch) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8080" + path).openConnection();
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        connection.getResponseCode();
+        return connection;
+    }
+
     private void shutdownExecutor(ExecutorService executor) {
         try {
             executor.shutdown();
@@ -339,19 +522,28 @@ public class AccountsControllerTest {
 
     private AmountRequest givenAmountRequest(float amount) {
         AmountRequest req = new AmountRequest();
-        req.setAmount(amount);
+        req.setAmount(BigDecimal.valueOf(amount));
         req.setRequestID(hashString(String.valueOf(amount)));
         return req;
     }
 
     private TransferRequest givenTransferRequest(float amount, String accountNumB) {
         TransferRequest req = new TransferRequest();
-        req.setAmount(amount);
+        req.setAmount(BigDecimal.valueOf(amount));
         req.setTo(accountNumB);
         req.setRequestID(hashString(String.valueOf(amount)));
         return req;
     }
 
+    private BatchTransferRequest.Item givenBatchItem(String from, String to, long amount) {
+        BatchTransferRequest.Item item = new BatchTransferRequest.Item();
+        item.setFrom(from);
+        item.setTo(to);
+        item.setAmount(BigDecimal.valueOf(amount));
+        item.setRequestID(hashString(from + to + requestCounter.incrementAndGet()));
+        return item;
+    }
+
     private String hashString(String value) {
         MessageDigest MD5 = null;
         try {
@@ -359,7 +551,7 @@ public class AccountsControllerTest {
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
-        String newValue = value + OffsetDateTime.now().toString();
+        String newValue = value + OffsetDateTime.now().toString() + requestCounter.incrementAndGet();
         return DatatypeConverter.printHexBinary(MD5.digest(newValue.getBytes()));
     }
 
@@ -2,7 +2,12 @@ package ankur.revolut.moneytransfer.account.service;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class AccountNumberCreatorTest {
 
@@ -19,4 +24,102 @@ public class AccountNumberCreatorTest {
         assertEquals("000000001", newAccountNumber1);
         assertEquals("000000002", newAccountNumber2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void accountNumbersNameTheNodeThatCreatedThem() {
+        // given
+        AccountNumberCreator numberCreator = new AccountNumberCreator(42, 7);
+
+        // when
+        String newAccountNumber = numberCreator.createAccountNumber();
+
+        // then
+        assertEquals("42000000008", newAccountNumber);
+        assertEquals(42, AccountNumberCreator.nodeOf(newAccountNumber));
+        assertEquals(3, AccountNumberCreator.nodeOf("3000000001"));
+        assertEquals(0, AccountNumberCreator.nodeOf("000000001"));
+        assertEquals(0, AccountNumberCreator.nodeOf("999999999"));
+        assertEquals(-1, AccountNumberCreator.nodeOf("12345"));
+        assertEquals(-1, AccountNumberCreator.nodeOf("0300000001"));
+        assertEquals(-1, AccountNumberCreator.nodeOf("42000000x"));
+    }
+
+    @Test
+    public void nodeZeroKeepsTheWholeNineDigitRange() {
+        // given
+        AccountNumberCreator numberCreator = new AccountNumberCreator(0, AccountNumberCreator.NODE_RANGE - 2);
+
+        // when
+        String lastAccountNumber = numberCreator.createAccountNumber();
+
+        // then
+        assertEquals("999999999", lastAccountNumber);
+        try {
+            numberCreator.createAccountNumber();
+            fail("Numbered an account in the next node's range");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void aNodeStopsWhenItsRangeIsUsedUp() {
+        // given
+        AccountNumberCreator numberCreator = new AccountNumberCreator(3, AccountNumberCreator.NODE_RANGE - 2);
+
+        // when
+        String lastAccountNumber = numberCreator.createAccountNumber();
+
+        // then
+        assertEquals("3999999999", lastAccountNumber);
+        try {
+            numberCreator.createAccountNumber();
+            fail("Numbered an account in the next node's range");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void threadsNumberFromBlocksOfTheirOwn() throws Exception {
+        // given
+        AccountNumberCreator numberCreator = new AccountNumberCreator(0, 0, 4);
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+
+        // when
+        first.add(numberCreator.createAccountNumber());
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                second.add(numberCreator.createAccountNumber());
+            }
+        });
+        other.start();
+        other.join();
+        first.add(numberCreator.createAccountNumber());
+
+        // then
+        assertEquals(Arrays.asList("000000001", "000000002"), first);
+        assertEquals(Arrays.asList("000000005", "000000006", "000000007", "000000008", "000000009"), second);
+    }
+
+    @Test
+    public void numberingResumesAfterTheNodesHighestNumber() {
+        // given
+        List<String> existing = Arrays.asList("000000001", "000000007", "3000000001", "3000000004", "42000000999",
+                                              "payroll");
+
+        // when
+        String node0 = AccountNumberCreator.resumingAfter(0, existing).createAccountNumber();
+        String node3 = AccountNumberCreator.resumingAfter(3, existing).createAccountNumber();
+        String node5 = AccountNumberCreator.resumingAfter(5, existing).createAccountNumber();
+
+        // then
+        assertEquals("000000008", node0);
+        assertEquals("3000000005", node3);
+        assertEquals("5000000001", node5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodesAreTwoDigits() {
+        new AccountNumberCreator(AccountNumberCreator.MAX_NODE + 1, 0);
+    }
+}
@@ -0,0 +1,87 @@
+package ankur.revolut.moneytransfer.account.service;
+
+import ankur.revolut.moneytransfer.account.model.AccountHttpResponse;
+import ankur.revolut.moneytransfer.account.model.AccountRequest;
+import ankur.revolut.moneytransfer.account.model.BatchTransferRequest;
+import ankur.revolut.moneytransfer.account.model.HttpResponse;
+import ankur.revolut.moneytransfer.datastore.AccountDao;
+import ankur.revolut.moneytransfer.datastore.AccountDaoCreator;
+import ankur.revolut.moneytransfer.datastore.ShardedLedgerDao;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccountsServiceTest {
+
+    @Test
+    public void allOrNothingBatchRejectedByDatastoreWithoutThem() {
+        // given
+        ShardedLedgerDao dao = (ShardedLedgerDao) AccountDaoCreator.createShardedDao(2, 16, 100);
+        AccountsService service = AccountsService.create(dao, new AccountNumberCreator(), new HTTPTransformer());
+        BatchTransferRequest.Item item = new BatchTransferRequest.Item();
+        item.setFrom("000000001");
+        item.setTo("000000002");
+        item.setAmount(BigDecimal.TEN);
+        item.setRequestID("b1946ac92492d2347c6235b4d2611184");
+        BatchTransferRequest batch = new BatchTransferRequest();
+        batch.setAllOrNothing(true);
+        batch.setTransfers(Collections.singletonList(item));
+
+        // when
+        HttpResponse response = service.transferFundsBatch(batch);
+        dao.shutdown();
+
+        // then
+        assertEquals(400, response.getStatus());
+        assertEquals("All-or-nothing batches are not supported by this datastore", response.getReason());
+    }
+
+    @Test
+    public void historyBeforeTheFirstTransactionRejected() {
+        // given
+        AccountsService service = AccountsService.create(AccountDaoCreator.createDao(10), new AccountNumberCreator(),
+                                                         new HTTPTransformer());
+
+        // when
+        HttpResponse zero = service.getHistory("000000001", 0L, 20);
+        HttpResponse minimum = service.getHistory("000000001", Long.MIN_VALUE, 20);
+
+        // then
+        assertEquals(400, zero.getStatus());
+        assertEquals(400, minimum.getStatus());
+        assertEquals("before must be at least 1", minimum.getReason());
+    }
+
+    @Test
+    public void newAccountIsRenderedWithoutReadingItsBalanceBack() {
+        // given
+        AccountDao dao = AccountDaoCreator.createDao(10);
+        AccountDao noReads = (AccountDao) Proxy.newProxyInstance(AccountDao.class.getClassLoader(), new Class<?>[]{AccountDao.class},
+                                                                 (proxy, method, args) -> {
+            if (method.getName().equals("getAmount")) {
+                throw new AssertionError("The balance was read back");
+            }
+            try {
+                return method.invoke(dao, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        AccountsService service = AccountsService.create(noReads, new AccountNumberCreator(), new HTTPTransformer());
+        AccountRequest request = new AccountRequest();
+        request.setFirstName("Ankur");
+        request.setSurname("Agarwal");
+
+        // when
+        HttpResponse response = service.addNewAccount(request);
+
+        // then
+        assertEquals(201, response.getStatus());
+        assertEquals(0, BigDecimal.ZERO.compareTo(((AccountHttpResponse) response).getTotalAmount()));
+    }
+}
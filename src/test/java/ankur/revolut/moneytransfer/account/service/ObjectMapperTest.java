@@ -0,0 +1,112 @@
+package ankur.revolut.moneytransfer.account.service;
+
+import ankur.revolut.moneytransfer.account.model.AmountRequest;
+import ankur.revolut.moneytransfer.account.model.BatchTransferRequest;
+import ankur.revolut.moneytransfer.account.model.ConstantHttpResponse;
+import ankur.revolut.moneytransfer.account.model.EncodedAccounts;
+import ankur.revolut.moneytransfer.account.model.HttpResponse;
+import ankur.revolut.moneytransfer.account.model.TransferRequest;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectMapperTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void readsRequestFromStream() {
+        // when
+        Optional<TransferRequest> request = objectMapper.tryReadValue(
+                body("  {\"amount\":\"12.34\",\"to\":\"000000002\",\"requestID\":\"abc\"}"), TransferRequest.class);
+
+        // then
+        assertTrue(request.isPresent());
+        assertEquals(1234, request.get().getAmountInMinorUnits());
+        assertEquals("000000002", request.get().getTo());
+        assertEquals("abc", request.get().getRequestID());
+    }
+
+    @Test
+    public void bodiesThatAreNotObjectsAreNotRead() {
+        assertFalse(objectMapper.tryReadValue(body(""), AmountRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue(body("amount=12.34"), AmountRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue(body("[{\"amount\":\"12.34\"}]"), AmountRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue(body("{\"amount\":"), AmountRequest.class).isPresent());
+    }
+
+    @Test
+    public void amountsThatCannotBeHeldAreInvalid() {
+        assertFalse(objectMapper.tryReadValue(body("{\"amount\":\"12.345\",\"requestID\":\"abc\"}"),
+                                              AmountRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue(body("{\"amount\":1e30,\"requestID\":\"abc\"}"),
+                                              AmountRequest.class).isPresent());
+        assertTrue(objectMapper.tryReadValue(body("{\"amount\":\"12.340\",\"requestID\":\"abc\"}"),
+                                             AmountRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue(
+                body("{\"transfers\":[{\"from\":\"1\",\"to\":\"2\",\"amount\":\"0.001\",\"requestID\":\"abc\"}]}"),
+                BatchTransferRequest.class).isPresent());
+        assertFalse(objectMapper.tryReadValue("{\"amount\":\"12.345\",\"requestID\":\"abc\"}",
+                                              AmountRequest.class).isPresent());
+    }
+
+    @Test
+    public void writesResponseWithoutClosingStream() throws Exception {
+        // given
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                throw new AssertionError("Stream closed");
+            }
+        };
+
+        // when
+        objectMapper.writeValueTo(out, new HttpResponse("Success", 200));
+
+        // then
+        assertEquals("{\"reason\":\"Success\",\"status\":200}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encodedResponsesMatchJackson() throws Exception {
+        ConstantHttpResponse outcome = new ConstantHttpResponse("Funds \"added\" \u00a3", 200);
+        assertSameAsJackson(outcome);
+        for (long pence : new long[] {0, 5, -5, 99, 100, 1234, -123456, 100_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertSameAsJackson(outcome.withBalance(Amount.newAmount(pence)));
+        }
+    }
+
+    @Test
+    public void encodedAccountResponsesMatchJackson() throws Exception {
+        EncodedAccounts accounts = new EncodedAccounts(new ConstantHttpResponse("Success", 200), 2);
+        Account quoted = Account.AccountBuilder.anAccount().withFirstName("Zo\u00eb \"Z\"").withOtherName("")
+                                               .withSurname("O'Brien\\").withAccountNumber("000000001").build();
+        Account noOtherName = Account.AccountBuilder.anAccount().withFirstName("Ankur").withSurname("Agarwal")
+                                                    .withAccountNumber("000000002").build();
+        for (long pence : new long[] {0, -5, 1234, Long.MIN_VALUE}) {
+            assertSameAsJackson(accounts.withBalance(new AccountSnapshot(quoted, Amount.newAmount(pence), 3)));
+            assertSameAsJackson(accounts.withBalance(new AccountSnapshot(noOtherName, Amount.newAmount(pence), 3)));
+        }
+    }
+
+    private void assertSameAsJackson(HttpResponse response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        objectMapper.writeValueTo(out, response);
+        assertEquals(objectMapper.writeValueAsString(response), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,195 @@
+package ankur.revolut.moneytransfer.binary;
+
+import ankur.revolut.moneytransfer.datastore.AccountDao;
+import ankur.revolut.moneytransfer.datastore.AccountDaoCreator;
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryServerTest {
+
+    private AccountDao dao;
+    private BinaryServer server;
+    private BinaryClient client;
+    private final BinaryClient.Response response = new BinaryClient.Response();
+
+    @Before
+    public void setUp() throws Exception {
+        dao = AccountDaoCreator.createLockFreeDao(10);
+        dao.addAccount(account("000000001"));
+        dao.addAccount(account("000000002"));
+        server = BinaryServer.start(dao, "localhost", 0);
+        client = BinaryClient.connect("localhost", server.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void creditTransferAndBalance() throws Exception {
+        // when
+        client.credit(1, 1, 1000, 0, 1);
+        client.flush();
+        client.read(response);
+
+        // then
+        assertEquals(1, response.getCorrelation());
+        assertEquals(FundEnum.SUCCESS, response.getOutcome());
+        assertTrue(response.hasBalance());
+        assertEquals(1000, response.getBalance());
+
+        // when
+        client.transfer(2, 1, 2, 400, 0, 2);
+        client.flush();
+        client.read(response);
+
+        // then
+        assertEquals(2, response.getCorrelation());
+        assertEquals(FundEnum.SUCCESS, response.getOutcome());
+        assertEquals(600, response.getBalance());
+
+        // when
+        client.balance(3, 2);
+        client.flush();
+        client.read(response);
+
+        // then
+        assertEquals(3, response.getCorrelation());
+        assertEquals(FundEnum.SUCCESS, response.getOutcome());
+        assertEquals(400, response.getBalance());
+    }
+
+    @Test
+    public void pipelinedRequestsAreAllAnswered() throws Exception {
+        // given
+        int requests = BinaryServer.MAX_IN_FLIGHT * 3;
+
+        // when
+        for (int i = 0; i < requests; i++) {
+            client.credit(i, 1, 1, 0, i + 1);
+        }
+        client.flush();
+        boolean[] answered = new boolean[requests];
+        for (int i = 0; i < requests; i++) {
+            client.read(response);
+            assertEquals(FundEnum.SUCCESS, response.getOutcome());
+            answered[response.getCorrelation()] = true;
+        }
+
+        // then
+        for (boolean seen : answered) {
+            assertTrue(seen);
+        }
+        client.balance(requests, 1);
+        client.flush();
+        assertEquals(requests, client.read(response).getBalance());
+    }
+
+    @Test
+    public void replayedRequestIsNotAppliedTwice() throws Exception {
+        // when
+        client.credit(1, 1, 500, 42, 42);
+        client.credit(2, 1, 500, 42, 42);
+        client.flush();
+        client.read(response);
+        client.read(response);
+        int replayed = response.getCorrelation();
+        FundEnum outcome = response.getOutcome();
+        boolean replayHasBalance = response.hasBalance();
+        client.balance(3, 1);
+        client.flush();
+        client.read(response);
+
+        // then
+        assertEquals(2, replayed);
+        assertEquals(FundEnum.SUCCESS, outcome);
+        assertFalse(replayHasBalance);
+        assertEquals(500, response.getBalance());
+    }
+
+    @Test
+    public void failuresAreReportedWithTheirOutcome() throws Exception {
+        // when
+        client.transfer(1, 1, 2, 100, 0, 1);
+        client.transfer(2, 1, 1, 100, 0, 2);
+        client.credit(3, 99, 100, 0, 3);
+        client.balance(4, 99);
+        client.request((byte) 9, 5, 1, 0, 0, 0, 0);
+        client.flush();
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, client.read(response).getOutcome());
+        assertEquals(FundEnum.SAME_ACCOUNT, client.read(response).getOutcome());
+        assertEquals(FundEnum.ACCOUNT_NOT_FOUND, client.read(response).getOutcome());
+        assertEquals(FundEnum.ACCOUNT_NOT_FOUND, client.read(response).getOutcome());
+        assertFalse(response.hasBalance());
+        client.read(response);
+        assertNull(response.getOutcome());
+        assertEquals(BinaryProtocol.UNKNOWN_COMMAND, response.getCode());
+    }
+
+    @Test(timeout = 10_000)
+    public void blockedBalanceReadHoldsUpOnlyItsOwnConnection() throws Exception {
+        // given
+        CountDownLatch released = new CountDownLatch(1);
+        AccountDao blockingReads = (AccountDao) Proxy.newProxyInstance(AccountDao.class.getClassLoader(), new Class<?>[]{AccountDao.class},
+                                                                       (proxy, method, args) -> {
+            if (method.getName().equals("getAmount")) {
+                released.await();
+            }
+            try {
+                return method.invoke(dao, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        try (BinaryServer blockingServer = BinaryServer.start(blockingReads, "localhost", 0);
+             BinaryClient reader = BinaryClient.connect("localhost", blockingServer.getPort());
+             BinaryClient writer = BinaryClient.connect("localhost", blockingServer.getPort())) {
+
+            // when
+            reader.balance(1, 1);
+            reader.flush();
+            writer.credit(2, 1, 300, 0, 1);
+            writer.flush();
+
+            // then
+            assertEquals(FundEnum.SUCCESS, writer.read(response).getOutcome());
+            released.countDown();
+            assertEquals(300, reader.read(response).getBalance());
+        }
+    }
+
+    @Test
+    public void numbersAreWrittenAsTheLedgerHoldsThem() {
+        assertEquals("000000042", BinaryProtocol.accountNumber(42));
+        assertEquals("0000000000000001000000000000000f", BinaryProtocol.requestID(1, 15));
+        assertEquals("ffffffffffffffff8000000000000000", BinaryProtocol.requestID(-1, Long.MIN_VALUE));
+    }
+
+    private static Account account(String accountNumber) {
+        return Account.AccountBuilder.anAccount()
+                .withAccountNumber(accountNumber)
+                .withCreationDateTime(OffsetDateTime.now(ZoneOffset.UTC))
+                .withFirstName("Binary")
+                .withOtherName("")
+                .withSurname("Client")
+                .build();
+    }
+}
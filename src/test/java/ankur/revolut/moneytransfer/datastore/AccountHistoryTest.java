@@ -0,0 +1,59 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AccountHistoryTest {
+
+    @Test
+    public void pagesRunNewestFirstAcrossChunks() {
+        // given
+        AccountHistory history = new AccountHistory();
+        int entries = AccountHistory.CHUNK_SIZE * 3 + 5;
+        for (int i = 1; i <= entries; i++) {
+            history.append(1000L + i, i, i % 2 == 0 ? "000000002" : null);
+        }
+
+        // when
+        List<HistoryEntry> newest = history.before(Long.MAX_VALUE, 3);
+        List<HistoryEntry> acrossChunks = history.before(AccountHistory.CHUNK_SIZE + 2, 4);
+        List<HistoryEntry> oldest = history.before(3, 10);
+
+        // then
+        assertEquals(entries, history.size());
+        assertEquals(entries, newest.get(0).getId());
+        assertEquals(entries - 2, newest.get(2).getId());
+        assertEquals(1000L + entries, newest.get(0).getTimeMillis());
+        assertEquals(AccountHistory.CHUNK_SIZE + 1, acrossChunks.get(0).getId());
+        assertEquals(AccountHistory.CHUNK_SIZE - 2, acrossChunks.get(3).getId());
+        assertEquals(AccountHistory.CHUNK_SIZE - 2, acrossChunks.get(3).getAmount().getValue());
+        assertEquals("000000002", acrossChunks.get(3).getCounterparty());
+        assertEquals(2, oldest.size());
+        assertEquals(1, oldest.get(1).getId());
+        assertNull(oldest.get(1).getCounterparty());
+        assertTrue(history.before(1, 10).isEmpty());
+    }
+
+    @Test
+    public void idsBelowTheFirstEntryGiveAnEmptyPage() {
+        // given
+        AccountHistory history = new AccountHistory();
+        for (int i = 1; i <= 5; i++) {
+            history.append(1000L + i, i, null);
+        }
+
+        // when
+        List<HistoryEntry> zero = history.before(0, 10);
+        List<HistoryEntry> negative = history.before(Long.MIN_VALUE, 10);
+
+        // then
+        assertTrue(zero.isEmpty());
+        assertTrue(negative.isEmpty());
+    }
+}
@@ -0,0 +1,166 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AccountIndexTest {
+
+    private final BalanceTable balances = new BalanceTable();
+
+    @Test
+    public void accountsAreFoundByNumberAcrossGrowth() {
+        // given
+        AccountIndex index = new AccountIndex();
+        int accounts = 10_000;
+
+        // when
+        for (int i = 0; i < accounts; i++) {
+            String accountNumber = String.format("%09d", i * 7);
+            assertNull(index.putIfAbsent(accountNumber, state(accountNumber)));
+        }
+
+        // then
+        assertEquals(accounts, index.size());
+        for (int i = 0; i < accounts; i++) {
+            String accountNumber = String.format("%09d", i * 7);
+            assertEquals(accountNumber, index.get(accountNumber).getAccount().getAccountNumber());
+        }
+        assertNull(index.get("000000001"));
+        assertFalse(index.containsKey("999999999"));
+    }
+
+    @Test
+    public void accountsAddedWhileReadingAreFoundOnceAdded() throws InterruptedException {
+        // given
+        AccountIndex index = new AccountIndex();
+        int accounts = 200_000;
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger missed = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (added.get() < accounts) {
+                int upTo = added.get();
+                for (int i = Math.max(0, upTo - 64); i < upTo; i++) {
+                    if (index.get(String.format("%09d", i)) == null) {
+                        missed.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        // when
+        reader.start();
+        for (int i = 0; i < accounts; i++) {
+            String accountNumber = String.format("%09d", i);
+            index.putIfAbsent(accountNumber, state(accountNumber));
+            added.incrementAndGet();
+        }
+        reader.join();
+
+        // then
+        assertEquals(0, missed.get());
+    }
+
+    @Test
+    public void anAccountIsOnlyAddedOnce() {
+        // given
+        AccountIndex index = new AccountIndex();
+        AccountState first = state("000000000");
+        index.putIfAbsent("000000000", first);
+
+        // when
+        AccountState existing = index.putIfAbsent("000000000", state("000000000"));
+
+        // then
+        assertSame(first, existing);
+        assertSame(first, index.get("000000000"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void newAccountsAreOnlyMadeForNumbersNotTaken() {
+        // given
+        AccountIndex index = new AccountIndex();
+        AtomicInteger made = new AtomicInteger();
+        index.addIfAbsent("000000001", () -> state("000000001"));
+        index.addIfAbsent("00000000x", () -> state("00000000x"));
+
+        // when
+        AccountState numeric = index.addIfAbsent("000000001", () -> {
+            made.incrementAndGet();
+            return state("000000001");
+        });
+        AccountState other = index.addIfAbsent("00000000x", () -> {
+            made.incrementAndGet();
+            return state("00000000x");
+        });
+
+        // then
+        assertNull(numeric);
+        assertNull(other);
+        assertEquals(0, made.get());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void numbersThatAreNotNineDigitsAreKeptToo() {
+        // given
+        AccountIndex index = new AccountIndex();
+        index.putIfAbsent("12345", state("12345"));
+        index.putIfAbsent("00000000x", state("00000000x"));
+        index.putIfAbsent("000012345", state("000012345"));
+
+        // when
+        Set<String> iterated = new HashSet<>();
+        for (AccountState state : index) {
+            iterated.add(state.getAccount().getAccountNumber());
+        }
+
+        // then
+        assertEquals(AccountIndex.NOT_NUMERIC, AccountIndex.number("12345"));
+        assertEquals(12345, AccountIndex.number("000012345"));
+        assertTrue(index.containsKey("12345"));
+        assertTrue(index.containsKey("00000000x"));
+        assertEquals("000012345", index.get("000012345").getAccount().getAccountNumber());
+        assertEquals(3, index.size());
+        assertEquals(3, iterated.size());
+    }
+
+    @Test
+    public void numbersWithANodePrefixAreParsedToo() {
+        // given
+        AccountIndex index = new AccountIndex();
+        index.putIfAbsent("100000001", state("100000001"));
+        index.putIfAbsent("0100000001", state("0100000001"));
+        index.putIfAbsent("99999999999", state("99999999999"));
+
+        // then
+        assertEquals(99_999_999_999L, AccountIndex.number("99999999999"));
+        assertEquals(AccountIndex.NOT_NUMERIC, AccountIndex.number("0100000001"));
+        assertEquals(AccountIndex.NOT_NUMERIC, AccountIndex.number("100000000000"));
+        assertEquals("100000001", index.get("100000001").getAccount().getAccountNumber());
+        assertEquals("0100000001", index.get("0100000001").getAccount().getAccountNumber());
+        assertEquals("99999999999", index.get("99999999999").getAccount().getAccountNumber());
+        assertEquals(3, index.size());
+    }
+
+    private AccountState state(String accountNumber) {
+        return new AccountState(Account.AccountBuilder.anAccount()
+                                        .withAccountNumber(accountNumber)
+                                        .withCreationDateTime(OffsetDateTime.now())
+                                        .withFirstName("Ankur")
+                                        .withOtherName("")
+                                        .withSurname("Agarwal")
+                                        .build(), balances);
+    }
+}
@@ -0,0 +1,97 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BalanceTableTest {
+
+    @Test
+    public void balancesAreKeptAcrossPages() {
+        // given
+        BalanceTable balances = new BalanceTable();
+        int accounts = 200_000;
+
+        // when
+        for (int i = 0; i < accounts; i++) {
+            assertEquals(i, balances.allocate(i * 3L));
+        }
+
+        // then
+        for (int i = 0; i < accounts; i++) {
+            assertEquals(i * 3L, balances.getBalance(i));
+            assertEquals(0, balances.getVersion(i));
+        }
+    }
+
+    @Test
+    public void everyChangeMovesTheVersionOn() {
+        // given
+        BalanceTable balances = new BalanceTable();
+        int slot = balances.allocate(100);
+        int neighbour = balances.allocate(7);
+
+        // when
+        balances.addToBalance(slot, 50);
+        boolean stale = balances.compareAndSetBalance(slot, 100, 0);
+        boolean current = balances.compareAndSetBalance(slot, 150, 120);
+
+        // then
+        assertFalse(stale);
+        assertTrue(current);
+        assertEquals(120, balances.getBalance(slot));
+        assertEquals(2, balances.getVersion(slot));
+        assertEquals(7, balances.getBalance(neighbour));
+        assertEquals(0, balances.getVersion(neighbour));
+    }
+
+    @Test
+    public void snapshotsSeeTheBalanceAndVersionOfTheSameChange() throws InterruptedException {
+        // given
+        BalanceTable balances = new BalanceTable();
+        int slot = balances.allocate(0);
+        int changesPerWriter = 50_000;
+        List<Thread> writers = new ArrayList<>();
+        writers.add(new Thread(() -> {
+            for (int i = 0; i < changesPerWriter; i++) {
+                balances.addToBalance(slot, 1);
+            }
+        }));
+        writers.add(new Thread(() -> {
+            for (int i = 0; i < changesPerWriter; i++) {
+                long balance;
+                do {
+                    balance = balances.getBalance(slot);
+                } while (!balances.compareAndSetBalance(slot, balance, balance + 1));
+            }
+        }));
+
+        // when
+        writers.forEach(Thread::start);
+        long mismatched = 0;
+        long snapshots = 0;
+        while (writers.stream().anyMatch(Thread::isAlive)) {
+            AccountSnapshot snapshot = balances.snapshot(slot, null);
+            // Every change adds a penny, so the balance in pennies always equals the version
+            if (snapshot.getAmount().getValue() != snapshot.getVersion()) {
+                mismatched++;
+            }
+            snapshots++;
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        // then
+        assertEquals(0, mismatched);
+        assertTrue(snapshots > 0);
+        assertEquals(2L * changesPerWriter, balances.getBalance(slot));
+        assertEquals(2L * changesPerWriter, balances.getVersion(slot));
+    }
+}
@@ -0,0 +1,66 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentionProfilerTest {
+
+    @Test
+    public void hottestAccountsAreKeptWhenOthersAreEvicted() {
+        // given
+        ContentionProfiler profiler = new ContentionProfiler(4);
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            profiler.record("000000001", 1000, false);
+            if (i % 2 == 0) {
+                profiler.record("000000002", 1000, false);
+            }
+            if (i % 4 == 0) {
+                profiler.record(String.format("%09d", 100 + i), 1000, false);
+            }
+        }
+        List<AccountContention> hottest = profiler.hottest(2, accountNumber -> false);
+
+        // then
+        assertEquals(2, hottest.size());
+        assertEquals("000000001", hottest.get(0).getAccountNumber());
+        assertTrue(hottest.get(0).getContended() - hottest.get(0).getCountError() <= 1000);
+        assertTrue(hottest.get(0).getContended() >= 1000);
+        assertEquals("000000002", hottest.get(1).getAccountNumber());
+    }
+
+    @Test
+    public void waitPercentilesAndTimeoutsAreReported() {
+        // given
+        ContentionProfiler profiler = new ContentionProfiler(4);
+
+        // when
+        for (int i = 0; i < 98; i++) {
+            profiler.record("000000001", 1000, false);
+        }
+        profiler.record("000000001", 10_000_000, true);
+        profiler.record("000000001", 20_000_000, true);
+        AccountContention account = profiler.hottest(1, accountNumber -> true).get(0);
+
+        // then
+        assertEquals(100, account.getContended());
+        assertEquals(0, account.getCountError());
+        assertEquals(2, account.getTimedOut());
+        assertEquals(1023, account.getWaitP50Nanos());
+        assertTrue(account.getWaitP99Nanos() >= 10_000_000 && account.getWaitP99Nanos() < 20_000_000);
+        assertEquals(20_000_000, account.getWaitMaxNanos());
+        assertTrue(account.isHot());
+    }
+
+    @Test
+    public void noContentionReportsNoAccounts() {
+        assertFalse(new ContentionProfiler(4).hottest(10, accountNumber -> false).iterator().hasNext());
+    }
+}
@@ -0,0 +1,191 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class IdempotencyStoreTest {
+
+    private static String REQUEST_ID_1 = "b1946ac92492d2347c6235b4d2611184";
+    private static String REQUEST_ID_2 = "591785b794601e212b260e25925636fd";
+    private static long RETENTION = TimeUnit.MINUTES.toNanos(3);
+    private static long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void claimNewRequestId() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        FundEnum response = store.claim(REQUEST_ID_1);
+
+        // then
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, response);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void claimWhileInProgress() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        store.claim(REQUEST_ID_1);
+        FundEnum response = store.claim(REQUEST_ID_1);
+
+        // then
+        assertEquals(FundEnum.TRANSACTION_ALREADY_COMPLETE, response);
+    }
+
+    @Test
+    public void claimAfterCompleteReturnsOriginalOutcome() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        store.claim(REQUEST_ID_1);
+        store.complete(REQUEST_ID_1, FundEnum.FUND_UNDERFLOW);
+        store.claim(REQUEST_ID_2);
+        store.complete(REQUEST_ID_2, FundEnum.SUCCESS);
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, store.claim(REQUEST_ID_1));
+        assertEquals(FundEnum.SUCCESS, store.claim(REQUEST_ID_2));
+    }
+
+    @Test
+    public void claimAfterReleaseSucceeds() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        store.claim(REQUEST_ID_1);
+        store.release(REQUEST_ID_1);
+        FundEnum response = store.claim(REQUEST_ID_1);
+
+        // then
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, response);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void completedRequestsCanBeCopiedToAnotherStore() {
+        // given
+        IdempotencyStore store = givenStore();
+        store.claim(REQUEST_ID_1);
+        store.complete(REQUEST_ID_1, FundEnum.FUND_UNDERFLOW);
+        store.claim(REQUEST_ID_2);
+        store.claim("payroll-42");
+        store.complete("payroll-42", FundEnum.SUCCESS);
+
+        // when
+        IdempotencyStore restored = givenStore();
+        store.forEachCompleted(restored::restoreCompleted);
+
+        // then
+        assertEquals(2, restored.size());
+        assertEquals(FundEnum.FUND_UNDERFLOW, restored.claim(REQUEST_ID_1));
+        assertEquals(FundEnum.SUCCESS, restored.claim("payroll-42"));
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, restored.claim(REQUEST_ID_2));
+    }
+
+    @Test
+    public void outcomeKeptForWholeRetentionWindow() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        clock.addAndGet(MINUTE - 1);
+        store.claim(REQUEST_ID_1);
+        store.complete(REQUEST_ID_1, FundEnum.SUCCESS);
+        clock.addAndGet(RETENTION);
+
+        // then
+        assertEquals(FundEnum.SUCCESS, store.claim(REQUEST_ID_1));
+    }
+
+    @Test
+    public void outcomeExpiresAfterRetentionWindow() {
+        // given
+        IdempotencyStore store = givenStore();
+
+        // when
+        store.claim(REQUEST_ID_1);
+        store.complete(REQUEST_ID_1, FundEnum.SUCCESS);
+        clock.addAndGet(RETENTION + MINUTE);
+
+        // then
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim(REQUEST_ID_1));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void lowerCaseHexRequestIdsAreParsedExactly() {
+        // when
+        long high = IdempotencyStore.keyHigh("0123456789abcdef0123456789abcdef");
+        long low = IdempotencyStore.keyLow("0123456789abcdef0123456789abcdef");
+
+        // then
+        assertEquals(0x0123456789abcdefL, high);
+        assertEquals(0x0123456789abcdefL, low);
+    }
+
+    @Test
+    public void requestIdsDifferingInCaseOrFormAreKeptApart() {
+        // given
+        IdempotencyStore store = givenStore();
+        store.claim("0123456789abcdef0123456789abcdef");
+        store.complete("0123456789abcdef0123456789abcdef", FundEnum.SUCCESS);
+
+        // when
+        FundEnum upperCase = store.claim("0123456789ABCDEF0123456789ABCDEF");
+        FundEnum uuid = store.claim("01234567-89ab-cdef-0123-456789abcdef");
+        FundEnum upperCaseUuid = store.claim("01234567-89AB-CDEF-0123-456789ABCDEF");
+
+        // then
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, upperCase);
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, uuid);
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, upperCaseUuid);
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    public void otherRequestIdsAreKeptApart() {
+        // given
+        IdempotencyStore store = givenStore();
+        int numRequests = 100_000;
+
+        // when
+        for (int i = 0; i < numRequests; i++) {
+            assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim("request-" + i));
+        }
+
+        // then
+        assertEquals(numRequests, store.size());
+    }
+
+    @Test
+    public void memoryFootprintPerRequestId() {
+        // given
+        IdempotencyStore store = givenStore();
+        int numRequests = 100_000;
+
+        // when
+        for (long i = 0; i < numRequests; i++) {
+            store.claim(String.format("%016x%016x", i * 0x9e3779b97f4a7c15L, i));
+        }
+
+        // then
+        assertEquals(numRequests, store.size());
+        assertTrue(store.footprintBytes() < numRequests * 48L);
+    }
+
+    private IdempotencyStore givenStore() {
+        return new IdempotencyStore(RETENTION, 4, 64, clock::get);
+    }
+}
@@ -1,14 +1,36 @@
 package ankur.revolut.moneytransfer.datastore;
 
 import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AccountSnapshot;
+import ankur.revolut.moneytransfer.datastore.model.AccountContention;
 import ankur.revolut.moneytransfer.datastore.model.AddFunds;
 import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.HistoryEntry;
 import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.*;
 
@@ -20,7 +42,9 @@ public class InMemoryAccountDaoTest {
     private static String REQUEST_ID_1 = "b1946ac92492d2347c6235b4d2611184";
     private static String REQUEST_ID_2 = "591785b794601e212b260e25925636fd";
     private static String REQUEST_ID_3 = "891785b794601e212b260e25925636fe";
-    private static float DELTA = 0.0001f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Test
     public void addAccountSuccessful() {
@@ -115,7 +139,7 @@ public class InMemoryAccountDaoTest {
         Optional<Amount> amount1 = dao.getAmount(ACCOUNT_NUM_A);
 
         // then
-        assertEquals(10.f, amount1.get().getValue(), DELTA);
+        assertEquals(10, amount1.get().getValue());
     }
 
     @Test
@@ -140,16 +164,16 @@ public class InMemoryAccountDaoTest {
         AddFunds addFundsA2 = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_2);
 
         // when
-        FundEnum response1 = dao.addFunds(addFundsA);
+        FundEnum response1 = dao.addFunds(addFundsA).getOutcome();
         Optional<Amount> amount1 = dao.getAmount(ACCOUNT_NUM_A);
-        FundEnum response2 = dao.addFunds(addFundsA2);
+        FundEnum response2 = dao.addFunds(addFundsA2).getOutcome();
         Optional<Amount> amount2 = dao.getAmount(ACCOUNT_NUM_A);
 
         // then
         assertEquals(FundEnum.SUCCESS, response1);
         assertEquals(FundEnum.SUCCESS, response2);
-        assertEquals(10.f, amount1.get().getValue(), DELTA);
-        assertEquals(20.f, amount2.get().getValue(), DELTA);
+        assertEquals(10, amount1.get().getValue());
+        assertEquals(20, amount2.get().getValue());
     }
 
     @Test
@@ -159,14 +183,14 @@ public class InMemoryAccountDaoTest {
         AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1);
 
         // when
-        FundEnum response = dao.addFunds(addFundsA);
+        FundEnum response = dao.addFunds(addFundsA).getOutcome();
 
         // then
         assertEquals(FundEnum.ACCOUNT_NOT_FOUND, response);
     }
 
     @Test
-    public void addFundsIsUnsuccessfulDueToSameRequestId() {
+    public void addFundsReplaysOutcomeForSameRequestId() {
         // given
         AccountDao dao = InMemoryAccountDao.newWithTimeout(100);
         Account newAccount = createAccount("Ankur", "Agarwal");
@@ -175,10 +199,49 @@ public class InMemoryAccountDaoTest {
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response = dao.addFunds(addFundsA);
+        FundEnum response = dao.addFunds(addFundsA).getOutcome();
+
+        // then
+        assertEquals(FundEnum.SUCCESS, response);
+        assertEquals(10, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void transferFundsReplaysOutcomeForSameRequestId() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        Transfer transfer = new Transfer(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-65), REQUEST_ID_3),
+                                            new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(65), REQUEST_ID_3));
+
+        // when
+        FundEnum response1 = dao.transferFunds(transfer).getOutcome();
+        FundEnum response2 = dao.transferFunds(transfer).getOutcome();
+
+        // then
+        assertEquals(FundEnum.SUCCESS, response1);
+        assertEquals(FundEnum.SUCCESS, response2);
+        assertEquals(35, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(65, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void addFundsAppliedAgainOnceRetentionWindowHasPassed() throws InterruptedException {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(100, IdempotencyStore.newWithRetention(30));
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1);
+
+        // when
+        dao.addFunds(addFundsA);
+        Thread.sleep(200);
+        FundEnum response = dao.addFunds(addFundsA).getOutcome();
 
         // then
-        assertEquals(FundEnum.TRANSACTION_ALREADY_COMPLETE, response);
+        assertEquals(FundEnum.SUCCESS, response);
+        assertEquals(20, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
     }
 
     @Test
@@ -188,11 +251,11 @@ public class InMemoryAccountDaoTest {
         Account newAccount = createAccount("Ankur", "Agarwal");
         dao.addAccount(newAccount);
         AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1);
-        AddFunds addFundsA2 = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-Float.MAX_VALUE), REQUEST_ID_2);
+        AddFunds addFundsA2 = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-Long.MAX_VALUE), REQUEST_ID_2);
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response = dao.addFunds(addFundsA2);
+        FundEnum response = dao.addFunds(addFundsA2).getOutcome();
 
         // then
         assertEquals(FundEnum.FUND_UNDERFLOW, response);
@@ -205,11 +268,11 @@ public class InMemoryAccountDaoTest {
         Account newAccount = createAccount("Ankur", "Agarwal");
         dao.addAccount(newAccount);
         AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1);
-        AddFunds addFundsA2 = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(Float.MAX_VALUE), REQUEST_ID_2);
+        AddFunds addFundsA2 = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(Long.MAX_VALUE), REQUEST_ID_2);
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response = dao.addFunds(addFundsA2);
+        FundEnum response = dao.addFunds(addFundsA2).getOutcome();
 
         // then
         assertEquals(FundEnum.FUND_OVERFLOW, response);
@@ -237,9 +300,9 @@ public class InMemoryAccountDaoTest {
         Optional<Amount> amount_b_1 = dao.getAmount(ACCOUNT_NUM_B);
 
         // then
-        assertEquals(100.f, amount_a_1.get().getValue(), DELTA);
-        assertEquals(35.f, amount_a_2.get().getValue(), DELTA);
-        assertEquals(67.f, amount_b_1.get().getValue(), DELTA);
+        assertEquals(100, amount_a_1.get().getValue());
+        assertEquals(35, amount_a_2.get().getValue());
+        assertEquals(67, amount_b_1.get().getValue());
     }
 
     @Test
@@ -254,7 +317,7 @@ public class InMemoryAccountDaoTest {
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response = dao.transferFunds(transfer);
+        FundEnum response = dao.transferFunds(transfer).getOutcome();
 
         // then
         assertEquals(FundEnum.DEST_ACCOUNT_NOT_FOUND, response);
@@ -274,7 +337,7 @@ public class InMemoryAccountDaoTest {
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response = dao.transferFunds(transfer);
+        FundEnum response = dao.transferFunds(transfer).getOutcome();
 
         // then
         assertEquals(FundEnum.FUND_UNDERFLOW, response);
@@ -289,14 +352,746 @@ public class InMemoryAccountDaoTest {
         dao.addAccount(newAccountA);
         dao.addAccount(newAccountB);
         AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1);
-        AddFunds addFundsB = new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(Float.MAX_VALUE - 50), REQUEST_ID_2);
+        AddFunds addFundsB = new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(Long.MAX_VALUE - 50), REQUEST_ID_2);
+        Transfer transfer = new Transfer(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-100), REQUEST_ID_3),
+                new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(100), REQUEST_ID_3));
 
         // when
         dao.addFunds(addFundsA);
-        FundEnum response_b = dao.addFunds(addFundsB);
+        dao.addFunds(addFundsB);
+        FundEnum response = dao.transferFunds(transfer).getOutcome();
+
+        // then
+        assertEquals(FundEnum.FUND_OVERFLOW, response);
+        assertEquals(100, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(Long.MAX_VALUE - 50, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void transferFundsInOpposingDirectionsDoNotTimeOut() throws InterruptedException {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(1000);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(1000), REQUEST_ID_1));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(1000), REQUEST_ID_2));
+        int numRequests = 2000;
+
+        // when
+        AtomicInteger successes = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        IntStream.range(0, numRequests)
+                .forEach(i -> executor.submit(() -> {
+                    String from = i % 2 == 0 ? ACCOUNT_NUM_A : ACCOUNT_NUM_B;
+                    String to = i % 2 == 0 ? ACCOUNT_NUM_B : ACCOUNT_NUM_A;
+                    String requestId = String.valueOf(i);
+                    FundEnum response = dao.transferFunds(new Transfer(new AddFunds(from, Amount.newAmount(-1), requestId),
+                                                                       new AddFunds(to, Amount.newAmount(1), requestId))).getOutcome();
+                    if (response == FundEnum.SUCCESS) {
+                        successes.incrementAndGet();
+                    }
+                }));
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        // then
+        assertEquals(numRequests, successes.get());
+        assertEquals(1000, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(1000, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void addFundsLockFreeWithManyWritersToSameAccount() throws InterruptedException {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        int numRequests = 2000;
+
+        // when
+        AtomicInteger successes = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        IntStream.range(0, numRequests)
+                .forEach(i -> executor.submit(() -> {
+                    FundEnum response = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(2), String.valueOf(i))).getOutcome();
+                    if (response == FundEnum.SUCCESS) {
+                        successes.incrementAndGet();
+                    }
+                }));
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        // then
+        assertEquals(numRequests, successes.get());
+        assertEquals(numRequests * 2, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void addFundsLockFreeReplaysOutcomeForSameRequestId() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        AddFunds addFundsA = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1);
+
+        // when
+        FundEnum response1 = dao.addFunds(addFundsA).getOutcome();
+        FundEnum response2 = dao.addFunds(addFundsA).getOutcome();
 
         // then
-        assertEquals(FundEnum.FUND_OVERFLOW, response_b);
+        assertEquals(FundEnum.SUCCESS, response1);
+        assertEquals(FundEnum.SUCCESS, response2);
+        assertEquals(10, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void addFundsLockFreeUnderflowIsReplayedForSameRequestId() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        AddFunds debit = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-10), REQUEST_ID_1);
+
+        // when
+        FundEnum response1 = dao.addFunds(debit).getOutcome();
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_2));
+        FundEnum response2 = dao.addFunds(debit).getOutcome();
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, response1);
+        assertEquals(FundEnum.FUND_UNDERFLOW, response2);
+        assertEquals(10, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void transferFundsLockFreeWhileCreditingBothAccounts() throws InterruptedException {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(1000);
+        dao.addAccount(createAccount("Ankur", "Agarwal"));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(1000), REQUEST_ID_1));
+        int numRequests = 2000;
+
+        // when
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        IntStream.range(0, numRequests)
+                .forEach(i -> executor.submit(() -> {
+                    String requestId = String.valueOf(i);
+                    if (i % 2 == 0) {
+                        dao.transferFunds(new Transfer(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-1), requestId),
+                                                       new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(1), requestId)));
+                    } else {
+                        dao.addFunds(new AddFunds(i % 4 == 1 ? ACCOUNT_NUM_A : ACCOUNT_NUM_B, Amount.newAmount(1), requestId));
+                    }
+                }));
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        // then
+        assertEquals(500, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(1500, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void durableDaoRecoversAccountsAndBalancesAfterRestart() throws IOException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        Account accountA = createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A);
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            dao.addAccount(accountA);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-1000), REQUEST_ID_2));
+            dao.transferFunds(new Transfer(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-65), REQUEST_ID_3),
+                                           new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(65), REQUEST_ID_3)));
+        }
+
+        // when
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            FundEnum replay = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1)).getOutcome();
+            FundEnum retry = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-10), REQUEST_ID_2)).getOutcome();
+
+            // then
+            assertEquals(2, dao.accountCount());
+            assertEquals(accountA.toString(), dao.getAccount(ACCOUNT_NUM_A).get().toString());
+            assertEquals(FundEnum.SUCCESS, replay);
+            assertEquals(FundEnum.SUCCESS, retry);
+            assertEquals(25, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(65, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+        }
+    }
+
+    @Test
+    public void changesTooLargeToLogFreeTheirRequestIds() throws IOException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        StringBuilder longID = new StringBuilder();
+        while (longID.length() < 70_000) {
+            longID.append("0123456789");
+        }
+        String fundsID = "funds-" + longID;
+        String transferID = "transfer-" + longID;
+        String batchID = "batch-" + longID;
+        IdempotencyStore store = newStore();
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, store, wal);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+
+            // when
+            FundEnum funds = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), fundsID)).getOutcome();
+            FundEnum transfer = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, transferID)).getOutcome();
+            List<FundEnum> batch = dao.transferFundsBatch(
+                    Arrays.asList(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, REQUEST_ID_2),
+                                  batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, batchID)), false);
+
+            // then
+            assertEquals(FundEnum.TIMED_OUT, funds);
+            assertEquals(FundEnum.TIMED_OUT, transfer);
+            assertEquals(Arrays.asList(FundEnum.TIMED_OUT, FundEnum.TIMED_OUT), batch);
+            assertEquals(100, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(0, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+            assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim(fundsID));
+            assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim(transferID));
+            assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim(REQUEST_ID_2));
+            assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, store.claim(batchID));
+        }
+    }
+
+    @Test
+    public void durableDaoRecoversConcurrentTransfers() throws IOException, InterruptedException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        int numRequests = 1000;
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 1, 32)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(1000, newStore(), wal);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(numRequests), REQUEST_ID_1));
+
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            IntStream.range(0, numRequests)
+                    .forEach(i -> executor.submit(() -> {
+                        String from = i % 2 == 0 ? ACCOUNT_NUM_A : ACCOUNT_NUM_B;
+                        String to = i % 2 == 0 ? ACCOUNT_NUM_B : ACCOUNT_NUM_A;
+                        dao.transferFunds(new Transfer(new AddFunds(from, Amount.newAmount(-1), String.valueOf(i)),
+                                                       new AddFunds(to, Amount.newAmount(1), String.valueOf(i))));
+                    }));
+            executor.shutdown();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+
+        // when
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+
+            // then
+            assertEquals(numRequests, dao.getAmount(ACCOUNT_NUM_A).get().getValue()
+                                      + dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+            assertTrue(dao.getAmount(ACCOUNT_NUM_B).get().getValue() > 0);
+        }
+    }
+
+    @Test
+    public void durableDaoRestartsFromCheckpointAndLogTail() throws IOException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        Path snapshotFile = folder.getRoot().toPath().resolve("ledger.wal.snapshot");
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            InMemoryAccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal, snapshotFile);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+            dao.checkpoint();
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+            dao.transferFunds(new Transfer(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-65), REQUEST_ID_3),
+                                           new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(65), REQUEST_ID_3)));
+        }
+
+        // when
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            InMemoryAccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal, snapshotFile);
+            FundEnum replay = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1)).getOutcome();
+
+            // then
+            assertEquals(FundEnum.SUCCESS, replay);
+            assertEquals(2, dao.accountCount());
+            assertEquals(35, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(65, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+        }
+    }
+
+    @Test
+    public void checkpointTakenDuringTransfersRecoversTotalBalance() throws IOException, InterruptedException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        Path snapshotFile = folder.getRoot().toPath().resolve("ledger.wal.snapshot");
+        int numAccounts = 50;
+        int numRequests = 4000;
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 64)) {
+            InMemoryAccountDao dao = InMemoryAccountDao.newDurable(1000, newStore(), wal, snapshotFile);
+            for (int i = 0; i < numAccounts; i++) {
+                dao.addAccount(createAccount("Ankur", "Agarwal", String.format("%09d", i)));
+                dao.addFunds(new AddFunds(String.format("%09d", i), Amount.newAmount(100), "seed-" + i));
+            }
+
+            // when
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            IntStream.range(0, numRequests)
+                    .forEach(i -> executor.submit(() -> {
+                        String from = String.format("%09d", i % numAccounts);
+                        String to = String.format("%09d", (i * 7 + 1) % numAccounts);
+                        if (!from.equals(to)) {
+                            dao.transferFunds(new Transfer(new AddFunds(from, Amount.newAmount(-3), String.valueOf(i)),
+                                                           new AddFunds(to, Amount.newAmount(3), String.valueOf(i))));
+                        }
+                        if (i % 1000 == 0) {
+                            try {
+                                dao.checkpoint();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+
+        // then
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            InMemoryAccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal, snapshotFile);
+            long total = 0;
+            for (int i = 0; i < numAccounts; i++) {
+                long balance = dao.getAmount(String.format("%09d", i)).get().getValue();
+                assertTrue(balance >= 0);
+                total += balance;
+            }
+            assertEquals(numAccounts * 100, total);
+        }
+    }
+
+    @Test
+    public void transferFundsBatchAppliesEachTransferInOrder() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        List<Transfer> batch = Arrays.asList(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 60, "batch-1"),
+                                             batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 60, "batch-2"),
+                                             batchTransfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 10, "batch-3"),
+                                             batchTransfer(ACCOUNT_NUM_A, "000000009", 10, "batch-4"),
+                                             batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_A, 10, "batch-5"));
+
+        // when
+        List<FundEnum> results = dao.transferFundsBatch(batch, false);
+
+        // then
+        assertEquals(Arrays.asList(FundEnum.SUCCESS, FundEnum.FUND_UNDERFLOW, FundEnum.SUCCESS,
+                                   FundEnum.DEST_ACCOUNT_NOT_FOUND, FundEnum.SAME_ACCOUNT), results);
+        assertEquals(50, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(50, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void successfulChangesAreKeptInEachAccountsHistory() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+
+        // when
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 1000, REQUEST_ID_2));
+        dao.transferFundsBatch(Collections.singletonList(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 30, "batch-1")), false);
+
+        // then
+        List<HistoryEntry> historyA = dao.getHistory(ACCOUNT_NUM_A, Long.MAX_VALUE, 10).get();
+        List<HistoryEntry> historyB = dao.getHistory(ACCOUNT_NUM_B, Long.MAX_VALUE, 10).get();
+        assertEquals(2, historyA.size());
+        assertEquals(-30, historyA.get(0).getAmount().getValue());
+        assertEquals(ACCOUNT_NUM_B, historyA.get(0).getCounterparty());
+        assertEquals(100, historyA.get(1).getAmount().getValue());
+        assertNull(historyA.get(1).getCounterparty());
+        assertEquals(1, historyB.size());
+        assertEquals(30, historyB.get(0).getAmount().getValue());
+        assertEquals(ACCOUNT_NUM_A, historyB.get(0).getCounterparty());
+        assertFalse(dao.getHistory("000000009", Long.MAX_VALUE, 10).isPresent());
+    }
+
+    @Test
+    public void eachConcurrentCreditReportsTheBalanceItLeft() throws InterruptedException {
+        for (InMemoryAccountDao dao : new InMemoryAccountDao[] {InMemoryAccountDao.newWithTimeout(1000),
+                                                                InMemoryAccountDao.newLockFree(1000)}) {
+            // given
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            Set<Long> balances = ConcurrentHashMap.newKeySet();
+            ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+            // when
+            IntStream.range(0, 1000).forEach(i -> executorService.execute(() -> {
+                FundsResult result = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(1), "credit-" + i));
+                balances.add(result.getBalance().get().getValue());
+            }));
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+            // then
+            assertEquals(1000, balances.size());
+            assertEquals(1, (long) Collections.min(balances));
+            assertEquals(1000, (long) Collections.max(balances));
+        }
+    }
+
+    @Test
+    public void refusedChangesReportTheBalanceTheyWereCheckedAgainst() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+
+        // when
+        FundsResult transferred = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 65, REQUEST_ID_2));
+        FundsResult refused = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 50, REQUEST_ID_3));
+        FundsResult replayed = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 65, REQUEST_ID_2));
+
+        // then
+        assertEquals(FundEnum.SUCCESS, transferred.getOutcome());
+        assertEquals(35, transferred.getBalance().get().getValue());
+        assertEquals(FundEnum.FUND_UNDERFLOW, refused.getOutcome());
+        assertEquals(35, refused.getBalance().get().getValue());
+        assertEquals(FundEnum.SUCCESS, replayed.getOutcome());
+        assertFalse(replayed.getBalance().isPresent());
+    }
+
+    @Test
+    public void snapshotCarriesAccountWithBalanceAndVersion() {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.markHot(ACCOUNT_NUM_B, 4);
+        Account account = createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A);
+        dao.addAccount(account);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        AccountSnapshot before = dao.getAccountSnapshot(ACCOUNT_NUM_A).get();
+
+        // when
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(40), REQUEST_ID_2));
+        AccountSnapshot after = dao.getAccountSnapshot(ACCOUNT_NUM_A).get();
+        AccountSnapshot hot = dao.getAccountSnapshot(ACCOUNT_NUM_B).get();
+
+        // then
+        assertSame(account, after.getAccount());
+        assertEquals(0, before.getAmount().getValue());
+        assertEquals(100, after.getAmount().getValue());
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals(40, hot.getAmount().getValue());
+        assertFalse(dao.getAccountSnapshot("000000009").isPresent());
+    }
+
+    @Test
+    public void repeatedAddsOfAnAccountClaimOneBalanceSlot() {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A)).isPresent());
+        }
+
+        // then
+        assertEquals(1, dao.balances.allocate(0));
+    }
+
+    @Test
+    public void transferFundsBatchAllOrNothingRollsBackEveryTransfer() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        List<Transfer> batch = Arrays.asList(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 60, "batch-1"),
+                                             batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 60, "batch-2"),
+                                             batchTransfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 10, "batch-3"));
+
+        // when
+        List<FundEnum> rolledBack = dao.transferFundsBatch(batch, true);
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(20), REQUEST_ID_2));
+        List<FundEnum> retried = dao.transferFundsBatch(batch, true);
+
+        // then
+        assertEquals(Arrays.asList(FundEnum.FUND_UNDERFLOW, FundEnum.FUND_UNDERFLOW, FundEnum.BATCH_ROLLED_BACK),
+                     rolledBack);
+        assertEquals(Arrays.asList(FundEnum.SUCCESS, FundEnum.SUCCESS, FundEnum.SUCCESS), retried);
+        assertEquals(10, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(110, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void transferFundsBatchAllOrNothingChecksNetChangePerAccount() {
+        // given
+        AccountDao dao = InMemoryAccountDao.newLockFree(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1));
+        List<Transfer> batch = Arrays.asList(batchTransfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 0, "batch-0"),
+                                             batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, "batch-1"),
+                                             batchTransfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 10, "batch-2"),
+                                             batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 5, "batch-3"));
+
+        // when
+        List<FundEnum> results = dao.transferFundsBatch(batch, true);
+
+        // then
+        assertEquals(Arrays.asList(FundEnum.SUCCESS, FundEnum.SUCCESS, FundEnum.SUCCESS, FundEnum.SUCCESS), results);
+        assertEquals(5, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(5, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void transferFundsBatchAcrossManyAccountsWithOverlappingBatches() throws InterruptedException {
+        // given
+        int numAccounts = 20;
+        AccountDao dao = InMemoryAccountDao.newWithTimeout(1000);
+        for (int i = 1; i <= numAccounts; i++) {
+            String accountNum = String.format("%09d", i);
+            dao.addAccount(createAccount("Ankur", "Agarwal", accountNum));
+            dao.addFunds(new AddFunds(accountNum, Amount.newAmount(100), "seed-" + i));
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        AtomicInteger timedOut = new AtomicInteger();
+
+        // when
+        IntStream.range(0, 50).forEach(b -> executorService.execute(() -> {
+            List<Transfer> batch = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                String from = String.format("%09d", (b + i) % numAccounts + 1);
+                String to = String.format("%09d", (b * 7 + i * 3 + 1) % numAccounts + 1);
+                batch.add(batchTransfer(from, to, 5, "batch-" + b + "-" + i));
+            }
+            if (dao.transferFundsBatch(batch, b % 2 == 0).contains(FundEnum.TIMED_OUT)) {
+                timedOut.incrementAndGet();
+            }
+        }));
+        executorService.shutdown();
+        executorService.awaitTermination(30, TimeUnit.SECONDS);
+
+        // then
+        long total = 0;
+        for (int i = 1; i <= numAccounts; i++) {
+            total += dao.getAmount(String.format("%09d", i)).get().getValue();
+        }
+        assertEquals(0, timedOut.get());
+        assertEquals(numAccounts * 100, total);
+    }
+
+    @Test
+    public void durableDaoRecoversBatchTransfers() throws IOException {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+            dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+            dao.transferFundsBatch(Arrays.asList(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 30, "batch-1"),
+                                                 batchTransfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 10, "batch-2")), false);
+        }
+
+        // when
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 0, 16)) {
+            AccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            FundEnum replay = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 30, "batch-1")).getOutcome();
+
+            // then
+            assertEquals(FundEnum.SUCCESS, replay);
+            assertEquals(80, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(20, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+        }
+    }
+
+    @Test
+    public void hotAccountCountsEveryCreditAndDebit() throws InterruptedException {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newLockFree(1000);
+        dao.markHot(ACCOUNT_NUM_A, 4);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(1000), REQUEST_ID_1));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(1000), REQUEST_ID_2));
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        // when
+        IntStream.range(0, 1000).forEach(i -> executorService.execute(() -> {
+            if (i % 4 == 0) {
+                dao.transferFunds(new Transfer(new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(-1), "transfer-" + i),
+                                               new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(1), "transfer-" + i)));
+            } else if (i % 4 == 1) {
+                dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-1), "debit-" + i));
+            } else {
+                dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(2), "credit-" + i));
+            }
+        }));
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        // then
+        assertEquals(1000 + 250 - 250 + 500 * 2, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(750, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void hotAccountDebitSeesCreditsOnEveryStripe() throws InterruptedException {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newWithTimeout(100);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.markHot(ACCOUNT_NUM_A, 8);
+        Thread[] creditors = new Thread[8];
+        for (int i = 0; i < creditors.length; i++) {
+            String requestID = "credit-" + i;
+            creditors[i] = new Thread(() -> dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), requestID)));
+            creditors[i].start();
+        }
+        for (Thread creditor : creditors) {
+            creditor.join();
+        }
+
+        // when
+        FundEnum tooMuch = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-81), REQUEST_ID_1)).getOutcome();
+        FundEnum everything = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-80), REQUEST_ID_2)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, tooMuch);
+        assertEquals(FundEnum.SUCCESS, everything);
+        assertEquals(0, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void durableDaoDoesNotStripeHotAccounts() throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.open(folder.getRoot().toPath().resolve("ledger.wal"), 0, 16)) {
+            InMemoryAccountDao.newDurable(100, newStore(), wal).markHot(ACCOUNT_NUM_A, 4);
+        }
+    }
+
+    @Test
+    public void asyncTransferWaitsForLockedAccountWithoutBlocking() throws Exception {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newWithTimeout(1000);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        CountDownLatch release = holdLock(dao.accounts.get(ACCOUNT_NUM_B).getLock());
+
+        // when
+        CompletableFuture<FundsResult> response = dao.transferFundsAsync(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 40, REQUEST_ID_2));
+        boolean doneWhileLocked = response.isDone();
+        release.countDown();
+
+        // then
+        assertFalse(doneWhileLocked);
+        assertEquals(FundEnum.SUCCESS, response.get(5, TimeUnit.SECONDS).getOutcome());
+        assertEquals(60, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(40, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void asyncAddFundsTimesOutWhenAccountStaysLocked() throws Exception {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newWithTimeout(20);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        CountDownLatch release = holdLock(dao.accounts.get(ACCOUNT_NUM_A).getLock());
+
+        // when
+        FundEnum response = dao.addFundsAsync(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1))
+                               .get(5, TimeUnit.SECONDS).getOutcome();
+        release.countDown();
+
+        // then
+        assertEquals(FundEnum.TIMED_OUT, response);
+        assertEquals(FundEnum.SUCCESS, dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1)).getOutcome());
+    }
+
+    @Test
+    public void durableDaoCompletesAsyncTransfersOnceLogged() throws Exception {
+        // given
+        Path logFile = folder.getRoot().toPath().resolve("ledger.wal");
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 1, 16)) {
+            InMemoryAccountDao dao = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+            dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+
+            // when
+            FundEnum added = dao.addFundsAsync(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1))
+                                .get(5, TimeUnit.SECONDS).getOutcome();
+            FundEnum transferred = dao.transferFundsAsync(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 30, REQUEST_ID_2))
+                                      .get(5, TimeUnit.SECONDS).getOutcome();
+
+            // then
+            assertEquals(FundEnum.SUCCESS, added);
+            assertEquals(FundEnum.SUCCESS, transferred);
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(logFile, 1, 16)) {
+            InMemoryAccountDao recovered = InMemoryAccountDao.newDurable(100, newStore(), wal);
+            assertEquals(70, recovered.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(30, recovered.getAmount(ACCOUNT_NUM_B).get().getValue());
+        }
+    }
+
+    @Test
+    public void timedOutLockWaitsAreProfiledPerAccount() throws Exception {
+        // given
+        InMemoryAccountDao dao = InMemoryAccountDao.newWithTimeout(20);
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_A));
+        dao.addAccount(createAccount("Ankur", "Agarwal", ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(100), REQUEST_ID_1));
+        CountDownLatch release = holdLock(dao.accounts.get(ACCOUNT_NUM_B).getLock());
+
+        // when
+        FundEnum transferred = dao.transferFunds(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, REQUEST_ID_2)).getOutcome();
+        FundEnum transferredAsync = dao.transferFundsAsync(batchTransfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 10, REQUEST_ID_3))
+                                       .get(5, TimeUnit.SECONDS).getOutcome();
+        release.countDown();
+        List<AccountContention> hottest = dao.hottestAccounts(10);
+
+        // then
+        assertEquals(FundEnum.TIMED_OUT, transferred);
+        assertEquals(FundEnum.TIMED_OUT, transferredAsync);
+        assertEquals(1, hottest.size());
+        assertEquals(ACCOUNT_NUM_B, hottest.get(0).getAccountNumber());
+        assertEquals(2, hottest.get(0).getContended());
+        assertEquals(2, hottest.get(0).getTimedOut());
+        assertTrue(hottest.get(0).getWaitMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    /**
+     * Locks from another thread, as the lock is reentrant, until the returned latch is counted down.
+     */
+    private CountDownLatch holdLock(ReentrantLock lock) throws InterruptedException {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        new Thread(() -> {
+            lock.lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }).start();
+        locked.await();
+        return release;
+    }
+
+    private Transfer batchTransfer(String from, String to, long amount, String requestID) {
+        return new Transfer(new AddFunds(from, Amount.newAmount(-amount), requestID),
+                            new AddFunds(to, Amount.newAmount(amount), requestID));
+    }
+
+    private IdempotencyStore newStore() {
+        return IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS);
     }
 
     Account createAccount(String firstName, String surname) {
@@ -0,0 +1,106 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class LedgerSnapshotTest {
+
+    private static OffsetDateTime NOW = OffsetDateTime.now(ZoneOffset.ofHours(-5));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void accountsAndRequestsAreLoadedBack() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.snapshot");
+        int numAccounts = 1000;
+        try (LedgerSnapshot.Writer writer = LedgerSnapshot.create(file)) {
+            for (int i = 0; i < numAccounts; i++) {
+                writer.addAccount(createAccount(String.format("%09d", i), i % 2 == 0 ? null : "Kumar"), i * 100L);
+            }
+            writer.addRequest(1, 2, FundEnum.SUCCESS);
+            writer.addRequest(3, 4, FundEnum.FUND_UNDERFLOW);
+            writer.commit(1234);
+        }
+
+        // when
+        Map<String, Account> accounts = new ConcurrentHashMap<>();
+        Map<String, Long> balances = new ConcurrentHashMap<>();
+        Map<Long, FundEnum> requests = new ConcurrentHashMap<>();
+        long position = LedgerSnapshot.load(file, 3, new LedgerSnapshot.Loader() {
+            @Override
+            public void onAccount(Account account, long balance) {
+                accounts.put(account.getAccountNumber(), account);
+                balances.put(account.getAccountNumber(), balance);
+            }
+
+            @Override
+            public void onRequest(long high, long low, FundEnum outcome) {
+                requests.put(high * 10 + low, outcome);
+            }
+        });
+
+        // then
+        assertEquals(1234, position);
+        assertEquals(numAccounts, accounts.size());
+        assertEquals(createAccount("000000007", "Kumar"), accounts.get("000000007"));
+        assertNull(accounts.get("000000008").getOtherName());
+        assertEquals(99900, (long) balances.get("000000999"));
+        assertEquals(FundEnum.SUCCESS, requests.get(12L));
+        assertEquals(FundEnum.FUND_UNDERFLOW, requests.get(34L));
+    }
+
+    @Test
+    public void unfinishedSnapshotLeavesPreviousOneInPlace() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.snapshot");
+        try (LedgerSnapshot.Writer writer = LedgerSnapshot.create(file)) {
+            writer.addAccount(createAccount("000000001", "Kumar"), 10);
+            writer.commit(100);
+        }
+
+        // when
+        try (LedgerSnapshot.Writer writer = LedgerSnapshot.create(file)) {
+            writer.addAccount(createAccount("000000002", "Kumar"), 20);
+        }
+        long[] count = new long[1];
+        long position = LedgerSnapshot.load(file, 1, new LedgerSnapshot.Loader() {
+            @Override
+            public void onAccount(Account account, long balance) {
+                count[0]++;
+            }
+
+            @Override
+            public void onRequest(long high, long low, FundEnum outcome) {
+            }
+        });
+
+        // then
+        assertEquals(100, position);
+        assertEquals(1, count[0]);
+        assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+    }
+
+    private Account createAccount(String accountNum, String otherName) {
+        return Account.AccountBuilder.anAccount()
+                .withAccountNumber(accountNum)
+                .withCreationDateTime(NOW)
+                .withFirstName("Ankur")
+                .withOtherName(otherName)
+                .withSurname("Agarwal")
+                .build();
+    }
+}
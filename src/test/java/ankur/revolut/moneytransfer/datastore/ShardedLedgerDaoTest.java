@@ -0,0 +1,318 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import ankur.revolut.moneytransfer.datastore.model.AddFunds;
+import ankur.revolut.moneytransfer.datastore.model.Amount;
+import ankur.revolut.moneytransfer.datastore.model.Transfer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ShardedLedgerDaoTest {
+
+    private static OffsetDateTime NOW = OffsetDateTime.now(ZoneOffset.UTC);
+    private static String ACCOUNT_NUM_A = "000000001";
+    private static String ACCOUNT_NUM_B = "000000002";
+    private static String REQUEST_ID_1 = "b1946ac92492d2347c6235b4d2611184";
+    private static String REQUEST_ID_2 = "591785b794601e212b260e25925636fd";
+    private static String REQUEST_ID_3 = "891785b794601e212b260e25925636fe";
+
+    private ShardedLedgerDao dao;
+
+    @After
+    public void after() {
+        dao.shutdown();
+    }
+
+    @Test
+    public void addAccountUnsuccessfulWhenAlreadyExists() {
+        // given
+        dao = givenDao(4);
+
+        // when
+        Optional<Account> response1 = dao.addAccount(createAccount(ACCOUNT_NUM_A));
+        Optional<Account> response2 = dao.addAccount(createAccount(ACCOUNT_NUM_A));
+
+        // then
+        assertTrue(response1.isPresent());
+        assertFalse(response2.isPresent());
+        assertEquals(0, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void addFundsIsSuccessful() {
+        // given
+        dao = givenDao(4);
+        dao.addAccount(createAccount(ACCOUNT_NUM_A));
+
+        // when
+        FundEnum response1 = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1)).getOutcome();
+        FundEnum response2 = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_2)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.SUCCESS, response1);
+        assertEquals(FundEnum.SUCCESS, response2);
+        assertEquals(20, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void addFundsReplaysOutcomeForSameRequestId() {
+        // given
+        dao = givenDao(4);
+        dao.addAccount(createAccount(ACCOUNT_NUM_A));
+        AddFunds debit = new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(-10), REQUEST_ID_1);
+
+        // when
+        FundEnum response1 = dao.addFunds(debit).getOutcome();
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_2));
+        FundEnum response2 = dao.addFunds(debit).getOutcome();
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, response1);
+        assertEquals(FundEnum.FUND_UNDERFLOW, response2);
+        assertEquals(10, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void addFundFailureWhenNoAccount() {
+        // given
+        dao = givenDao(4);
+
+        // when
+        FundEnum response = dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(10), REQUEST_ID_1)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.ACCOUNT_NOT_FOUND, response);
+    }
+
+    @Test
+    public void transferFundsWithinOneShard() {
+        // given
+        dao = givenDao(1);
+        givenFundedAccounts(100, 2);
+
+        // when
+        FundEnum response = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 65, REQUEST_ID_3)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.SUCCESS, response);
+        assertEquals(35, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(67, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+    }
+
+    @Test
+    public void transferFundsFailUnknownDestAccount() {
+        // given
+        dao = givenDao(4);
+        dao.addAccount(createAccount(ACCOUNT_NUM_A));
+
+        // when
+        FundEnum response = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 65, REQUEST_ID_3)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.DEST_ACCOUNT_NOT_FOUND, response);
+    }
+
+    @Test
+    public void transferFundsFailUnderflow() {
+        // given
+        dao = givenDao(4);
+        givenFundedAccounts(100, 0);
+
+        // when
+        FundEnum response = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 1000, REQUEST_ID_3)).getOutcome();
+
+        // then
+        assertEquals(FundEnum.FUND_UNDERFLOW, response);
+        assertEquals(100, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+    }
+
+    @Test
+    public void transferFundsFailOverflowRefundsSource() {
+        for (int shards : new int[]{1, 4}) {
+            // given
+            dao = givenDao(shards);
+            givenFundedAccounts(100, Long.MAX_VALUE - 50);
+
+            // when
+            FundEnum response = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 100, REQUEST_ID_3)).getOutcome();
+
+            // then
+            assertEquals(FundEnum.FUND_OVERFLOW, response);
+            assertEquals(100, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+            assertEquals(Long.MAX_VALUE - 50, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+            dao.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentTransfersAcrossShardsKeepTotalBalance() throws InterruptedException {
+        // given
+        dao = givenDao(4);
+        int numAccounts = 20;
+        for (int i = 0; i < numAccounts; i++) {
+            String accountNumber = String.format("%09d", i);
+            dao.addAccount(createAccount(accountNumber));
+            dao.addFunds(new AddFunds(accountNumber, Amount.newAmount(100), "seed-" + i));
+        }
+        int numRequests = 5000;
+
+        // when
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        IntStream.range(0, numRequests)
+                .forEach(i -> executor.submit(() -> {
+                    int from = ThreadLocalRandom.current().nextInt(numAccounts);
+                    int to = (from + 1 + ThreadLocalRandom.current().nextInt(numAccounts - 1)) % numAccounts;
+                    dao.transferFunds(transfer(String.format("%09d", from), String.format("%09d", to),
+                                               ThreadLocalRandom.current().nextInt(1, 50), String.valueOf(i)));
+                }));
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        // then
+        long total = 0;
+        for (int i = 0; i < numAccounts; i++) {
+            long balance = dao.getAmount(String.format("%09d", i)).get().getValue();
+            assertTrue(balance >= 0);
+            total += balance;
+        }
+        assertEquals(numAccounts * 100, total);
+    }
+
+    @Test
+    public void transferResultsCarryTheSourceBalanceTheyLeft() {
+        // given
+        dao = givenDao(4);
+        givenFundedAccounts(100, 2);
+
+        // when
+        FundsResult transferred = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 65, REQUEST_ID_3));
+        FundsResult refused = dao.transferFunds(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 50, "refused"));
+
+        // then
+        assertEquals(FundEnum.SUCCESS, transferred.getOutcome());
+        assertEquals(35, transferred.getBalance().get().getValue());
+        assertEquals(FundEnum.FUND_UNDERFLOW, refused.getOutcome());
+        assertEquals(35, refused.getBalance().get().getValue());
+    }
+
+    @Test
+    public void allOrNothingBatchRolledBackWithoutTouchingBalances() {
+        // given
+        dao = givenDao(4);
+        givenFundedAccounts(100, 0);
+        List<Transfer> batch = Arrays.asList(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 30, REQUEST_ID_3),
+                                             transfer(ACCOUNT_NUM_B, ACCOUNT_NUM_A, 10, "batch-2"));
+
+        // when
+        List<FundEnum> results = dao.transferFundsBatch(batch, true);
+
+        // then
+        assertEquals(Arrays.asList(FundEnum.BATCH_ROLLED_BACK, FundEnum.BATCH_ROLLED_BACK), results);
+        assertEquals(100, dao.getAmount(ACCOUNT_NUM_A).get().getValue());
+        assertEquals(0, dao.getAmount(ACCOUNT_NUM_B).get().getValue());
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, dao.idempotencyStore.claim(REQUEST_ID_3));
+    }
+
+    @Test
+    public void failedCommandFreesItsRequestId() throws Exception {
+        // given
+        dao = givenDao(4);
+        givenFundedAccounts(100, Long.MAX_VALUE - 50);
+        ShardedLedgerDao.Shard source = shardHolding(ACCOUNT_NUM_A);
+        ShardedLedgerDao.Shard destination = shardHolding(ACCOUNT_NUM_B);
+        assertNotSame(source, destination);
+        // The destination's thread is held until the source account is gone, so the credit overflows only
+        // once it has been removed and refunding it fails on the source's shard. Nothing reaches the source's
+        // handoffs before then, so the removal, queued behind the debit, runs straight after it.
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch sourceRemoved = new CountDownLatch(1);
+        destination.put(command(shard -> {
+            blockerStarted.countDown();
+            awaitQuietly(sourceRemoved);
+        }));
+        assertTrue(blockerStarted.await(5, TimeUnit.SECONDS));
+
+        // when
+        CompletableFuture<FundsResult> result = dao.transferFundsAsync(transfer(ACCOUNT_NUM_A, ACCOUNT_NUM_B, 100, REQUEST_ID_3));
+        source.put(command(shard -> {
+            shard.balances.remove(ACCOUNT_NUM_A);
+            sourceRemoved.countDown();
+        }));
+
+        // then
+        assertEquals(FundEnum.TIMED_OUT, result.get(5, TimeUnit.SECONDS).getOutcome());
+        assertEquals(FundEnum.ACCOUNT_PRE_CHECK_PASS, dao.idempotencyStore.claim(REQUEST_ID_3));
+    }
+
+    private ShardedLedgerDao.Shard shardHolding(String accountNumber) {
+        for (ShardedLedgerDao.Shard shard : dao.shards) {
+            if (shard.balances.containsKey(accountNumber)) {
+                return shard;
+            }
+        }
+        throw new AssertionError("No shard holds " + accountNumber);
+    }
+
+    private static ShardedLedgerDao.Command command(Consumer<ShardedLedgerDao.Shard> body) {
+        return new ShardedLedgerDao.Command() {
+            @Override
+            void execute(ShardedLedgerDao.Shard shard) {
+                body.accept(shard);
+            }
+
+            @Override
+            void fail(Throwable cause) {
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ShardedLedgerDao givenDao(int shards) {
+        return ShardedLedgerDao.newWithShards(shards, 64, 100,
+                                              IdempotencyStore.newWithRetention(IdempotencyStore.DEFAULT_RETENTION_MILLIS));
+    }
+
+    private void givenFundedAccounts(long balanceA, long balanceB) {
+        dao.addAccount(createAccount(ACCOUNT_NUM_A));
+        dao.addAccount(createAccount(ACCOUNT_NUM_B));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_A, Amount.newAmount(balanceA), REQUEST_ID_1));
+        dao.addFunds(new AddFunds(ACCOUNT_NUM_B, Amount.newAmount(balanceB), REQUEST_ID_2));
+    }
+
+    private Transfer transfer(String from, String to, long amount, String requestId) {
+        return new Transfer(new AddFunds(from, Amount.newAmount(-amount), requestId),
+                            new AddFunds(to, Amount.newAmount(amount), requestId));
+    }
+
+    private Account createAccount(String accountNum) {
+        return Account.AccountBuilder.anAccount()
+                .withAccountNumber(accountNum)
+                .withCreationDateTime(NOW)
+                .withFirstName("Ankur")
+                .withSurname("Agarwal")
+                .build();
+    }
+}
@@ -0,0 +1,176 @@
+package ankur.revolut.moneytransfer.datastore;
+
+import ankur.revolut.moneytransfer.datastore.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTest {
+
+    private static OffsetDateTime NOW = OffsetDateTime.now(ZoneOffset.ofHours(1));
+    private static String REQUEST_ID_1 = "b1946ac92492d2347c6235b4d2611184";
+    private static String REQUEST_ID_2 = "591785b794601e212b260e25925636fd";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReplayedAfterReopening() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.wal");
+        Account account = createAccount("000000001");
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.awaitDurable(wal.appendAccount(account));
+            wal.awaitDurable(wal.appendFunds("000000001", 250, REQUEST_ID_1));
+            wal.awaitDurable(wal.appendTransfer("000000001", "000000002", 100, REQUEST_ID_2));
+        }
+
+        // when
+        List<String> replayed = new ArrayList<>();
+        List<Account> accounts = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.replay(recordingReplayer(replayed, accounts));
+        }
+
+        // then
+        assertEquals(1, accounts.size());
+        assertEquals(account, accounts.get(0));
+        assertEquals(2, replayed.size());
+        assertEquals("funds 000000001 250 " + REQUEST_ID_1, replayed.get(0));
+        assertEquals("transfer 000000001 000000002 100 " + REQUEST_ID_2, replayed.get(1));
+    }
+
+    @Test
+    public void incompleteRecordIsDiscardedOnOpen() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.wal");
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.awaitDurable(wal.appendFunds("000000001", 250, REQUEST_ID_1));
+            wal.awaitDurable(wal.appendFunds("000000001", 300, REQUEST_ID_2));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // when
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.replay(recordingReplayer(replayed, new ArrayList<>()));
+            wal.awaitDurable(wal.appendFunds("000000001", 400, REQUEST_ID_2));
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.replay(recordingReplayer(replayed, new ArrayList<>()));
+        }
+
+        // then
+        assertEquals(3, replayed.size());
+        assertEquals("funds 000000001 250 " + REQUEST_ID_1, replayed.get(0));
+        assertEquals("funds 000000001 400 " + REQUEST_ID_2, replayed.get(2));
+    }
+
+    @Test
+    public void corruptRecordIsDiscardedOnOpen() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.wal");
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.awaitDurable(wal.appendFunds("000000001", 250, REQUEST_ID_1));
+            wal.awaitDurable(wal.appendFunds("000000001", 300, REQUEST_ID_2));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), channel.size() - 1);
+        }
+
+        // when
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.replay(recordingReplayer(replayed, new ArrayList<>()));
+        }
+
+        // then
+        assertEquals(1, replayed.size());
+    }
+
+    @Test
+    public void concurrentAppendsAreAllDurable() throws Exception {
+        // given
+        Path file = folder.getRoot().toPath().resolve("ledger.wal");
+        int numRequests = 2000;
+
+        // when
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 1, 8)) {
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            IntStream.range(0, numRequests)
+                    .forEach(i -> executor.submit(() -> wal.awaitDurable(wal.appendFunds("000000001", i, String.valueOf(i)))));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        // then
+        long[] total = new long[1];
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.open(file, 0, 16)) {
+            wal.replay(new WriteAheadLog.Replayer() {
+                @Override
+                public void onAccount(Account account) {
+                }
+
+                @Override
+                public void onFunds(String accountNumber, long change, String requestID) {
+                    total[0] += change;
+                    replayed.add(requestID);
+                }
+
+                @Override
+                public void onTransfer(String fromAccountNumber, String toAccountNumber, long amount, String requestID) {
+                }
+            });
+        }
+        assertEquals(numRequests, replayed.size());
+        assertEquals((long) numRequests * (numRequests - 1) / 2, total[0]);
+    }
+
+    private WriteAheadLog.Replayer recordingReplayer(List<String> replayed, List<Account> accounts) {
+        return new WriteAheadLog.Replayer() {
+            @Override
+            public void onAccount(Account account) {
+                accounts.add(account);
+            }
+
+            @Override
+            public void onFunds(String accountNumber, long change, String requestID) {
+                replayed.add("funds " + accountNumber + " " + change + " " + requestID);
+            }
+
+            @Override
+            public void onTransfer(String fromAccountNumber, String toAccountNumber, long amount, String requestID) {
+                replayed.add("transfer " + fromAccountNumber + " " + toAccountNumber + " " + amount + " " + requestID);
+            }
+        };
+    }
+
+    private Account createAccount(String accountNum) {
+        return Account.AccountBuilder.anAccount()
+                .withAccountNumber(accountNum)
+                .withCreationDateTime(NOW)
+                .withFirstName("Ankur")
+                .withOtherName("")
+                .withSurname("Agarwal")
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+package ankur.revolut.moneytransfer.metrics;
+
+import ankur.revolut.moneytransfer.datastore.FundEnum;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    private static final int RECORDS = 100_000;
+
+    @Test
+    public void histogramBucketsArePowersOfTwoNanoseconds() {
+        assertEquals(0, Histogram.bucket(0));
+        assertEquals(0, Histogram.bucket(1024));
+        assertEquals(1, Histogram.bucket(1025));
+        assertEquals(1, Histogram.bucket(2048));
+        assertEquals(2, Histogram.bucket(2049));
+        assertEquals(25, Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void histogramIsScrapedWithCumulativeBuckets() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram.Child latency = registry.histogram("request_seconds", "Request time", "route").labels("GET /a");
+
+        // when
+        latency.record(1000);
+        latency.record(2000);
+        latency.record(1_000_000_000_000L);
+        String scrape = registry.scrape();
+
+        // then
+        assertTrue(scrape.contains("# TYPE request_seconds histogram\n"));
+        assertTrue(scrape.contains("request_seconds_bucket{route=\"GET /a\",le=\"1.024E-6\"} 1\n"));
+        assertTrue(scrape.contains("request_seconds_bucket{route=\"GET /a\",le=\"2.048E-6\"} 2\n"));
+        assertTrue(scrape.contains("request_seconds_bucket{route=\"GET /a\",le=\"+Inf\"} 3\n"));
+        assertTrue(scrape.contains("request_seconds_count{route=\"GET /a\"} 3\n"));
+        assertTrue(scrape.contains("request_seconds_sum{route=\"GET /a\"} 1000.000003\n"));
+    }
+
+    @Test
+    public void enumCounterExportsEveryValue() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        EnumCounter<FundEnum>.Child outcomes = registry.enumCounter("outcomes_total", "Outcomes", "operation", "outcome",
+                                                                    FundEnum.class).labels("transfer");
+
+        // when
+        outcomes.increment(FundEnum.TIMED_OUT);
+        outcomes.increment(FundEnum.TIMED_OUT);
+        String scrape = registry.scrape();
+
+        // then
+        assertTrue(scrape.contains("outcomes_total{operation=\"transfer\",outcome=\"TIMED_OUT\"} 2\n"));
+        assertTrue(scrape.contains("outcomes_total{operation=\"transfer\",outcome=\"FUND_UNDERFLOW\"} 0\n"));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        // given
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram.Child latency = registry.histogram("request_seconds", "Request time", "route").labels("GET /a");
+        EnumCounter<FundEnum>.Child outcomes = registry.enumCounter("outcomes_total", "Outcomes", "operation", "outcome",
+                                                                    FundEnum.class).labels("transfer");
+        long threadId = Thread.currentThread().getId();
+        record(latency, outcomes);
+        threads.getThreadAllocatedBytes(threadId);
+
+        // when
+        long before = threads.getThreadAllocatedBytes(threadId);
+        record(latency, outcomes);
+        long after = threads.getThreadAllocatedBytes(threadId);
+
+        // then, a few hundred bytes may go to compiling the loop, far less than one object per recording
+        assertTrue(after - before < RECORDS);
+    }
+
+    private void record(Histogram.Child latency, EnumCounter<FundEnum>.Child outcomes) {
+        for (int i = 0; i < RECORDS; i++) {
+            latency.record(i * 1000L);
+            outcomes.increment(FundEnum.SUCCESS);
+        }
+    }
+}
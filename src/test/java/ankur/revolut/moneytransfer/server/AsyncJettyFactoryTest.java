@@ -0,0 +1,62 @@
+package ankur.revolut.moneytransfer.server;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncJettyFactoryTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("server.port");
+        System.clearProperty("server.minThreads");
+        System.clearProperty("server.maxThreads");
+        System.clearProperty("server.acceptors");
+        System.clearProperty("server.selectors");
+        System.clearProperty("server.acceptQueueSize");
+    }
+
+    @Test
+    public void serverUsesConfiguredThreadsAndConnector() {
+        // given
+        System.setProperty("server.port", "9090");
+        System.setProperty("server.minThreads", "4");
+        System.setProperty("server.maxThreads", "16");
+        System.setProperty("server.acceptors", "1");
+        System.setProperty("server.selectors", "2");
+        System.setProperty("server.acceptQueueSize", "128");
+        AsyncJettyFactory.ServerFactory factory = new AsyncJettyFactory.ServerFactory(ServerSettings.fromSystemProperties());
+
+        // when
+        Server server = factory.create(-1, -1, -1);
+
+        // then
+        QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+        ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+        assertEquals(4, threadPool.getMinThreads());
+        assertEquals(16, threadPool.getMaxThreads());
+        assertEquals(9090, connector.getPort());
+        assertEquals(1, connector.getAcceptors());
+        assertEquals(2, connector.getSelectorManager().getSelectorCount());
+        assertEquals(128, connector.getAcceptQueueSize());
+    }
+
+    @Test
+    public void serverKeepsJettyDefaultsWhenNothingIsConfigured() {
+        // given
+        AsyncJettyFactory.ServerFactory factory = new AsyncJettyFactory.ServerFactory(ServerSettings.fromSystemProperties());
+
+        // when
+        Server server = factory.create(-1, -1, -1);
+
+        // then
+        QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+        assertEquals(8, threadPool.getMinThreads());
+        assertEquals(200, threadPool.getMaxThreads());
+        assertEquals(8080, ((ServerConnector) server.getConnectors()[0]).getPort());
+    }
+}